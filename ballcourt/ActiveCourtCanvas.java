@@ -0,0 +1,172 @@
+package ballcourt;
+
+
+/**
+ * Canvas drawing a ball court by active rendering.
+ * Instead of requesting a repaint from the event dispatch thread, the
+ * caller of method render draws the court into the back buffer of a
+ * BufferStrategy and presents it immediately (page flipping, or blitting
+ * if flipping is not available). Repaint requests of the system are
+ * ignored. The time needed to present each frame is measured.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+
+
+public class ActiveCourtCanvas extends Canvas
+{
+
+    /** Number of buffers of the buffer strategy */
+    private static final int BUFFERS = 2;
+
+    /** The ball court drawn on this canvas, null for subclasses drawing their own content */
+    private final BallCourt bc;
+
+    /** Buffer strategy, created when the canvas is first rendered */
+    private volatile BufferStrategy strategy;
+
+    /** Number of frames presented so far */
+    private volatile long frames;
+    /** Time needed to present the most recent frame in nanoseconds */
+    private volatile long lastPresentNanos;
+    /** Maximal time needed to present a frame since the last reset in nanoseconds */
+    private volatile long maxPresentNanos;
+    /** Sum of all present times in nanoseconds */
+    private volatile long totalPresentNanos;
+
+    /**
+     * Constructor for a canvas drawing a ball court
+     * @param bc The ball court to be drawn
+     */
+    public ActiveCourtCanvas(BallCourt bc) {
+        super();
+        this.bc = bc;
+        setIgnoreRepaint(true);
+        setBackground(Color.WHITE);
+    }
+
+    /**
+     * Constructor for subclasses overriding method draw
+     */
+    protected ActiveCourtCanvas() {
+        this(null);
+    }
+
+    /**
+     * Draw the content of a frame into the cleared back buffer.
+     * The default implementation draws the ball court of the canvas.
+     * @param g Graphics context of the back buffer, with colour black
+     * @param width Width of the canvas
+     * @param height Height of the canvas
+     */
+    protected void draw(Graphics g, int width, int height) {
+        bc.draw(g);
+    }
+
+    /**
+     * Draw the court into the back buffer and present it.
+     * The method does nothing while the canvas is not displayable,
+     * e.g. after its window has been disposed by the event dispatch thread.
+     * If the contents of the buffers are lost, the frame is drawn again.
+     */
+    public void render() {
+        if ( !isDisplayable() ) return;
+        BufferStrategy strategy = this.strategy;
+        try {
+            if ( strategy == null ) {
+                createBufferStrategy(BUFFERS);
+                strategy = getBufferStrategy();
+                this.strategy = strategy;
+            }
+            present(strategy);
+        }
+        catch(IllegalStateException ex) {
+            // the peer has been removed concurrently - nothing to present
+        }
+    }
+
+    /**
+     * Draw the court into the back buffer of the strategy and show it
+     * @param strategy The buffer strategy of the canvas
+     */
+    private void present(BufferStrategy strategy) {
+        final int width = getWidth();
+        final int height = getHeight();
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                try {
+                    g.setColor(Color.WHITE);
+                    g.fillRect(0, 0, width, height);
+                    g.setColor(Color.BLACK);
+                    draw(g, width, height);
+                }
+                finally {
+                    g.dispose();
+                }
+            } while ( strategy.contentsRestored() );
+
+            long start = System.nanoTime();
+            strategy.show();
+            Toolkit.getDefaultToolkit().sync();
+            recordPresent(System.nanoTime() - start);
+        } while ( strategy.contentsLost() );
+    }
+
+    /**
+     * Record the time needed to present a frame
+     * @param nanos Present time in nanoseconds
+     */
+    private void recordPresent(long nanos) {
+        frames++;
+        lastPresentNanos = nanos;
+        totalPresentNanos += nanos;
+        if ( nanos > maxPresentNanos ) {
+            maxPresentNanos = nanos;
+        }
+    }
+
+    /** Return the number of frames presented so far */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** Return the time needed to present the most recent frame in nanoseconds */
+    public long getLastPresentNanos() {
+        return lastPresentNanos;
+    }
+
+    /** Return the maximal present time since the last reset in nanoseconds */
+    public long getMaxPresentNanos() {
+        return maxPresentNanos;
+    }
+
+    /** Return the average present time of all frames in nanoseconds */
+    public long getAveragePresentNanos() {
+        long f = frames;
+        return f == 0 ? 0 : totalPresentNanos / f;
+    }
+
+    /** Reset the maximal present time */
+    public void resetMaxPresent() {
+        maxPresentNanos = 0;
+    }
+
+    /**
+     * Release the buffer strategy together with the native resources
+     * of the canvas
+     */
+    @Override
+    public void removeNotify() {
+        BufferStrategy s = strategy;
+        strategy = null;
+        if ( s != null ) {
+            s.dispose();
+        }
+        super.removeNotify();
+    }
+}
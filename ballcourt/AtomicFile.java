@@ -0,0 +1,72 @@
+package ballcourt;
+
+
+/**
+ * Helper replacing files as a whole, used for the snapshot and session
+ * files which are saved while the program keeps running.
+ * <p>
+ * The content is written to a temporary file next to the target
+ * (name + ".tmp"), which then replaces the target, atomically where the
+ * file system supports it. An existing file is therefore never left half
+ * written, e.g. when an autosave is interrupted. If writing fails, the
+ * temporary file is deleted again.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+
+final class AtomicFile
+{
+
+    /**
+     * Writer of the content of a file
+     */
+    interface Content
+    {
+        /**
+         * Write the whole content into a file
+         * @param file The file, to be created or overwritten
+         * @throws IOException if the file cannot be written
+         */
+        void writeTo(Path file) throws IOException;
+    }
+
+    /** No instances - all methods are static */
+    private AtomicFile() {
+    }
+
+    /**
+     * Replace a file by new content as described in the class comment
+     * @param file Target file, overwritten if it exists
+     * @param content Writer of the new content
+     * @throws IOException if the file cannot be written; the target is unchanged then
+     */
+    static void replace(Path file, Content content) throws IOException {
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            content.writeTo(tmp);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch(IOException | RuntimeException ex) {
+            try {
+                Files.deleteIfExists(tmp);
+            }
+            catch(IOException suppressed) {
+                ex.addSuppressed(suppressed);
+            }
+            throw ex;
+        }
+    }
+}
@@ -2,8 +2,26 @@ package ballcourt;
 
 
 /**
- * Class BallCourt implements the BallCourt consisting
- * of 1 player and one ball.
+ * Class BallCourt implements the graphical view of a Court
+ * consisting of an arbitrary number of players and balls.
+ * The simulation state itself is kept in the Court instance,
+ * which can also be used without a display.
+ * <p>
+ * Method repaintDirty requests a repaint of only the region which has
+ * changed: the paths of all objects moved by the ticks published
+ * since (see StateExchange.publish), and the sprites painted last at
+ * interpolated positions, which must be erased. Painting skips all
+ * objects outside the clip.
+ * <p>
+ * The view never reads the court while drawing. After every step, the
+ * simulation publishes a snapshot of the court through a lock-free
+ * triple buffer (see class StateExchange), and drawing uses the latest
+ * snapshot only. Positions are interpolated between the last two ticks
+ * of the snapshot, so that the render rate is independent of the tick rate.
+ * <p>
+ * The durations of ticks, simulation steps and drawing are recorded in
+ * histograms (see class LatencyHistogram) and can be shown in a
+ * heads-up display at the bottom of the court.
  *
  * @author Jan Peleska
  * @version 2020-01-25
@@ -11,11 +29,8 @@ package ballcourt;
 
 import java.awt.*;
 import javax.swing.JPanel;
-import java.util.Random;
 import java.lang.String;
 import java.io.Serializable;
-import java.io.ObjectOutputStream;
-import java.io.ObjectInputStream;
 
 
 public class BallCourt extends JPanel implements Serializable {
@@ -29,96 +44,447 @@ public class BallCourt extends JPanel implements Serializable {
     /** Height of the rectangle */
     public int RECT_HEIGHT;
 
-    /** The ball in the court */
-    private Ball ball;
+    /** The court simulated and displayed by this view */
+    private Court court;
 
-    /** The player in the court */
-    private Player player;
+    /** Text of the score line preceding the score */
+    private static final String SCORE_PREFIX = "Player score: ";
+
+    /** Colour of the balls */
+    private Color ballColor = Color.BLUE;
+    /** Colour of the players */
+    private Color playerColor = Color.RED;
+
+    /** Height of the region covered by the score text */
+    static final int SCORE_HEIGHT = 20;
+    /** Width of the region covered by the score text */
+    static final int SCORE_WIDTH = 160;
+
+    /** Size of the clip bounds assumed when drawing without a clip */
+    private static final int UNCLIPPED = 1 << 30;
+
+    /** Region to be repainted, filled by method repaintDirty (only called by one thread) */
+    private transient int[] dirtyBox = new int[4];
+
+    /** Clip bounds reused by method draw (only called by one rendering thread) */
+    private transient Rectangle clipBounds;
+
+    /** Triple buffer handing snapshots of the court from the simulation to the renderer */
+    private transient StateExchange exchange;
+    /** Flag indicating that positions are interpolated between ticks */
+    private transient volatile boolean interpolation = true;
+
+    /** Default number of balls above which the ball density is drawn instead of the balls */
+    public static final int DEFAULT_HEATMAP_THRESHOLD = 5000;
+
+    /** Number of balls above which the ball density is drawn instead of the balls */
+    private transient volatile int heatmapThreshold = DEFAULT_HEATMAP_THRESHOLD;
+    /** Heatmap of the ball density, created when first needed */
+    private transient DensityMap densityMap;
+    /** Flag indicating that the last frame was drawn as a heatmap */
+    private transient boolean viewHeatmap;
+
+    /** Height of a line of the heads-up display */
+    private static final int HUD_LINE_HEIGHT = 14;
+    /** Width of the heads-up display */
+    private static final int HUD_WIDTH = 300;
+    /** Interval between updates of the heads-up display in nanoseconds */
+    private static final long HUD_REFRESH_NANOS = 500_000_000L;
+    /** Colour of the heads-up display text */
+    private static final Color HUD_COLOR = Color.BLACK;
+    /** Colour of the translucent background of the heads-up display */
+    private static final Color HUD_BACKGROUND = new Color(255, 255, 255, 200);
+
+    /** Durations of the ticks of the court, recorded by the frame (see BallCourtFrame.step) */
+    private transient LatencyHistogram tickTimes = new LatencyHistogram();
+    /** Durations of the simulation steps in method move */
+    private transient LatencyHistogram moveTimes = new LatencyHistogram();
+    /** Durations of method draw */
+    private transient LatencyHistogram paintTimes = new LatencyHistogram();
+
+    /** Flag indicating that the heads-up display is shown */
+    private transient volatile boolean hud;
+    /** Text lines of the heads-up display, updated every HUD_REFRESH_NANOS */
+    private transient String[] hudLines = new String[0];
+    /** Time of the last update of the heads-up display */
+    private transient long hudTime;
+    /** Number of frames drawn since the last update of the heads-up display */
+    private transient long hudFrames;
+    /** Number of simulation steps at the last update of the heads-up display */
+    private transient long hudMoves;
 
     /**
-     * Constructor for a ball court
-     * @param xOrigin  Upper left corner x-coordinate of 
+     * Left edge of the region of the sprites drawn last at positions other
+     * than those of the latest tick (court coordinates, empty if staleX0 > staleX1)
+     */
+    private transient int staleX0;
+    /** Top edge of the region of the sprites drawn at interpolated positions */
+    private transient int staleY0;
+    /** Right edge (exclusive) of the region of the sprites drawn at interpolated positions */
+    private transient int staleX1;
+    /** Bottom edge (exclusive) of the region of the sprites drawn at interpolated positions */
+    private transient int staleY1;
+
+    /**
+     * Constructor for a ball court view of an existing court
+     * @param court    The court to be displayed
+     * @param xOrigin  Upper left corner x-coordinate of
      *                 painted rectangle denoting the ball court walls
-     * @param yOrigin  Upper left corner y-coordinate of painted rectangle 
+     * @param yOrigin  Upper left corner y-coordinate of painted rectangle
      *                 denoting the ball court walls
-     * @param width    Width of the ball court rectangle  
-     * @param height   Hight of the ball court rectangle
      */
-    public BallCourt(final int xOrigin, final int yOrigin, final int width, final int height) {
+    public BallCourt(final Court court, final int xOrigin, final int yOrigin) {
+        this.court = court;
         RECT_X = xOrigin;
         RECT_Y = yOrigin;
-        RECT_WIDTH = width;
-        RECT_HEIGHT = height;
+        RECT_WIDTH = court.getWidth();
+        RECT_HEIGHT = court.getHeight();
+        exchange = new StateExchange();
+        publish();
     }
 
-    /** Add a ball to the ball court 
-     *  @param ball The ball to be added (only one ball is contained in the court)
+    /**
+     * Constructor for a ball court with a new, empty court
+     * @param xOrigin  Upper left corner x-coordinate of
+     *                 painted rectangle denoting the ball court walls
+     * @param yOrigin  Upper left corner y-coordinate of painted rectangle
+     *                 denoting the ball court walls
+     * @param width    Width of the ball court rectangle
+     * @param height   Hight of the ball court rectangle
      */
-    public void addBall(Ball ball) {
-        this.ball = ball;    
+    public BallCourt(final int xOrigin, final int yOrigin, final int width, final int height) {
+        this(new Court(width, height), xOrigin, yOrigin);
     }
 
     /**
-     * Add a player to the ball court
-     * @param player The player to be added (only one player in a court)
+     * Set the colour of the balls. The ball sprite is rendered
+     * again when the court is painted next.
+     * @param color The new colour
      */
-    public void addPlayer(Player player) {
-        this.player = player;
+    public void setBallColor(Color color) {
+        ballColor = color;
+        repaint();
+    }
+
+    /** Return the colour of the balls */
+    public Color getBallColor() {
+        return ballColor;
     }
 
-    /** 
-     * Get reference to the court's ball
-     * @return Reference to the ball in the court or null if no
-     *         ball has been registered via method addBall
+    /**
+     * Set the colour of the players. The player sprite is rendered
+     * again when the court is painted next.
+     * @param color The new colour
      */
-    public Ball getBall() {
-        return ball;   
+    public void setPlayerColor(Color color) {
+        playerColor = color;
+        repaint();
+    }
+
+    /** Return the colour of the players */
+    public Color getPlayerColor() {
+        return playerColor;
     }
 
-    /** 
-     * Get reference to the court's player
-     * @return Reference to the player in the court or null if no
-     *         player has been registered via method addPlayer
+    /**
+     * Switch the interpolation of positions between ticks on or off.
+     * Without interpolation, the latest tick is drawn as it is.
+     * @param interpolation true iff positions are interpolated
      */
-    public Player getPlayer() {
-        return player;
+    public void setInterpolation(boolean interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /** Return true iff positions are interpolated between ticks */
+    public boolean isInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * Set the number of balls above which the court is drawn as a
+     * heatmap of the ball density instead of drawing every ball
+     * (see class DensityMap)
+     * @param threshold Number of balls; Integer.MAX_VALUE never draws a heatmap
+     */
+    public void setHeatmapThreshold(int threshold) {
+        heatmapThreshold = threshold;
+        repaint();
+    }
+
+    /** Return the number of balls above which a heatmap is drawn */
+    public int getHeatmapThreshold() {
+        return heatmapThreshold;
     }
 
     /**
-     * paint method called by the Swing repaint method.
+     * Show or hide the heads-up display with frame rate, ball updates
+     * per second and percentiles of tick, step and paint durations
+     * @param hud true iff the heads-up display is shown
+     */
+    public void setHud(boolean hud) {
+        this.hud = hud;
+        repaint();
+    }
+
+    /** Return true iff the heads-up display is shown */
+    public boolean isHud() {
+        return hud;
+    }
+
+    /** Return the histogram of the tick durations of the court */
+    public LatencyHistogram getTickTimes() {
+        return tickTimes;
+    }
+
+    /** Return the histogram of the simulation step durations */
+    public LatencyHistogram getMoveTimes() {
+        return moveTimes;
+    }
+
+    /** Return the histogram of the paint durations */
+    public LatencyHistogram getPaintTimes() {
+        return paintTimes;
+    }
+
+    /**
+     * Publish the current state of the court to the renderer.
+     * Must be called by the thread stepping the court after every
+     * change of the court state (method move does so).
+     */
+    public void publish() {
+        exchange.publish(court);
+    }
+
+    /**
+     * Get reference to the court displayed by this view
+     * @return The court
+     */
+    public Court getCourt() {
+        return court;
+    }
+
+    /**
+     * paintComponent method called by the Swing repaint method.
+     * The background is cleared and the court is drawn by method draw.
+     *
+     * Note that this method is never called explicitly by the applciation code.
+     * @param g graphics object provided by the repaint method calling paint.
+     */
+    @Override
+    protected void paintComponent(Graphics g){
+        super.paintComponent(g);
+        draw(g);
+        rememberPainted();
+    }
+
+    /**
+     * Hand the region of the sprites painted last at interpolated
+     * positions to the exchange, so that the next call of repaintDirty
+     * erases them. A heatmap is repainted completely.
+     */
+    private void rememberPainted() {
+        if ( viewHeatmap ) {
+            // the heatmap changes with every tick
+            exchange.markAllDirty();
+        }
+        else if ( staleX0 <= staleX1 ) {
+            exchange.addDirty(staleX0, staleY0, staleX1, staleY1);
+        }
+    }
+
+    /**
+     * Request a repaint of the region which has changed since the
+     * court was painted last: the region collected by the exchange
+     * from the ticks published since the last call and from the sprites
+     * painted at interpolated positions (see StateExchange.takeDirty),
+     * and the heads-up display if shown. Nothing is repainted if
+     * nothing has moved. The method only reads the exchange, never the
+     * court, so it may be called by any single rendering thread.
+     */
+    public void repaintDirty() {
+        final int[] box = dirtyBox;
+        if ( exchange.takeDirty(box) ) {
+            repaint();
+            return;
+        }
+        int minX = box[0];
+        int minY = box[1];
+        int maxX = box[2];
+        int maxY = box[3];
+
+        if ( hud ) {
+            minX = Math.min(minX, 0);
+            minY = Math.min(minY, RECT_HEIGHT - hudHeight());
+            maxX = Math.max(maxX, HUD_WIDTH);
+            maxY = Math.max(maxY, RECT_HEIGHT);
+        }
+
+        if ( minX <= maxX ) {
+            repaint(minX + RECT_X, minY + RECT_Y, maxX - minX, maxY - minY);
+        }
+    }
+
+    /**
+     * Draw the court into a graphics context.
      * The method performes the follwing actions:
      * <ul>
      * <li> re-draws the court's  rectangle
-     * <li> update the player's score text line (if player exists)
-     * <li> call the player's draw method (if player exists)
-     * <li> call the ball's draw methd (if ball exists)
-     * 
+     * <li> update the first player's score text line (if player exists)
+     * <li> draw all players of the court
+     * <li> draw all balls of the court
+     *
      * </ul>
-     * 
-     * Note that this method is never called explicitly by the applciation code.
-     * @param g graphics object provided by the repaint method calling paint.
+     *
+     * The method is used both by the Swing painting and by active
+     * rendering (see class ActiveCourtCanvas). Players and balls outside
+     * the clip of g are skipped. Balls, players and the score digits are
+     * blitted from pre-rendered images (see class SpriteCache), so that
+     * drawing does not allocate. Only the latest published snapshot of
+     * the court is drawn. Above the heatmap threshold, the density of
+     * the balls is drawn instead of the single balls.
+     * @param g graphics object to draw into
      */
-    public void paint(Graphics g){
+    public void draw(Graphics g){
+        final long paintStart = System.nanoTime();
+        if ( clipBounds == null ) {
+            clipBounds = new Rectangle();
+        }
+        Rectangle clip = clipBounds;
+        clip.setBounds(-UNCLIPPED/2, -UNCLIPPED/2, UNCLIPPED, UNCLIPPED);
+        g.getClipBounds(clip);
+        final int clipX0 = clip.x - RECT_X;
+        final int clipY0 = clip.y - RECT_Y;
+        final int clipX1 = clipX0 + clip.width;
+        final int clipY1 = clipY0 + clip.height;
+
+
+        final CourtState s = exchange.latest();
+        final double alpha = interpolation ? s.alpha(System.nanoTime()) : 1.0;
+        final int n = s.ballCount;
+        final int players = s.playerCount;
+        int x0 = Integer.MAX_VALUE;
+        int y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE;
+        int y1 = Integer.MIN_VALUE;
+
+        final boolean heatmap = n > heatmapThreshold;
+        if ( heatmap ) {
+            if ( densityMap == null ) {
+                densityMap = new DensityMap();
+            }
+            densityMap.draw(g, s, RECT_X, RECT_Y, RECT_WIDTH, RECT_HEIGHT, Color.WHITE);
+        }
+
         g.drawRect(RECT_X,RECT_Y,RECT_WIDTH,RECT_HEIGHT);
-        if ( player != null ) {
-            String score = new String("Player score: ");
-            score = score + player.getScore();
-            g.drawString(score,RECT_X+10,RECT_Y+15);
-            player.draw(g);
-        }        
+        SpriteCache cache = SpriteCache.forGraphics(g);
+        if ( s.hasPlayer ) {
+            cache.drawText(g,SCORE_PREFIX,s.score,RECT_X+10,RECT_Y+15);
+        }
+
+        Image playerSprite = cache.sprite(SpriteCache.RECT,playerColor,Player.WIDTH,Player.HEIGHT);
+        for ( int k = 0; k < players; k++ ) {
+            int x = s.playerX[k];
+            int y = s.interpolate(s.prevPlayerY[k], s.playerY[k], alpha);
+            if ( x + Player.WIDTH < clipX0 || x > clipX1
+                 || y + Player.HEIGHT < clipY0 || y > clipY1 ) continue;
+            g.drawImage(playerSprite,x+RECT_X,y+RECT_Y,null);
+            if ( y != s.playerY[k] ) {
+                x0 = Math.min(x0, x);
+                y0 = Math.min(y0, y);
+                x1 = Math.max(x1, x + Player.WIDTH);
+                y1 = Math.max(y1, y + Player.HEIGHT);
+            }
+        }
 
-        if ( ball != null ) ball.draw(g);
+        if ( !heatmap ) {
+            Image ballSprite = cache.sprite(SpriteCache.OVAL,ballColor,Ball.BALL_DIAM,Ball.BALL_DIAM);
+            for ( int i = 0; i < n; i++ ) {
+                int x = s.interpolate(s.prevBallX[i], s.ballX[i], alpha);
+                int y = s.interpolate(s.prevBallY[i], s.ballY[i], alpha);
+                if ( x + Ball.BALL_DIAM < clipX0 || x > clipX1
+                     || y + Ball.BALL_DIAM < clipY0 || y > clipY1 ) continue;
+                g.drawImage(ballSprite,x+RECT_X,y+RECT_Y,null);
+                if ( x != s.ballX[i] || y != s.ballY[i] ) {
+                    x0 = Math.min(x0, x);
+                    y0 = Math.min(y0, y);
+                    x1 = Math.max(x1, x + Ball.BALL_DIAM);
+                    y1 = Math.max(y1, y + Ball.BALL_DIAM);
+                }
+            }
+        }
+        staleX0 = x0;
+        staleY0 = y0;
+        staleX1 = x1;
+        staleY1 = y1;
+        viewHeatmap = heatmap;
 
+        if ( hud ) {
+            drawHud(g, paintStart, n);
+        }
+        paintTimes.recordSince(paintStart);
+    }
+
+    /** Return the height of the heads-up display */
+    private static int hudHeight() {
+        return 4 * HUD_LINE_HEIGHT;
+    }
+
+    /**
+     * Draw the heads-up display at the bottom of the court. The text
+     * is only formatted every HUD_REFRESH_NANOS.
+     * @param g graphics object to draw into
+     * @param now Current time (System.nanoTime)
+     * @param balls Number of balls drawn
+     */
+    private void drawHud(Graphics g, long now, int balls) {
+        hudFrames++;
+        long elapsed = now - hudTime;
+        if ( hudTime == 0 || elapsed >= HUD_REFRESH_NANOS ) {
+            long moves = moveTimes.getCount();
+            double seconds = elapsed / 1e9;
+            double fps = hudTime == 0 ? 0 : hudFrames / seconds;
+            double ballsPerSecond = hudTime == 0 ? 0 : (moves - hudMoves) * (double)balls / seconds;
+            hudLines = new String[] {
+                String.format("FPS %.1f   ball updates/s %.0f", fps, ballsPerSecond),
+                percentiles("tick ", tickTimes),
+                percentiles("move ", moveTimes),
+                percentiles("paint", paintTimes)
+            };
+            hudTime = now;
+            hudFrames = 0;
+            hudMoves = moves;
+        }
+        int y = RECT_Y + RECT_HEIGHT - hudHeight();
+        g.setColor(HUD_BACKGROUND);
+        g.fillRect(RECT_X + 1, y, Math.min(HUD_WIDTH, RECT_WIDTH - 1), hudHeight());
+        g.setColor(HUD_COLOR);
+        for ( String line : hudLines ) {
+            y += HUD_LINE_HEIGHT;
+            g.drawString(line, RECT_X + 5, y - 3);
+        }
     }
 
     /**
-     * move method triggering the re-calculation of 
-     * ball and player positions by calling their respective
-     * move methods.
+     * Format the percentiles of a histogram for the heads-up display
+     * @param name Name of the histogram
+     * @param h The histogram
+     * @return Text line
+     */
+    private static String percentiles(String name, LatencyHistogram h) {
+        return String.format("%s p50/p99/p99.9 %.3f/%.3f/%.3f ms", name,
+                             h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6,
+                             h.getPercentile(99.9) / 1e6);
+    }
+
+    /**
+     * move method triggering the re-calculation of
+     * ball and player positions in the court and publishing
+     * the new state to the renderer.
      */
     public void move(){
-        if ( ball != null ) { ball.move(); }
-        if ( player != null ) { player.move(); }
+        final long start = System.nanoTime();
+        court.move();
+        moveTimes.recordSince(start);
+        publish();
     }
 }
-
@@ -12,9 +12,13 @@ package ballcourt;
 
 import java.awt.*;
 import javax.swing.*;
+import java.io.IOException;
 import java.io.Serializable;
 import java.io.ObjectOutputStream;
 import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class BallCourtFrame extends JFrame implements Serializable
 {
@@ -22,6 +26,37 @@ public class BallCourtFrame extends JFrame implements Serializable
     /** The ball court located in this window */
     private BallCourt bc;
 
+    /** Canvas for active rendering, null if the frame is painted by Swing */
+    private transient ActiveCourtCanvas canvas;
+
+    /** Flag indicating that the window is iconified */
+    private transient volatile boolean iconified;
+
+    /** Number of ticks simulated per step, greater than 1 for background courts */
+    private transient int ticksPerStep = 1;
+
+    /** Time step of the court when the frame was created */
+    private transient int baseTimeStep;
+
+    /** Log recording every tick of the court, null if not recording */
+    private transient volatile ReplayLog recording;
+
+    /** Log driving the court instead of the simulation, null if not replaying */
+    private transient volatile ReplayLog replay;
+
+    /** Next tick to be shown from the replay log */
+    private transient long replayTick;
+
+    /** Worker processes simulating the court instead of this frame, null if not sharded */
+    private transient volatile ShardCoordinator shards;
+
+    /** Flag indicating that the frame has been disposed and is no longer stepped */
+    private transient volatile boolean disposed;
+
+    /** Snapshot requests to be completed after the next tick */
+    private transient ConcurrentLinkedQueue<CompletableFuture<ByteBuffer>> snapshotRequests =
+        new ConcurrentLinkedQueue<>();
+
     /**
      * Constructor for a BallCourtFrame
      * @param bc reference to the ball court residing in the window
@@ -31,14 +66,71 @@ public class BallCourtFrame extends JFrame implements Serializable
      * @param height The height of the window
      */
     public BallCourtFrame(BallCourt bc, int xOrigin, int yOrigin, int width, int height) {
+        this(bc, xOrigin, yOrigin, width, height, false);
+    }
+
+    /**
+     * Constructor for a BallCourtFrame, optionally using active rendering.
+     * With active rendering, the court is drawn on an ActiveCourtCanvas
+     * by the thread calling method render, and Swing repaint requests
+     * are ignored.
+     * @param bc reference to the ball court residing in the window
+     * @param xOrigin The x-coordinate of the upper left courner of the window on the display
+     * @param yOrigin The y-coordinate of the upper left courner of the window on the display
+     * @param width The width of the window
+     * @param height The height of the window
+     * @param activeRendering true iff the frame is rendered actively
+     */
+    public BallCourtFrame(BallCourt bc, int xOrigin, int yOrigin, int width, int height,
+                          boolean activeRendering) {
+        this(bc, xOrigin, yOrigin, width, height, activeRendering, true);
+    }
+
+    /**
+     * Constructor for a BallCourtFrame which is optionally not made visible,
+     * e.g. because its court is shown in a TiledCourtFrame.
+     * @param bc reference to the ball court residing in the window
+     * @param xOrigin The x-coordinate of the upper left courner of the window on the display
+     * @param yOrigin The y-coordinate of the upper left courner of the window on the display
+     * @param width The width of the window
+     * @param height The height of the window
+     * @param activeRendering true iff the frame is rendered actively
+     * @param visible true iff the frame is made visible
+     */
+    public BallCourtFrame(BallCourt bc, int xOrigin, int yOrigin, int width, int height,
+                          boolean activeRendering, boolean visible) {
         super();
         this.bc = bc;
+        baseTimeStep = bc.getCourt().getTimeStep();
         setResizable(false);
         setSize(width,height);
         setLocation(xOrigin,yOrigin);
         setBackground(Color.WHITE);
-        add(bc);
-        setVisible(true);
+        if ( activeRendering ) {
+            canvas = new ActiveCourtCanvas(bc);
+            setIgnoreRepaint(true);
+            add(canvas);
+        }
+        else {
+            add(bc);
+        }
+        setVisible(visible);
+    }
+
+    /**
+     * Get reference to the ball court residing in the window
+     * @return The ball court
+     */
+    public BallCourt getBallCourt() {
+        return bc;
+    }
+
+    /**
+     * Get the canvas used for active rendering
+     * @return The canvas, or null if the frame is painted by Swing
+     */
+    public ActiveCourtCanvas getCanvas() {
+        return canvas;
     }
 
     /**
@@ -47,8 +139,289 @@ public class BallCourtFrame extends JFrame implements Serializable
      * repaint method of JFrame.
      */
     public void run(){
-        bc.move();
-        repaint();
+        step();
+        render();
+    }
+
+    /**
+     * Update the positions of ball and player inside the ball court
+     * without triggering a graphics update. While recording, the new
+     * state is appended to the replay log. While replaying, the next
+     * tick of the replay log is shown instead of simulating the court;
+     * the replay starts again after the last recorded tick. A sharded
+     * court is simulated by its worker processes (see startSharding).
+     * The duration of the tick is recorded in the tick histogram of
+     * the ball court. Pending snapshot requests (see requestSnapshot)
+     * are completed after the tick.
+     */
+    public void step(){
+        final long start = System.nanoTime();
+        try {
+            tick();
+        }
+        finally {
+            bc.getTickTimes().recordSince(start);
+        }
+        if ( !snapshotRequests.isEmpty() ) {
+            completeSnapshots();
+        }
+    }
+
+    /**
+     * Request a snapshot of the court (see class CourtSnapshot). The
+     * snapshot is taken by the thread stepping the court right after
+     * the next tick, so that it is consistent, and only copies the state
+     * into memory; the simulation is not paused for writing it.
+     * @return Future completed with the snapshot, positioned at its start,
+     *         or completed exceptionally if the frame is disposed first
+     */
+    public CompletableFuture<ByteBuffer> requestSnapshot() {
+        CompletableFuture<ByteBuffer> request = new CompletableFuture<>();
+        snapshotRequests.add(request);
+        if ( disposed ) {
+            failSnapshots(new IllegalStateException("Ball court frame has been disposed"));
+        }
+        return request;
+    }
+
+    /**
+     * Take one snapshot for all pending requests and complete them
+     */
+    private void completeSnapshots() {
+        ByteBuffer snapshot;
+        try {
+            snapshot = CourtSnapshot.snapshot(bc.getCourt());
+        }
+        catch(RuntimeException ex) {
+            failSnapshots(ex);
+            return;
+        }
+        CompletableFuture<ByteBuffer> request;
+        while ( (request = snapshotRequests.poll()) != null ) {
+            request.complete(snapshot.duplicate());
+        }
+    }
+
+    /**
+     * Complete all pending snapshot requests exceptionally
+     * @param cause The reason why no snapshot can be taken
+     */
+    private void failSnapshots(Throwable cause) {
+        CompletableFuture<ByteBuffer> request;
+        while ( (request = snapshotRequests.poll()) != null ) {
+            request.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Perform one tick as described for method step
+     */
+    private void tick(){
+        ReplayLog log = replay;
+        if ( log != null ) {
+            if ( log.getTickCount() == 0 ) return;
+            if ( replayTick >= log.getTickCount() ) {
+                replayTick = 0;
+            }
+            try {
+                log.load(replayTick, bc.getCourt());
+                replayTick += ticksPerStep;
+                bc.publish();
+            }
+            catch(IOException ex) {
+                System.out.println("IOException is caught during replay: " + ex);
+                stopReplay();
+            }
+            return;
+        }
+
+        ShardCoordinator coordinator = shards;
+        if ( coordinator != null ) {
+            try {
+                coordinator.step(bc.getCourt(), baseTimeStep * ticksPerStep);
+                bc.publish();
+            }
+            catch(IOException | IllegalStateException ex) {
+                System.out.println("Sharded court stopped: " + ex);
+                stopSharding();
+                return;
+            }
+        }
+        else {
+            Court court = bc.getCourt();
+            if ( court.getTimeStep() != baseTimeStep * ticksPerStep ) {
+                court.setTimeStep(baseTimeStep * ticksPerStep);
+            }
+            bc.move();
+        }
+
+        log = recording;
+        if ( log != null ) {
+            try {
+                log.record(bc.getCourt());
+            }
+            catch(IOException | IllegalStateException ex) {
+                System.out.println("Recording stopped: " + ex);
+                stopRecording();
+            }
+        }
+    }
+
+    /**
+     * Set the number of ticks simulated by each following step.
+     * Courts in the background are stepped less often with a
+     * correspondingly larger time step, so that their simulated time
+     * keeps up with the foreground courts. Must not be called while
+     * the frame is being stepped.
+     * @param ticks Number of ticks per step (at least 1)
+     */
+    public void setTicksPerStep(int ticks) {
+        ticksPerStep = Math.max(1, ticks);
+    }
+
+    /**
+     * Set whether the window is iconified. Iconified frames are not rendered.
+     * @param iconified true iff the window is iconified
+     */
+    public void setIconified(boolean iconified) {
+        this.iconified = iconified;
+    }
+
+    /**
+     * Return true iff the court can be seen, i.e. the window is
+     * showing on the screen and not iconified
+     */
+    public boolean isRenderable() {
+        return !iconified && isShowing();
+    }
+
+    /**
+     * Record every following tick of the court in a new replay log
+     * @param log Replay log created for the court of this frame
+     */
+    public void startRecording(ReplayLog log) {
+        stopRecording();
+        recording = log;
+    }
+
+    /**
+     * Stop recording and close the replay log
+     */
+    public void stopRecording() {
+        ReplayLog log = recording;
+        recording = null;
+        close(log);
+    }
+
+    /** Return true iff the ticks of the court are being recorded */
+    public boolean isRecording() {
+        return recording != null;
+    }
+
+    /**
+     * Show the ticks of a replay log instead of simulating the court.
+     * The court of this frame must have been created by method
+     * createCourt of the log.
+     * @param log Replay log opened for replay
+     */
+    public void startReplay(ReplayLog log) {
+        stopReplay();
+        replayTick = 0;
+        replay = log;
+    }
+
+    /**
+     * Stop replaying and close the replay log
+     */
+    public void stopReplay() {
+        ReplayLog log = replay;
+        replay = null;
+        close(log);
+    }
+
+    /** Return true iff the court is driven by a replay log */
+    public boolean isReplaying() {
+        return replay != null;
+    }
+
+    /**
+     * Let worker processes simulate the court instead of this frame
+     * (see class ShardCoordinator). The coordinator must have been
+     * created for the court of this frame; it is closed when sharding
+     * stops or the frame is disposed.
+     * @param coordinator Coordinator of the workers
+     */
+    public void startSharding(ShardCoordinator coordinator) {
+        stopSharding();
+        shards = coordinator;
+    }
+
+    /**
+     * Stop the worker processes; the court keeps its last state
+     * and is not simulated any further
+     */
+    public void stopSharding() {
+        ShardCoordinator coordinator = shards;
+        shards = null;
+        if ( coordinator == null ) return;
+        try {
+            coordinator.close();
+        }
+        catch(IOException ex) {
+            System.out.println("IOException is caught: " + ex);
+        }
+    }
+
+    /** Return true iff the court is simulated by worker processes */
+    public boolean isSharded() {
+        return shards != null;
+    }
+
+    /**
+     * Close a replay log, if present
+     * @param log Replay log or null
+     */
+    private static void close(ReplayLog log) {
+        if ( log == null ) return;
+        try {
+            log.close();
+        }
+        catch(IOException ex) {
+            System.out.println("IOException is caught: " + ex);
+        }
+    }
+
+    /**
+     * Release the window resources, close the replay logs of the frame
+     * and stop its shard workers. Pending snapshot requests fail, since
+     * the frame is no longer stepped.
+     */
+    @Override
+    public void dispose() {
+        stopRecording();
+        stopReplay();
+        stopSharding();
+        disposed = true;
+        failSnapshots(new IllegalStateException("Ball court frame has been disposed"));
+        super.dispose();
+    }
+
+    /**
+     * Trigger a graphics update of the regions of the ball court which
+     * have changed since it was painted last (see BallCourt.repaintDirty).
+     * With active rendering, the court is drawn and presented
+     * immediately in the calling thread instead.
+     * Nothing is done while the court cannot be seen (see isRenderable);
+     * the window system requests a full repaint when it is shown again.
+     */
+    public void render(){
+        if ( !isRenderable() ) return;
+        if ( canvas != null ) {
+            canvas.render();
+        }
+        else {
+            bc.repaintDirty();
+        }
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package ballcourt;
+
+
+/**
+ * Monte Carlo batch runner simulating many independent headless
+ * courts with the same parameters and collecting the distribution
+ * of the player scores.
+ * <p>
+ * Court k of a batch is created with seed s+k from the base seed s,
+ * so a batch gives the same result on any number of threads. The
+ * courts are simulated by the tasks of a ForkJoinPool: the range of
+ * courts is split in halves down to a few courts per task, each task
+ * fills its own ScoreStatistics, and the statistics are merged when
+ * the tasks are joined. The courts share no state, so throughput
+ * grows with the number of cores.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+public final class BatchRunner
+{
+
+    /** Largest number of courts simulated by one task */
+    private static final int LEAF_COURTS = 4;
+
+    /** Width of the courts */
+    private final int width;
+    /** Height of the courts */
+    private final int height;
+    /** Number of balls per court */
+    private final int balls;
+    /** Number of players per court */
+    private final int players;
+    /** Number of steps simulated per court */
+    private final int ticks;
+
+    /** Flag enabling elastic collisions between balls */
+    private boolean ballCollisions = true;
+    /** Number of ticks simulated per step */
+    private int timeStep = 1;
+
+    /**
+     * Constructor for a batch runner
+     * @param width Width of the courts
+     * @param height Height of the courts
+     * @param balls Number of balls per court
+     * @param players Number of players per court
+     * @param ticks Number of steps simulated per court
+     */
+    public BatchRunner(int width, int height, int balls, int players, int ticks) {
+        this.width = width;
+        this.height = height;
+        this.balls = balls;
+        this.players = players;
+        this.ticks = ticks;
+    }
+
+    /**
+     * Enable or disable elastic collisions between balls
+     * @param enabled true iff balls shall bounce off each other
+     */
+    public void setBallCollisions(boolean enabled) {
+        ballCollisions = enabled;
+    }
+
+    /**
+     * Set the number of ticks simulated by each step (see Court.setTimeStep)
+     * @param ticks Number of ticks per step (at least 1)
+     */
+    public void setTimeStep(int ticks) {
+        if ( ticks < 1 ) {
+            throw new IllegalArgumentException("Time step must be at least one tick");
+        }
+        timeStep = ticks;
+    }
+
+    /**
+     * Create one court of a batch. The balls are placed randomly;
+     * the players are spread evenly in x-direction, player k
+     * tracking ball k modulo the number of balls.
+     * @param maxSpeed Largest speed of the balls (see Court.setMaxSpeed)
+     * @param maxVelY Largest speed of the players in y-direction
+     * @param seed Seed of the court's random number generator
+     * @return The new court
+     */
+    public Court createCourt(int maxSpeed, int maxVelY, long seed) {
+        Court court = new Court(width, height, seed);
+        court.setMaxSpeed(maxSpeed);
+        court.setBallCollisions(ballCollisions);
+        court.setTimeStep(timeStep);
+        court.addBalls(balls);
+        for ( int k = 0; k < players; k++ ) {
+            Player player = new Player(court, (k + 1) * width / (players + 1), height / 2, maxVelY);
+            player.setTarget(k % Math.max(1, balls));
+            court.addPlayer(player);
+        }
+        return court;
+    }
+
+    /**
+     * Simulate a batch of courts and collect the scores of all players
+     * @param maxSpeed Largest speed of the balls (see Court.setMaxSpeed)
+     * @param maxVelY Largest speed of the players in y-direction
+     * @param courts Number of courts
+     * @param seed Base seed; court k is created with seed+k
+     * @param pool Pool executing the simulation
+     * @return Distribution of the scores of all players of all courts
+     */
+    public ScoreStatistics run(int maxSpeed, int maxVelY, int courts, long seed, ForkJoinPool pool) {
+        if ( maxSpeed < 1 ) {
+            throw new IllegalArgumentException("Maximal speed must be at least 1");
+        }
+        if ( courts < 1 ) {
+            return new ScoreStatistics();
+        }
+        return pool.invoke(new BatchTask(maxSpeed, maxVelY, seed, 0, courts));
+    }
+
+    /**
+     * Simulate one court to the tick limit and record its player scores
+     * @param court The court
+     * @param stats Statistics receiving the scores
+     */
+    private void simulate(Court court, ScoreStatistics stats) {
+        for ( int t = 0; t < ticks; t++ ) {
+            court.move();
+        }
+        for ( int k = 0; k < court.getPlayerCount(); k++ ) {
+            stats.add(court.getPlayer(k).getScore());
+        }
+    }
+
+    /**
+     * Task simulating a range of the courts of a batch. Ranges with
+     * more than LEAF_COURTS courts are split in halves.
+     */
+    private final class BatchTask extends RecursiveTask<ScoreStatistics> {
+        /** Largest speed of the balls */
+        private final int maxSpeed;
+        /** Largest speed of the players in y-direction */
+        private final int maxVelY;
+        /** Base seed of the batch */
+        private final long seed;
+        /** First court of the range (inclusive) */
+        private final int from;
+        /** Last court of the range (exclusive) */
+        private final int to;
+
+        BatchTask(int maxSpeed, int maxVelY, long seed, int from, int to) {
+            this.maxSpeed = maxSpeed;
+            this.maxVelY = maxVelY;
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ScoreStatistics compute() {
+            if ( to - from <= LEAF_COURTS ) {
+                ScoreStatistics stats = new ScoreStatistics();
+                for ( int k = from; k < to; k++ ) {
+                    simulate(createCourt(maxSpeed, maxVelY, seed + k), stats);
+                }
+                return stats;
+            }
+            int mid = (from + to) >>> 1;
+            BatchTask left = new BatchTask(maxSpeed, maxVelY, seed, from, mid);
+            BatchTask right = new BatchTask(maxSpeed, maxVelY, seed, mid, to);
+            invokeAll(left, right);
+            ScoreStatistics stats = left.join();
+            stats.merge(right.join());
+            return stats;
+        }
+    }
+}
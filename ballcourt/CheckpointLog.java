@@ -0,0 +1,645 @@
+package ballcourt;
+
+
+/**
+ * Log of checkpoints of a court, storing most checkpoints as deltas.
+ * <p>
+ * Every checkpoint is a court snapshot (see class CourtSnapshot). A
+ * keyframe stores the whole snapshot; a delta stores only the player and
+ * ball fields which differ from the previous checkpoint, as variable-length
+ * differences. A keyframe is written after every N deltas, and whenever
+ * the number of balls or players has changed or a delta would not be
+ * smaller than the snapshot. A checkpoint is reconstructed by applying the
+ * deltas following the preceding keyframe, so loading one costs at most
+ * N deltas; the last checkpoint reconstructed is kept, so that loading
+ * the checkpoints in order costs one delta each.
+ * <p>
+ * The data file starts with a header, followed by the records:
+ * <pre>
+ *   int     magic 'BCCP'
+ *   short   format version
+ *   short   0
+ *   int     keyframe interval N
+ * </pre>
+ * A delta record consists of the snapshot header (court dimensions,
+ * time step, random number generator state and player count, copied
+ * unchanged), followed by the changed players and the changed balls:
+ * <pre>
+ *   int     number of changed players m
+ *   m times varint index gap, byte field mask, varint field differences
+ *   int     number of changed balls k
+ *   k times varint index gap, byte field mask, varint field differences
+ * </pre>
+ * A small index file next to the data file (name + ".idx") holds the
+ * position of every record, so that any checkpoint can be found without
+ * reading the data file:
+ * <pre>
+ *   int     magic 'BCCI'
+ *   short   format version
+ *   short   0
+ *   per checkpoint: long offset, int length, int kind (0 keyframe, 1 delta)
+ * </pre>
+ * A record is written before its index entry, so that an interrupted
+ * write leaves a log with all complete checkpoints.
+ * <p>
+ * All methods are synchronized, so that checkpoints can be appended by
+ * one thread while another one loads them; calls after close are ignored.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+public final class CheckpointLog implements Closeable
+{
+
+    /** Magic number at the start of every checkpoint log: 'BCCP' */
+    public static final int MAGIC = 0x42434350;
+
+    /** Magic number at the start of every checkpoint index: 'BCCI' */
+    public static final int INDEX_MAGIC = 0x42434349;
+
+    /** Current version of the checkpoint log format */
+    public static final short VERSION = 1;
+
+    /** Default number of deltas between two keyframes */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+
+    /** Size of the data file header in bytes */
+    private static final int DATA_HEADER_SIZE = 12;
+
+    /** Size of the index file header in bytes */
+    private static final int INDEX_HEADER_SIZE = 8;
+
+    /** Size of an index entry in bytes */
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /** Record kind: whole snapshot */
+    private static final byte KEYFRAME = 0;
+    /** Record kind: changes since the previous checkpoint */
+    private static final byte DELTA = 1;
+
+    /** Number of ints per player in a snapshot */
+    private static final int PLAYER_INTS = CourtSnapshot.PLAYER_SIZE / 4;
+
+    /** Number of int arrays per ball in a snapshot (x, y, dx, dy) */
+    private static final int BALL_INTS = 4;
+
+    /** Field mask bit of a ball: the hit flag has changed */
+    private static final int HIT_CHANGED = 1 << BALL_INTS;
+    /** Field mask bit of a ball: new value of the hit flag */
+    private static final int HIT_VALUE = HIT_CHANGED << 1;
+
+    /** The data file */
+    private final FileChannel data;
+    /** The index file */
+    private final FileChannel index;
+    /** True iff the log has been created for appending checkpoints */
+    private final boolean writable;
+    /** Number of deltas between two keyframes */
+    private final int keyframeInterval;
+
+    /** Number of checkpoints in the log */
+    private int count;
+    /** Offsets of the records in the data file */
+    private long[] offsets = new long[64];
+    /** Lengths of the records in bytes */
+    private int[] lengths = new int[64];
+    /** Kinds of the records */
+    private byte[] kinds = new byte[64];
+    /** Size of the data file in bytes */
+    private long dataSize;
+
+    /** Snapshot of the last checkpoint appended, null if none */
+    private ByteBuffer previous;
+    /** Snapshot being appended, swapped with previous afterwards */
+    private ByteBuffer current;
+    /** Buffer for encoding a delta */
+    private ByteBuffer encoded;
+    /** Number of deltas appended since the last keyframe */
+    private int deltas;
+    /** Buffer for writing an index entry */
+    private final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    /** Snapshot of the last checkpoint reconstructed, null if none */
+    private ByteBuffer cached;
+    /** Number of the checkpoint held in cached, -1 if none */
+    private int cachedCheckpoint = -1;
+    /** Buffer for reading a record */
+    private ByteBuffer record;
+
+    /** Flag indicating that the log has been closed */
+    private boolean closed;
+
+    /**
+     * Constructor used by create and open
+     */
+    private CheckpointLog(FileChannel data, FileChannel index, boolean writable, int keyframeInterval) {
+        this.data = data;
+        this.index = index;
+        this.writable = writable;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Return the path of the index file of a checkpoint log
+     * @param file The data file of the log
+     * @return The index file
+     */
+    public static Path indexFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    /**
+     * Create a new, empty checkpoint log
+     * @param file Data file, overwritten if it exists; the index file is created next to it
+     * @param keyframeInterval Number of deltas between two keyframes (at least 0)
+     * @return The log, ready for method append
+     * @throws IOException if the files cannot be created
+     */
+    public static CheckpointLog create(Path file, int keyframeInterval) throws IOException {
+        if ( keyframeInterval < 0 ) {
+            throw new IllegalArgumentException("Keyframe interval must not be negative");
+        }
+        FileChannel d = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        FileChannel i = null;
+        try {
+            i = FileChannel.open(indexFile(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                 StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer h = ByteBuffer.allocate(DATA_HEADER_SIZE);
+            h.putInt(MAGIC).putShort(VERSION).putShort((short)0).putInt(keyframeInterval).flip();
+            writeFully(d, h, 0);
+            h = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            h.putInt(INDEX_MAGIC).putShort(VERSION).putShort((short)0).flip();
+            writeFully(i, h, 0);
+        }
+        catch(IOException ex) {
+            d.close();
+            if ( i != null ) {
+                i.close();
+            }
+            throw ex;
+        }
+        CheckpointLog log = new CheckpointLog(d, i, true, keyframeInterval);
+        log.dataSize = DATA_HEADER_SIZE;
+        return log;
+    }
+
+    /**
+     * Open an existing checkpoint log for loading checkpoints. Index
+     * entries of records which are not completely in the data file are
+     * ignored.
+     * @param file Data file of the log
+     * @return The log
+     * @throws IOException if the files cannot be read or are not a checkpoint log
+     */
+    public static CheckpointLog open(Path file) throws IOException {
+        FileChannel d = FileChannel.open(file, StandardOpenOption.READ);
+        FileChannel i = null;
+        try {
+            i = FileChannel.open(indexFile(file), StandardOpenOption.READ);
+            ByteBuffer h = ByteBuffer.allocate(DATA_HEADER_SIZE);
+            readFully(d, h, 0);
+            if ( h.getInt() != MAGIC ) {
+                throw new IOException("Not a checkpoint log");
+            }
+            short version = h.getShort();
+            if ( version != VERSION ) {
+                throw new IOException("Unsupported checkpoint log version " + version);
+            }
+            h.getShort();
+            CheckpointLog log = new CheckpointLog(d, i, false, h.getInt());
+            log.dataSize = d.size();
+            log.readIndex();
+            return log;
+        }
+        catch(IOException ex) {
+            d.close();
+            if ( i != null ) {
+                i.close();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Read the entries of the index file
+     */
+    private void readIndex() throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        readFully(index, h, 0);
+        if ( h.getInt() != INDEX_MAGIC ) {
+            throw new IOException("Not a checkpoint index");
+        }
+        final long entries = (index.size() - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE;
+        if ( entries > Integer.MAX_VALUE ) {
+            throw new IOException("Checkpoint index too large");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int)entries * INDEX_ENTRY_SIZE);
+        readFully(index, buf, INDEX_HEADER_SIZE);
+        for ( int k = 0; k < entries; k++ ) {
+            long offset = buf.getLong();
+            int length = buf.getInt();
+            int kind = buf.getInt();
+            if ( offset < DATA_HEADER_SIZE || length <= 0 || offset + length > dataSize
+                 || ( kind != KEYFRAME && kind != DELTA ) || ( k == 0 && kind != KEYFRAME ) ) {
+                break;
+            }
+            addEntry(offset, length, (byte)kind);
+        }
+    }
+
+    /**
+     * Add an entry to the in-memory index
+     */
+    private void addEntry(long offset, int length, byte kind) {
+        if ( count == offsets.length ) {
+            offsets = Arrays.copyOf(offsets, count << 1);
+            lengths = Arrays.copyOf(lengths, count << 1);
+            kinds = Arrays.copyOf(kinds, count << 1);
+        }
+        offsets[count] = offset;
+        lengths[count] = length;
+        kinds[count] = kind;
+        count++;
+    }
+
+    /** Return the number of checkpoints in the log */
+    public synchronized int getCheckpointCount() {
+        return count;
+    }
+
+    /** Return the size of the data file in bytes */
+    public synchronized long getDataSize() {
+        return dataSize;
+    }
+
+    /** Return the number of deltas between two keyframes */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Check whether a checkpoint is stored as a keyframe
+     * @param checkpoint Number of the checkpoint in 0..getCheckpointCount()-1
+     * @return true iff the checkpoint is a keyframe
+     */
+    public synchronized boolean isKeyframe(int checkpoint) {
+        checkIndex(checkpoint);
+        return kinds[checkpoint] == KEYFRAME;
+    }
+
+    /**
+     * Append a checkpoint of a court. The court must not be changed
+     * concurrently, e.g. by the simulation thread.
+     * @param court The court
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public void append(Court court) throws IOException {
+        append(CourtSnapshot.snapshot(court));
+    }
+
+    /**
+     * Append a checkpoint
+     * @param snapshot Snapshot of the court (see CourtSnapshot.snapshot),
+     *        from its position to its limit; the position is not changed
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized void append(ByteBuffer snapshot) throws IOException {
+        if ( closed ) return;
+        if ( !writable ) {
+            throw new IllegalStateException("Checkpoint log has been opened for loading only");
+        }
+        final int size = snapshot.remaining();
+        if ( current == null || current.capacity() < size ) {
+            current = ByteBuffer.allocate(size);
+        }
+        current.clear();
+        current.put(snapshot.duplicate());
+        current.flip();
+
+        ByteBuffer out = current;
+        byte kind = KEYFRAME;
+        if ( previous != null && deltas < keyframeInterval && sameLayout(previous, current) ) {
+            encodeDelta(previous, current);
+            if ( encoded.position() < size ) {
+                encoded.flip();
+                out = encoded;
+                kind = DELTA;
+            }
+        }
+
+        final long offset = dataSize;
+        final int length = out.remaining();
+        writeFully(data, out.duplicate(), offset);
+        entry.clear();
+        entry.putLong(offset).putInt(length).putInt(kind).flip();
+        writeFully(index, entry, INDEX_HEADER_SIZE + (long)count * INDEX_ENTRY_SIZE);
+        dataSize += length;
+        addEntry(offset, length, kind);
+        deltas = ( kind == KEYFRAME ) ? 0 : deltas + 1;
+
+        ByteBuffer swap = previous;
+        previous = current;
+        current = swap;
+    }
+
+    /**
+     * Load the snapshot of a checkpoint
+     * @param checkpoint Number of the checkpoint in 0..getCheckpointCount()-1
+     * @return A new buffer holding the snapshot, positioned at its start
+     * @throws IOException if the log cannot be read or is corrupt
+     */
+    public synchronized ByteBuffer loadSnapshot(int checkpoint) throws IOException {
+        if ( closed ) {
+            throw new IllegalStateException("Checkpoint log has been closed");
+        }
+        checkIndex(checkpoint);
+        int key = checkpoint;
+        while ( kinds[key] != KEYFRAME ) {
+            key--;
+        }
+        int from;
+        if ( cachedCheckpoint >= key && cachedCheckpoint <= checkpoint ) {
+            from = cachedCheckpoint + 1;
+        }
+        else {
+            cached = readRecord(key, cached);
+            cachedCheckpoint = key;
+            from = key + 1;
+        }
+        for ( int k = from; k <= checkpoint; k++ ) {
+            record = readRecord(k, record);
+            applyDelta(record, cached);
+            cachedCheckpoint = k;
+        }
+        ByteBuffer result = ByteBuffer.allocate(cached.remaining());
+        result.put(cached.duplicate());
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Load a checkpoint and rebuild its court
+     * @param checkpoint Number of the checkpoint in 0..getCheckpointCount()-1
+     * @return The rebuilt court
+     * @throws IOException if the log cannot be read or is corrupt
+     */
+    public Court load(int checkpoint) throws IOException {
+        return CourtSnapshot.read(loadSnapshot(checkpoint));
+    }
+
+    /**
+     * Check a checkpoint number
+     * @param checkpoint Number of the checkpoint
+     */
+    private void checkIndex(int checkpoint) {
+        if ( checkpoint < 0 || checkpoint >= count ) {
+            throw new IndexOutOfBoundsException("Checkpoint " + checkpoint + " not in log");
+        }
+    }
+
+    /**
+     * Read a record from the data file
+     * @param checkpoint Number of the checkpoint
+     * @param buf Buffer to be reused, or null
+     * @return Buffer holding the record, positioned at its start
+     */
+    private ByteBuffer readRecord(int checkpoint, ByteBuffer buf) throws IOException {
+        final int length = lengths[checkpoint];
+        if ( buf == null || buf.capacity() < length ) {
+            buf = ByteBuffer.allocate(length);
+        }
+        buf.clear();
+        buf.limit(length);
+        readFully(data, buf, offsets[checkpoint]);
+        return buf;
+    }
+
+    /**
+     * Check whether two snapshots have the same numbers of players and balls,
+     * so that one can be stored as a delta of the other
+     */
+    private static boolean sameLayout(ByteBuffer a, ByteBuffer b) {
+        if ( a.remaining() != b.remaining() ) return false;
+        final int players = CourtSnapshot.HEADER_SIZE - 4;
+        if ( a.getInt(players) != b.getInt(players) ) return false;
+        final int balls = CourtSnapshot.HEADER_SIZE + a.getInt(players) * CourtSnapshot.PLAYER_SIZE;
+        return a.getInt(balls) == b.getInt(balls);
+    }
+
+    /**
+     * Encode the changes from one snapshot to another into buffer encoded
+     * @param from Snapshot of the previous checkpoint, starting at index 0
+     * @param to Snapshot of the new checkpoint with the same layout, starting at index 0
+     */
+    private void encodeDelta(ByteBuffer from, ByteBuffer to) {
+        final int p = to.getInt(CourtSnapshot.HEADER_SIZE - 4);
+        final int ballsAt = CourtSnapshot.HEADER_SIZE + p * CourtSnapshot.PLAYER_SIZE;
+        final int n = to.getInt(ballsAt);
+
+        // Worst case: every field changed, 5 bytes per varint
+        final long bound = CourtSnapshot.HEADER_SIZE + 4 + (long)p * (6 + 5*PLAYER_INTS)
+            + 4 + (long)n * (6 + 5*BALL_INTS);
+        if ( encoded == null || encoded.capacity() < bound ) {
+            encoded = ByteBuffer.allocate((int)Math.min(Integer.MAX_VALUE - 8, bound));
+        }
+        final ByteBuffer out = encoded;
+        out.clear();
+        out.put(to.duplicate().limit(CourtSnapshot.HEADER_SIZE));
+
+        // Players: PLAYER_INTS consecutive ints per player
+        int countAt = out.position();
+        out.putInt(0);
+        int changed = 0;
+        int last = 0;
+        for ( int k = 0; k < p; k++ ) {
+            final int at = CourtSnapshot.HEADER_SIZE + k * CourtSnapshot.PLAYER_SIZE;
+            int mask = 0;
+            for ( int f = 0; f < PLAYER_INTS; f++ ) {
+                if ( from.getInt(at + 4*f) != to.getInt(at + 4*f) ) {
+                    mask |= 1 << f;
+                }
+            }
+            if ( mask == 0 ) continue;
+            putVarint(out, k - last);
+            last = k;
+            out.put((byte)mask);
+            for ( int f = 0; f < PLAYER_INTS; f++ ) {
+                if ( (mask & (1 << f)) != 0 ) {
+                    putVarint(out, zigzag(to.getInt(at + 4*f) - from.getInt(at + 4*f)));
+                }
+            }
+            changed++;
+        }
+        out.putInt(countAt, changed);
+
+        // Balls: BALL_INTS arrays of n ints, followed by n hit flags
+        final int arrays = ballsAt + 4;
+        final int hits = arrays + 4 * BALL_INTS * n;
+        countAt = out.position();
+        out.putInt(0);
+        changed = 0;
+        last = 0;
+        for ( int i = 0; i < n; i++ ) {
+            int mask = 0;
+            for ( int f = 0; f < BALL_INTS; f++ ) {
+                final int at = arrays + 4 * (f*n + i);
+                if ( from.getInt(at) != to.getInt(at) ) {
+                    mask |= 1 << f;
+                }
+            }
+            final byte hit = to.get(hits + i);
+            if ( from.get(hits + i) != hit ) {
+                mask |= HIT_CHANGED | ( hit != 0 ? HIT_VALUE : 0 );
+            }
+            if ( mask == 0 ) continue;
+            putVarint(out, i - last);
+            last = i;
+            out.put((byte)mask);
+            for ( int f = 0; f < BALL_INTS; f++ ) {
+                if ( (mask & (1 << f)) != 0 ) {
+                    final int at = arrays + 4 * (f*n + i);
+                    putVarint(out, zigzag(to.getInt(at) - from.getInt(at)));
+                }
+            }
+            changed++;
+        }
+        out.putInt(countAt, changed);
+    }
+
+    /**
+     * Apply a delta record to the snapshot of the previous checkpoint
+     * @param delta The delta record, positioned at its start
+     * @param snapshot Snapshot of the previous checkpoint, starting at index 0;
+     *        changed in place into the snapshot of the delta's checkpoint
+     */
+    private static void applyDelta(ByteBuffer delta, ByteBuffer snapshot) throws IOException {
+        try {
+            final ByteBuffer in = delta.duplicate();
+            final int p = in.getInt(in.position() + CourtSnapshot.HEADER_SIZE - 4);
+            if ( p != snapshot.getInt(CourtSnapshot.HEADER_SIZE - 4) ) {
+                throw new IOException("Corrupt checkpoint log: player count changed in delta");
+            }
+            final ByteBuffer header = in.duplicate();
+            header.limit(header.position() + CourtSnapshot.HEADER_SIZE);
+            snapshot.duplicate().put(header);
+            in.position(in.position() + CourtSnapshot.HEADER_SIZE);
+
+            int changed = in.getInt();
+            int k = 0;
+            for ( int c = 0; c < changed; c++ ) {
+                k += getVarint(in);
+                final int mask = in.get();
+                final int at = CourtSnapshot.HEADER_SIZE + k * CourtSnapshot.PLAYER_SIZE;
+                for ( int f = 0; f < PLAYER_INTS; f++ ) {
+                    if ( (mask & (1 << f)) != 0 ) {
+                        snapshot.putInt(at + 4*f, snapshot.getInt(at + 4*f) + unzigzag(getVarint(in)));
+                    }
+                }
+            }
+
+            final int ballsAt = CourtSnapshot.HEADER_SIZE + p * CourtSnapshot.PLAYER_SIZE;
+            final int n = snapshot.getInt(ballsAt);
+            final int arrays = ballsAt + 4;
+            final int hits = arrays + 4 * BALL_INTS * n;
+            changed = in.getInt();
+            int i = 0;
+            for ( int c = 0; c < changed; c++ ) {
+                i += getVarint(in);
+                final int mask = in.get();
+                for ( int f = 0; f < BALL_INTS; f++ ) {
+                    if ( (mask & (1 << f)) != 0 ) {
+                        final int at = arrays + 4 * (f*n + i);
+                        snapshot.putInt(at, snapshot.getInt(at) + unzigzag(getVarint(in)));
+                    }
+                }
+                if ( (mask & HIT_CHANGED) != 0 ) {
+                    snapshot.put(hits + i, (mask & HIT_VALUE) != 0 ? (byte)1 : (byte)0);
+                }
+            }
+        }
+        catch(RuntimeException ex) {
+            throw new IOException("Corrupt checkpoint log", ex);
+        }
+    }
+
+    /** Map a signed difference to an unsigned value with small magnitude */
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    /** Inverse of zigzag */
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Write an unsigned variable-length int, 7 bits per byte */
+    private static void putVarint(ByteBuffer buf, int v) {
+        while ( (v & ~0x7F) != 0 ) {
+            buf.put((byte)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte)v);
+    }
+
+    /** Read an unsigned variable-length int written by putVarint */
+    private static int getVarint(ByteBuffer buf) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ( b < 0 );
+        return v;
+    }
+
+    /**
+     * Write a buffer completely at a position of a file
+     */
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while ( buf.hasRemaining() ) {
+            position += ch.write(buf, position);
+        }
+    }
+
+    /**
+     * Fill a buffer completely from a position of a file
+     */
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while ( buf.hasRemaining() ) {
+            int r = ch.read(buf, position);
+            if ( r < 0 ) {
+                throw new IOException("Unexpected end of checkpoint log");
+            }
+            position += r;
+        }
+        buf.flip();
+    }
+
+    /**
+     * Close the data and index files. Further calls are ignored.
+     * @throws IOException if a file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if ( closed ) return;
+        closed = true;
+        try {
+            data.close();
+        }
+        finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,923 @@
+package ballcourt;
+
+
+/**
+ * Class Court implements the simulation state of a ball court:
+ * the court dimensions, an arbitrary number of balls and players.
+ * The ball states are kept in primitive arrays (structure of arrays),
+ * so that a single loop in method move advances all balls.
+ * <p>
+ * Collision candidates are found with a uniform grid over the court,
+ * which is rebuilt from the ball arrays in every step by a counting
+ * sort. Ball-player and ball-ball collisions therefore cost time
+ * proportional to the number of balls, not to the number of pairs.
+ * The class has no dependencies on AWT or Swing, so that courts
+ * can be simulated without a display. Class BallCourt is the
+ * graphical view of a court.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.util.Arrays;
+import java.io.Serializable;
+
+
+public class Court implements Serializable {
+
+    /** Initial capacity of the ball arrays */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Edge length of a grid cell. A cell is at least one ball diameter
+     * wide, so that the centres of two touching balls lie in the same
+     * or in adjacent cells; a player box then spans only a few cells.
+     */
+    static final int CELL_SIZE = Math.max(Ball.BALL_DIAM, Math.min(Player.WIDTH, Player.HEIGHT));
+
+    /** Maximal number of wall or player hits resolved for one ball in one step */
+    private static final int MAX_EVENTS = 4;
+
+    /** Candidate code: no player is within reach of the ball */
+    private static final int NO_PLAYER = -1;
+    /** Candidate code: several players are within reach, test all of them */
+    private static final int ALL_PLAYERS = -2;
+
+    /** Width of the court */
+    private final int width;
+    /** Height of the court */
+    private final int height;
+
+    /** Number of balls in the court */
+    private int ballCount;
+
+    /** Ball positions: x-coordinates of the upper left corners */
+    private int[] ballX = new int[INITIAL_CAPACITY];
+    /** Ball positions: y-coordinates of the upper left corners */
+    private int[] ballY = new int[INITIAL_CAPACITY];
+    /** Ball velocity vectors, x-components */
+    private int[] ballDx = new int[INITIAL_CAPACITY];
+    /** Ball velocity vectors, y-components */
+    private int[] ballDy = new int[INITIAL_CAPACITY];
+    /** Flags indicating that a player hit or touched the ball in the previous step */
+    private boolean[] ballHit = new boolean[INITIAL_CAPACITY];
+    /**
+     * Bounce counters: incremented whenever the path of the ball changes
+     * other than by moving on in a straight line (bounces, restores),
+     * so that predictions of the path can be cached until it changes
+     */
+    private int[] ballBounces = new int[INITIAL_CAPACITY];
+
+    /** Seed the court's random number generator was started with */
+    private final long seed;
+
+    /**
+     * State of the random number generator for adding changes
+     *   to ball velocities and directions. The generator is a
+     *   SplitMix64 sequence owned by the court, so it needs neither
+     *   an object per ball nor synchronization, and courts with the
+     *   same seed produce identical trajectories.
+     */
+    private long rngState;
+
+    /** Handle of the first ball in the court, returned by getBall() */
+    private Ball ball;
+
+    /** The players in the court */
+    private Player[] players = new Player[1];
+
+    /** Number of players in the court */
+    private int playerCount;
+
+    /** Flag enabling elastic collisions between balls */
+    private boolean ballCollisions = true;
+
+    /** Largest speed of a ball in x- and y-direction (not stored in snapshots) */
+    private int maxSpeed = Ball.MAX;
+
+    /** Number of grid columns */
+    private final int gridCols;
+    /** Number of grid rows */
+    private final int gridRows;
+    /**
+     * Start index of each grid cell in array cellBalls; the balls of cell c
+     * are cellBalls[cellStart[c] .. cellStart[c+1]-1]
+     */
+    private transient int[] cellStart;
+    /** Ball indices sorted by grid cell */
+    private transient int[] cellBalls;
+    /** Grid cell of each ball */
+    private transient int[] ballCell;
+    /**
+     * Candidate player of each ball in the current step: the index of
+     * the only player within reach, NO_PLAYER or ALL_PLAYERS
+     */
+    private transient int[] candidate;
+    /** Face of the player box hit in the last successful sweep test */
+    private transient boolean sweepFaceX;
+
+    /** Number of ticks simulated by one call of method move */
+    private int timeStep = 1;
+
+    /**
+     * Constructor for a court with a random seed
+     * @param width    Width of the court
+     * @param height   Height of the court
+     */
+    public Court(final int width, final int height) {
+        this(width, height, mix(System.nanoTime()));
+    }
+
+    /**
+     * Constructor for a court with a given seed. Courts created with the
+     * same dimensions, seed and sequence of operations evolve identically.
+     * @param width    Width of the court
+     * @param height   Height of the court
+     * @param seed     Seed of the court's random number generator
+     */
+    public Court(final int width, final int height, final long seed) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        rngState = seed;
+        gridCols = width / CELL_SIZE + 1;
+        gridRows = height / CELL_SIZE + 1;
+    }
+
+    /** Return the seed the court's random number generator was started with */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Return the width of the court */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Return the height of the court */
+    public int getHeight() {
+        return height;
+    }
+
+    /** Add a ball to the court
+     *  The ball's slot in the ball arrays has already been reserved
+     *  by the Ball constructor, so this method only registers the
+     *  first ball as the one returned by getBall().
+     *  @param ball The ball to be added
+     */
+    public void addBall(Ball ball) {
+        if ( ball.getCourt() != this ) {
+            throw new IllegalArgumentException("Ball belongs to another court");
+        }
+        if ( this.ball == null ) {
+            this.ball = ball;
+        }
+    }
+
+    /**
+     * Add a number of balls at random positions with random velocities
+     * @param count Number of balls to be added
+     */
+    public void addBalls(int count) {
+        ensureCapacity(ballCount + count);
+        for ( int k = 0; k < count; k++ ) {
+            int i = allocateBall(nextInt(Math.max(1, width - Ball.BALL_DIAM)),
+                                 nextInt(Math.max(1, height - Ball.BALL_DIAM)));
+            ballDx[i] = nextInt(2*maxSpeed + 1) - maxSpeed;
+            ballDy[i] = nextInt(2*maxSpeed + 1) - maxSpeed;
+        }
+        if ( ball == null && ballCount > 0 ) {
+            ball = new Ball(this, 0);
+        }
+    }
+
+    /**
+     * Reserve a new slot in the ball arrays
+     * @param x x-coordinate of the ball's upper left corner
+     * @param y y-coordinate of the ball's upper left corner
+     * @return Index of the new ball
+     */
+    int allocateBall(int x, int y) {
+        ensureCapacity(ballCount + 1);
+        int i = ballCount++;
+        ballX[i] = x;
+        ballY[i] = y;
+        ballDx[i] = 0;
+        ballDy[i] = 0;
+        ballHit[i] = false;
+        ballBounces[i]++;
+        return i;
+    }
+
+    /**
+     * Grow the ball arrays so that they can hold at least
+     * the given number of balls.
+     * @param capacity Required number of ball slots
+     */
+    void ensureCapacity(int capacity) {
+        if ( capacity <= ballX.length ) return;
+        int newCapacity = Math.max(capacity, ballX.length << 1);
+        ballX = Arrays.copyOf(ballX, newCapacity);
+        ballY = Arrays.copyOf(ballY, newCapacity);
+        ballDx = Arrays.copyOf(ballDx, newCapacity);
+        ballDy = Arrays.copyOf(ballDy, newCapacity);
+        ballHit = Arrays.copyOf(ballHit, newCapacity);
+        ballBounces = Arrays.copyOf(ballBounces, newCapacity);
+    }
+
+    /**
+     * Add a player to the court
+     * @param player The player to be added
+     */
+    public void addPlayer(Player player) {
+        if ( playerCount == players.length ) {
+            players = Arrays.copyOf(players, playerCount << 1);
+        }
+        players[playerCount++] = player;
+    }
+
+    /**
+     * Enable or disable elastic collisions between balls
+     * @param enabled true iff balls shall bounce off each other
+     */
+    public void setBallCollisions(boolean enabled) {
+        ballCollisions = enabled;
+    }
+
+    /**
+     * Get reference to the court's first ball
+     * @return Reference to the first ball in the court or null if no
+     *         ball has been registered via method addBall or addBalls
+     */
+    public Ball getBall() {
+        return ball;
+    }
+
+    /**
+     * Get a handle to the ball with the given index
+     * @param i Index of the ball in 0..getBallCount()-1
+     * @return Handle of the ball
+     */
+    public Ball getBall(int i) {
+        if ( i < 0 || i >= ballCount ) {
+            throw new IndexOutOfBoundsException("Ball index " + i);
+        }
+        return new Ball(this, i);
+    }
+
+    /** Return the number of balls in the court */
+    public int getBallCount() {
+        return ballCount;
+    }
+
+    /** Return x-position of the upper left corner of ball i */
+    public int getBallPosX(int i) {
+        return ballX[i];
+    }
+
+    /** Return y-position of the upper left corner of ball i */
+    public int getBallPosY(int i) {
+        return ballY[i];
+    }
+
+    /** Return x-coordinate of the speed vector of ball i */
+    public int getBallVelX(int i) {
+        return ballDx[i];
+    }
+
+    /** Return y-coordinate of the speed vector of ball i */
+    public int getBallVelY(int i) {
+        return ballDy[i];
+    }
+
+    /**
+     * Return the bounce counter of ball i. The counter changes whenever
+     * the ball leaves its straight path, e.g. by bouncing off a wall, a
+     * player or another ball; as long as it is unchanged, the ball has
+     * moved on with constant velocity.
+     */
+    public int getBallBounces(int i) {
+        return ballBounces[i];
+    }
+
+    /** Return true iff a player hit or touched ball i in the previous step */
+    boolean getBallHit(int i) {
+        return ballHit[i];
+    }
+
+    /**
+     * Restore the state of ball i, e.g. from a snapshot
+     * @param i Index of the ball
+     * @param x x-coordinate of the ball's upper left corner
+     * @param y y-coordinate of the ball's upper left corner
+     * @param dx Velocity vector, x-component
+     * @param dy Velocity vector, y-component
+     * @param hit Flag indicating that a player hit the ball in the previous step
+     */
+    void restoreBall(int i, int x, int y, int dx, int dy, boolean hit) {
+        ballX[i] = x;
+        ballY[i] = y;
+        ballDx[i] = dx;
+        ballDy[i] = dy;
+        ballHit[i] = hit;
+        ballBounces[i]++;
+    }
+
+    /**
+     * Copy the state of ball from into the slot of ball to
+     * @param from Index of the ball copied
+     * @param to Index of the ball overwritten
+     */
+    void copyBall(int from, int to) {
+        restoreBall(to, ballX[from], ballY[from], ballDx[from], ballDy[from], ballHit[from]);
+    }
+
+    /**
+     * Remove the balls at the end of the ball arrays
+     * @param count Number of balls kept, at most getBallCount()
+     */
+    void truncateBalls(int count) {
+        if ( count < 0 || count > ballCount ) {
+            throw new IndexOutOfBoundsException("Ball count " + count);
+        }
+        ballCount = count;
+    }
+
+    /**
+     * Increment the bounce counters of all balls, after their states
+     * have been written directly into the ball arrays
+     */
+    void invalidatePaths() {
+        for ( int i = 0; i < ballCount; i++ ) {
+            ballBounces[i]++;
+        }
+    }
+
+    /** Return the array of ball x-positions (valid up to getBallCount()-1) */
+    int[] ballXArray() {
+        return ballX;
+    }
+
+    /** Return the array of ball y-positions (valid up to getBallCount()-1) */
+    int[] ballYArray() {
+        return ballY;
+    }
+
+    /** Return the array of ball x-velocities (valid up to getBallCount()-1) */
+    int[] ballDxArray() {
+        return ballDx;
+    }
+
+    /** Return the array of ball y-velocities (valid up to getBallCount()-1) */
+    int[] ballDyArray() {
+        return ballDy;
+    }
+
+    /** Return true iff balls bounce off each other */
+    public boolean isBallCollisions() {
+        return ballCollisions;
+    }
+
+    /** Return the current state of the court's random number generator */
+    long getRandomState() {
+        return rngState;
+    }
+
+    /**
+     * Restore the state of the court's random number generator
+     * @param state Generator state as returned by getRandomState
+     */
+    void setRandomState(long state) {
+        rngState = state;
+    }
+
+    /**
+     * Get reference to the court's first player
+     * @return Reference to the first player in the court or null if no
+     *         player has been registered via method addPlayer
+     */
+    public Player getPlayer() {
+        return players[0];
+    }
+
+    /**
+     * Get reference to the player with the given index
+     * @param i Index of the player in 0..getPlayerCount()-1
+     * @return Reference to the player
+     */
+    public Player getPlayer(int i) {
+        if ( i < 0 || i >= playerCount ) {
+            throw new IndexOutOfBoundsException("Player index " + i);
+        }
+        return players[i];
+    }
+
+    /** Return the number of players in the court */
+    public int getPlayerCount() {
+        return playerCount;
+    }
+
+    /**
+     * move method triggering the re-calculation of
+     * ball and player positions. One step advances the court
+     * by getTimeStep() ticks and consists of the following phases.
+     * <ul>
+     * <li> find the players each ball may hit during the step, testing
+     *      only balls in grid cells within reach of a player
+     * <li> advance all balls along their paths in one loop over the ball
+     *      arrays, resolving wall and player hits at their time of impact
+     * <li> bounce touching balls off each other (if enabled), testing only
+     *      balls in neighbouring grid cells
+     * <li> call the move methods of all players
+     * </ul>
+     * Contacts between balls are only tested at the end positions of the
+     * balls, so if ball collisions are enabled the first three phases are
+     * repeated for every tick of the step. Otherwise fast balls could pass
+     * through each other during larger time steps.
+     */
+    public void move(){
+        final int n = ballCount;
+        final boolean withPlayers = playerCount > 0;
+        final boolean collisions = ballCollisions && n > 1;
+        final int ticks = collisions ? 1 : timeStep;
+
+        for ( int s = timeStep / ticks; s > 0; s-- ) {
+            if ( withPlayers ) {
+                buildGrid();
+                findCandidates(ticks);
+            }
+
+            for ( int i = 0; i < n; i++ ) {
+                advance(i, withPlayers ? candidate[i] : NO_PLAYER, ticks);
+            }
+
+            if ( collisions ) {
+                buildGrid();
+                collideBalls();
+            }
+        }
+
+        for ( int k = 0; k < playerCount; k++ ) {
+            players[k].move();
+        }
+    }
+
+    /**
+     * Calculate the next position of ball i only. All players are
+     * tested for hits, without using the collision grid, and
+     * collisions with other balls are not considered.
+     * @param i Index of the ball
+     */
+    void moveBall(int i) {
+        advance(i, playerCount > 0 ? ALL_PLAYERS : NO_PLAYER, timeStep);
+    }
+
+    /**
+     * Set the number of ticks simulated by one call of method move.
+     * Since wall and player hits are detected along the whole path of a
+     * ball, larger time steps do not let balls pass through players.
+     * Balls colliding with each other are still advanced tick by tick
+     * (see method move), so larger time steps save less time then.
+     * @param ticks Number of ticks per step (at least 1)
+     */
+    public void setTimeStep(int ticks) {
+        if ( ticks < 1 ) {
+            throw new IllegalArgumentException("Time step must be at least one tick");
+        }
+        timeStep = ticks;
+    }
+
+    /** Return the number of ticks simulated by one call of method move */
+    public int getTimeStep() {
+        return timeStep;
+    }
+
+    /**
+     * Set the largest speed of the balls in x- and y-direction
+     * (default Ball.MAX). The velocities of the balls in the court
+     * are limited to the new speed.
+     * @param speed Largest velocity component (at least 1)
+     */
+    public void setMaxSpeed(int speed) {
+        if ( speed < 1 ) {
+            throw new IllegalArgumentException("Maximal speed must be at least 1");
+        }
+        maxSpeed = speed;
+        for ( int i = 0; i < ballCount; i++ ) {
+            ballDx[i] = limit(ballDx[i]);
+            ballDy[i] = limit(ballDy[i]);
+        }
+    }
+
+    /** Return the largest speed of the balls in x- and y-direction */
+    public int getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Sort the balls into the cells of the collision grid
+     * (counting sort over the cell index of each ball centre).
+     */
+    private void buildGrid() {
+        final int n = ballCount;
+        final int cells = gridCols * gridRows;
+        if ( cellStart == null || cellStart.length != cells + 1 ) {
+            cellStart = new int[cells + 1];
+        }
+        if ( cellBalls == null || cellBalls.length < n ) {
+            cellBalls = new int[ballX.length];
+            ballCell = new int[ballX.length];
+            candidate = new int[ballX.length];
+        }
+        final int[] start = cellStart;
+        final int[] sorted = cellBalls;
+        final int[] cellOf = ballCell;
+        final int r = Ball.BALL_DIAM >> 1;
+
+        Arrays.fill(start, 0);
+        for ( int i = 0; i < n; i++ ) {
+            int c = ((ballY[i] + r) / CELL_SIZE) * gridCols + (ballX[i] + r) / CELL_SIZE;
+            cellOf[i] = c;
+            start[c + 1]++;
+        }
+        for ( int c = 0; c < cells; c++ ) {
+            start[c + 1] += start[c];
+        }
+        // Fill the cells back to front, using start[c+1] as insertion cursor,
+        // so that start[c+1] is the first index of cell c afterwards,
+        // then shift the start indices down by one cell
+        for ( int i = n - 1; i >= 0; i-- ) {
+            int c = cellOf[i];
+            sorted[--start[c + 1]] = i;
+        }
+        System.arraycopy(start, 1, start, 0, cells);
+        start[cells] = n;
+    }
+
+    /**
+     * Determine for each ball which players it may hit in the current
+     * step. A ball can only reach a player if its centre lies within
+     * half a ball diameter plus the maximal path length of the player box,
+     * so only the grid cells in this range are visited for each player.
+     * @param ticks Number of ticks the balls are advanced by
+     */
+    private void findCandidates(int ticks) {
+        Arrays.fill(candidate, 0, ballCount, NO_PLAYER);
+        final int reach = (Ball.BALL_DIAM >> 1) + maxSpeed * ticks + 1;
+        for ( int k = 0; k < playerCount; k++ ) {
+            Player p = players[k];
+            int c0 = clamp((p.getPosX() - reach) / CELL_SIZE, gridCols);
+            int c1 = clamp((p.getPosX() + Player.WIDTH + reach) / CELL_SIZE, gridCols);
+            int r0 = clamp((p.getPosY() - reach) / CELL_SIZE, gridRows);
+            int r1 = clamp((p.getPosY() + Player.HEIGHT + reach) / CELL_SIZE, gridRows);
+            for ( int row = r0; row <= r1; row++ ) {
+                for ( int col = c0; col <= c1; col++ ) {
+                    int c = row * gridCols + col;
+                    for ( int m = cellStart[c]; m < cellStart[c + 1]; m++ ) {
+                        int i = cellBalls[m];
+                        candidate[i] = candidate[i] == NO_PLAYER ? k : ALL_PLAYERS;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Clamp a grid coordinate to the range 0..limit-1
+     * @param v Grid coordinate
+     * @param limit Number of columns or rows
+     * @return Clamped coordinate
+     */
+    private static int clamp(int v, int limit) {
+        return v < 0 ? 0 : ( v >= limit ? limit - 1 : v );
+    }
+
+    /**
+     * Check whether ball i overlaps the box of the given player
+     * @param i Index of the ball
+     * @param player The player
+     * @return true iff ball and player overlap
+     */
+    private boolean overlaps(int i, Player player) {
+        final int x = ballX[i];
+        final int y = ballY[i];
+        return x <= player.getPosX() + Player.WIDTH &&
+            player.getPosX() <= x + Ball.BALL_DIAM &&
+            y <= player.getPosY() + Player.HEIGHT &&
+            y + Ball.BALL_DIAM >= player.getPosY();
+    }
+
+    /**
+     * Move ball i along its path for a number of ticks. Instead of moving
+     * by (dx,dy)*ticks and clipping afterwards, the times of impact
+     * with the walls and the candidate players are calculated
+     * (swept collision test). The ball is moved to the earliest impact,
+     * bounces, and continues with the remaining time of the step.
+     * @param i Index of the ball
+     * @param cand Candidate player index, NO_PLAYER or ALL_PLAYERS
+     * @param ticks Number of ticks
+     */
+    private void advance(int i, int cand, int ticks) {
+
+        final float maxX = width - Ball.BALL_DIAM;
+        final float maxY = height - Ball.BALL_DIAM;
+        int dx = ballDx[i];
+        int dy = ballDy[i];
+
+        // If our speed is zero, set it to (1,1)
+        if ( dx == 0 && dy == 0 ) {
+            dx = 1;
+            dy = 1;
+        }
+
+        // Do we already overlap a player? Then bounce back once,
+        // unless we have hit the player in the previous step: we might
+        // still overlap with it, then the direction should not be
+        // inverted again.
+        boolean touching = false;
+        boolean hit = false;
+        for ( int k = firstCandidate(cand); k <= lastCandidate(cand); k++ ) {
+            Player p = players[k];
+            if ( overlaps(i, p) ) {
+                touching = true;
+                if ( !ballHit[i] && !hit ) {
+                    if ( dx != 0 ) {
+                        // Normal case: hit player from left or right
+                        dx = -dx;
+                    }
+                    else {
+                        // Special case: Hit player's head or butt
+                        dy = -dy;
+                    }
+                    p.incrementScore();
+                    hit = true;
+                }
+            }
+        }
+
+        float x = ballX[i];
+        float y = ballY[i];
+        float remaining = 1f;
+        boolean bounced = false;
+
+        for ( int e = 0; e < MAX_EVENTS && remaining > 0f; e++ ) {
+
+            final float vx = dx * ticks;
+            final float vy = dy * ticks;
+
+            // Earliest wall impact
+            float t = remaining;
+            boolean wallX = false;
+            boolean wallY = false;
+            float tx = vx > 0 ? (maxX - x) / vx : ( vx < 0 ? -x / vx : Float.MAX_VALUE );
+            float ty = vy > 0 ? (maxY - y) / vy : ( vy < 0 ? -y / vy : Float.MAX_VALUE );
+            tx = Math.max(0f, tx);
+            ty = Math.max(0f, ty);
+            if ( tx <= t ) {
+                t = tx;
+                wallX = true;
+            }
+            if ( ty < t ) {
+                t = ty;
+                wallX = false;
+                wallY = true;
+            }
+            else if ( ty == t && ty <= remaining ) {
+                wallY = true;
+            }
+
+            // Earliest player impact before the wall impact
+            Player hitPlayer = null;
+            boolean hitFaceX = false;
+            for ( int k = firstCandidate(cand); k <= lastCandidate(cand); k++ ) {
+                float tp = sweep(x, y, vx, vy, players[k]);
+                if ( tp >= 0f && tp < t ) {
+                    t = tp;
+                    hitPlayer = players[k];
+                    hitFaceX = sweepFaceX;
+                }
+            }
+
+            x += vx * t;
+            y += vy * t;
+            remaining -= t;
+
+            if ( hitPlayer != null ) {
+                // Bounce off the face of the player we have hit
+                if ( hitFaceX ) {
+                    dx = -dx;
+                }
+                else {
+                    dy = -dy;
+                }
+                hitPlayer.incrementScore();
+                hit = true;
+                bounced = true;
+            }
+            else {
+                if ( wallX ) {
+                    dx = wallBounce(dx);
+                }
+                if ( wallY ) {
+                    dy = wallBounce(dy);
+                }
+                if ( !wallX && !wallY ) {
+                    remaining = 0f;
+                }
+                else {
+                    bounced = true;
+                }
+            }
+        }
+
+        ballX[i] = Math.min(Math.max(Math.round(x), 0), (int)maxX);
+        ballY[i] = Math.min(Math.max(Math.round(y), 0), (int)maxY);
+        if ( bounced || dx != ballDx[i] || dy != ballDy[i] ) {
+            ballBounces[i]++;
+        }
+        ballDx[i] = dx;
+        ballDy[i] = dy;
+        ballHit[i] = hit || touching;
+    }
+
+    /** Return the first player index to be tested for a candidate code */
+    private static int firstCandidate(int cand) {
+        return cand < 0 ? 0 : cand;
+    }
+
+    /** Return the last player index to be tested for a candidate code */
+    private int lastCandidate(int cand) {
+        return cand == ALL_PLAYERS ? playerCount - 1 : ( cand == NO_PLAYER ? -1 : cand );
+    }
+
+    /**
+     * Swept collision test of a moving ball against a player box.
+     * The ball's upper left corner moves along (x,y) + t*(vx,vy);
+     * it touches the player iff it lies in the player box extended
+     * by one ball diameter to the left and to the top.
+     * Field sweepFaceX is set to true if the box is entered through
+     * its left or right face, false if through its top or bottom face.
+     * @param x Start x-coordinate of the ball
+     * @param y Start y-coordinate of the ball
+     * @param vx Path length in x-direction for a whole step
+     * @param vy Path length in y-direction for a whole step
+     * @param p The player
+     * @return Time of impact as fraction of the step (&gt; 0), or -1 if the
+     *         ball does not enter the box during the step
+     */
+    private float sweep(float x, float y, float vx, float vy, Player p) {
+        final float x0 = p.getPosX() - Ball.BALL_DIAM;
+        final float x1 = p.getPosX() + Player.WIDTH;
+        final float y0 = p.getPosY() - Ball.BALL_DIAM;
+        final float y1 = p.getPosY() + Player.HEIGHT;
+
+        float enterX, exitX, enterY, exitY;
+        if ( vx == 0f ) {
+            if ( x < x0 || x > x1 ) return -1f;
+            enterX = Float.NEGATIVE_INFINITY;
+            exitX = Float.POSITIVE_INFINITY;
+        }
+        else {
+            float ta = (x0 - x) / vx;
+            float tb = (x1 - x) / vx;
+            enterX = Math.min(ta, tb);
+            exitX = Math.max(ta, tb);
+        }
+        if ( vy == 0f ) {
+            if ( y < y0 || y > y1 ) return -1f;
+            enterY = Float.NEGATIVE_INFINITY;
+            exitY = Float.POSITIVE_INFINITY;
+        }
+        else {
+            float ta = (y0 - y) / vy;
+            float tb = (y1 - y) / vy;
+            enterY = Math.min(ta, tb);
+            exitY = Math.max(ta, tb);
+        }
+
+        float enter = Math.max(enterX, enterY);
+        float exit = Math.min(exitX, exitY);
+        // Boxes the ball already touches are handled at the start of the step
+        if ( enter <= 0f || enter > exit || enter > 1f ) return -1f;
+        sweepFaceX = enterX >= enterY;
+        return enter;
+    }
+
+    /**
+     * Invert a velocity component after a wall hit, adding a
+     * small random change to the speed
+     * @param v Velocity component before the hit
+     * @return Velocity component after the hit
+     */
+    private int wallBounce(int v) {
+        v = -v;
+        int sig = Integer.signum(v);
+        int delta = nextInt() % 3;
+        if ( Integer.signum(v + delta) == sig ) {
+            v = v + delta;
+            if ( Math.abs(v) > maxSpeed ) {
+                v = Integer.signum(v)*maxSpeed;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Bounce touching balls off each other. For each ball, only the
+     * balls in the same and the neighbouring grid cells are tested.
+     * Each pair is handled once (by the ball with the smaller index).
+     */
+    private void collideBalls() {
+        final int n = ballCount;
+        for ( int i = 0; i < n; i++ ) {
+            int c = ballCell[i];
+            int col = c % gridCols;
+            int row = c / gridCols;
+            int c0 = col > 0 ? col - 1 : 0;
+            int c1 = col < gridCols - 1 ? col + 1 : col;
+            int r0 = row > 0 ? row - 1 : 0;
+            int r1 = row < gridRows - 1 ? row + 1 : row;
+            for ( int rr = r0; rr <= r1; rr++ ) {
+                for ( int cc = c0; cc <= c1; cc++ ) {
+                    int cell = rr * gridCols + cc;
+                    for ( int k = cellStart[cell]; k < cellStart[cell + 1]; k++ ) {
+                        int j = cellBalls[k];
+                        if ( j > i ) {
+                            bounceBalls(i, j);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Elastic collision of two balls of equal mass: if the balls touch
+     * and approach each other, the velocity components along the line
+     * through their centres are exchanged. The exchanged impulse is
+     * rounded to integers, so momentum is conserved exactly unless a
+     * resulting velocity component exceeds maxSpeed and is limited;
+     * then the momentum of the pair changes by the amount cut off.
+     * @param i Index of the first ball
+     * @param j Index of the second ball
+     */
+    private void bounceBalls(int i, int j) {
+        final int diam = Ball.BALL_DIAM;
+        int nx = ballX[j] - ballX[i];
+        int ny = ballY[j] - ballY[i];
+        int dist2 = nx*nx + ny*ny;
+        if ( dist2 == 0 || dist2 > diam*diam ) return;
+
+        int dvx = ballDx[i] - ballDx[j];
+        int dvy = ballDy[i] - ballDy[j];
+        int dot = dvx*nx + dvy*ny;
+        // Only approaching balls bounce, touching balls that are
+        // already separating are left alone
+        if ( dot <= 0 ) return;
+
+        int ix = (int)Math.round((double)dot * nx / dist2);
+        int iy = (int)Math.round((double)dot * ny / dist2);
+        ballDx[i] = limit(ballDx[i] - ix);
+        ballDy[i] = limit(ballDy[i] - iy);
+        ballDx[j] = limit(ballDx[j] + ix);
+        ballDy[j] = limit(ballDy[j] + iy);
+        ballBounces[i]++;
+        ballBounces[j]++;
+    }
+
+    /**
+     * Limit a velocity component to the range -maxSpeed..maxSpeed
+     * @param v Velocity component
+     * @return Limited velocity component
+     */
+    private int limit(int v) {
+        return v > maxSpeed ? maxSpeed : ( v < -maxSpeed ? -maxSpeed : v );
+    }
+
+    /**
+     * Return the next 32 random bits of the court's generator
+     * (SplitMix64 step)
+     */
+    private int nextInt() {
+        return (int)(mix(rngState += 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * Return a random number in 0..bound-1
+     * @param bound Upper bound (exclusive), at least 1
+     */
+    private int nextInt(int bound) {
+        return (int)(((nextInt() & 0xFFFFFFFFL) * bound) >>> 32);
+    }
+
+    /**
+     * SplitMix64 finalizer: scramble the bits of a 64 bit value
+     * @param z Value to be scrambled
+     * @return Scrambled value
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,240 @@
+package ballcourt;
+
+
+/**
+ * Compact, versioned binary snapshot of the complete state of a Court.
+ * The snapshot has a fixed layout (all values big-endian):
+ * <pre>
+ *   int     magic 'BCSN'
+ *   short   format version
+ *   short   flags (bit 0: ball collisions enabled)
+ *   int     court width, court height, time step
+ *   long    seed, random number generator state
+ *   int     number of players p
+ *   p times int x, y, dy, maxVelY, score, target ball (version 1: no target)
+ *   int     number of balls n
+ *   n x int ball x, n x int ball y, n x int ball dx, n x int ball dy
+ *   n x byte ball hit flags
+ * </pre>
+ * Only game state is stored, no window state, so a snapshot of a court
+ * with one ball and one player takes less than 100 bytes and can be read
+ * independently of the JDK version.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+public final class CourtSnapshot
+{
+
+    /** Magic number at the start of every snapshot: 'BCSN' */
+    public static final int MAGIC = 0x4243534E;
+
+    /** Current version of the snapshot format */
+    public static final short VERSION = 2;
+
+    /** Oldest version of the snapshot format which can still be read */
+    private static final short OLDEST_VERSION = 1;
+
+    /** Flag bit: ball collisions enabled */
+    private static final short FLAG_BALL_COLLISIONS = 1;
+
+    /** Size of the header up to and including the player count in bytes */
+    static final int HEADER_SIZE = 4 + 2 + 2 + 3*4 + 2*8 + 4;
+
+    /** Size of one player record in bytes */
+    static final int PLAYER_SIZE = 6*4;
+
+    /** Size of one ball record in bytes */
+    private static final int BALL_SIZE = 4*4 + 1;
+
+    /** No instances - all methods are static */
+    private CourtSnapshot() {
+    }
+
+    /**
+     * Calculate the size of the snapshot of a court
+     * @param court The court
+     * @return Snapshot size in bytes
+     */
+    public static int size(Court court) {
+        return HEADER_SIZE + court.getPlayerCount()*PLAYER_SIZE
+            + 4 + court.getBallCount()*BALL_SIZE;
+    }
+
+    /**
+     * Write the snapshot of a court into a buffer
+     * @param court The court
+     * @param buf Target buffer with at least size(court) bytes remaining
+     */
+    public static void write(Court court, ByteBuffer buf) {
+        buf.putInt(MAGIC);
+        buf.putShort(VERSION);
+        buf.putShort(court.isBallCollisions() ? FLAG_BALL_COLLISIONS : 0);
+        buf.putInt(court.getWidth());
+        buf.putInt(court.getHeight());
+        buf.putInt(court.getTimeStep());
+        buf.putLong(court.getSeed());
+        buf.putLong(court.getRandomState());
+
+        final int p = court.getPlayerCount();
+        buf.putInt(p);
+        for ( int k = 0; k < p; k++ ) {
+            Player player = court.getPlayer(k);
+            buf.putInt(player.getPosX());
+            buf.putInt(player.getPosY());
+            buf.putInt(player.getVelY());
+            buf.putInt(player.getMaxVelY());
+            buf.putInt(player.getScore());
+            buf.putInt(player.getTarget());
+        }
+
+        final int n = court.getBallCount();
+        buf.putInt(n);
+        for ( int i = 0; i < n; i++ ) buf.putInt(court.getBallPosX(i));
+        for ( int i = 0; i < n; i++ ) buf.putInt(court.getBallPosY(i));
+        for ( int i = 0; i < n; i++ ) buf.putInt(court.getBallVelX(i));
+        for ( int i = 0; i < n; i++ ) buf.putInt(court.getBallVelY(i));
+        for ( int i = 0; i < n; i++ ) buf.put(court.getBallHit(i) ? (byte)1 : (byte)0);
+    }
+
+    /**
+     * Read a snapshot from a buffer and rebuild the court
+     * @param buf Buffer positioned at the start of a snapshot
+     * @return The rebuilt court
+     * @throws IOException if the buffer does not contain a valid snapshot
+     */
+    public static Court read(ByteBuffer buf) throws IOException {
+        try {
+            if ( buf.getInt() != MAGIC ) {
+                throw new IOException("Not a ball court snapshot");
+            }
+            short version = buf.getShort();
+            if ( version < OLDEST_VERSION || version > VERSION ) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            short flags = buf.getShort();
+            int width = buf.getInt();
+            int height = buf.getInt();
+            int timeStep = buf.getInt();
+            long seed = buf.getLong();
+            long rngState = buf.getLong();
+
+            Court court = new Court(width, height, seed);
+            court.setRandomState(rngState);
+            court.setTimeStep(timeStep);
+            court.setBallCollisions((flags & FLAG_BALL_COLLISIONS) != 0);
+
+            int p = buf.getInt();
+            for ( int k = 0; k < p; k++ ) {
+                int x = buf.getInt();
+                int y = buf.getInt();
+                int dy = buf.getInt();
+                int maxVelY = buf.getInt();
+                int score = buf.getInt();
+                int target = ( version >= 2 ) ? buf.getInt() : 0;
+                Player player = new Player(court, x, y, maxVelY);
+                player.restore(y, dy, score);
+                player.setTarget(Math.max(0, target));
+                court.addPlayer(player);
+            }
+
+            int n = buf.getInt();
+            if ( n < 0 || (long)n * BALL_SIZE > buf.remaining() ) {
+                throw new IOException("Corrupt snapshot: " + n + " balls");
+            }
+            court.ensureCapacity(n);
+            final int base = buf.position();
+            for ( int i = 0; i < n; i++ ) {
+                court.allocateBall(0, 0);
+                court.restoreBall(i,
+                                  buf.getInt(base + 4*i),
+                                  buf.getInt(base + 4*(n + i)),
+                                  buf.getInt(base + 4*(2*n + i)),
+                                  buf.getInt(base + 4*(3*n + i)),
+                                  buf.get(base + 16*n + i) != 0);
+            }
+            buf.position(base + n*BALL_SIZE);
+            if ( n > 0 ) {
+                court.addBall(new Ball(court, 0));
+            }
+            return court;
+        }
+        catch(BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("Truncated snapshot", ex);
+        }
+    }
+
+    /**
+     * Take the snapshot of a court in memory
+     * @param court The court
+     * @return Buffer holding the snapshot, positioned at its start
+     */
+    public static ByteBuffer snapshot(Court court) {
+        ByteBuffer buf = ByteBuffer.allocate(size(court));
+        write(court, buf);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Save the snapshot of a court to a file
+     * @param court The court
+     * @param file Target file, overwritten if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Court court, Path file) throws IOException {
+        save(snapshot(court), file);
+    }
+
+    /**
+     * Save a snapshot taken by method snapshot to a file. The file is
+     * replaced as a whole (see class AtomicFile).
+     * @param snapshot Buffer holding the snapshot; its position is not changed
+     * @param file Target file, overwritten if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(ByteBuffer snapshot, Path file) throws IOException {
+        AtomicFile.replace(file, tmp -> {
+                ByteBuffer buf = snapshot.duplicate();
+                try ( FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING) ) {
+                    while ( buf.hasRemaining() ) {
+                        ch.write(buf);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Load a court from a snapshot file
+     * @param file Snapshot file
+     * @return The rebuilt court
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static Court load(Path file) throws IOException {
+        try ( FileChannel ch = FileChannel.open(file, StandardOpenOption.READ) ) {
+            long size = ch.size();
+            if ( size > Integer.MAX_VALUE ) {
+                throw new IOException("Snapshot too large: " + size + " bytes");
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int)size);
+            while ( buf.hasRemaining() ) {
+                if ( ch.read(buf) < 0 ) {
+                    throw new IOException("Unexpected end of snapshot file");
+                }
+            }
+            buf.flip();
+            return read(buf);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ballcourt;
+
+
+/**
+ * Snapshot of the drawable state of a court after a tick: positions of
+ * all balls and players and the score of the first player, together
+ * with the positions of the preceding tick, so that a renderer can
+ * interpolate between the two ticks, and the region changed by the tick.
+ * <p>
+ * Instances are only filled by StateExchange and read by the renderer
+ * owning them; the arrays are reused and only grow when the number of
+ * balls or players grows.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.util.Arrays;
+
+
+final class CourtState
+{
+
+    /** Time when the snapshot was published (System.nanoTime) */
+    long timeNanos;
+    /** Time when the preceding snapshot was published, 0 if there is none */
+    long prevTimeNanos;
+    /** Number of ticks simulated between the two snapshots */
+    int timeStep;
+    /** Largest speed of a ball in x- and y-direction */
+    int maxSpeed = Ball.MAX;
+
+    /** Number of balls */
+    int ballCount;
+    /** Ball x-positions */
+    int[] ballX = new int[0];
+    /** Ball y-positions */
+    int[] ballY = new int[0];
+    /** Ball x-positions after the preceding tick */
+    int[] prevBallX = new int[0];
+    /** Ball y-positions after the preceding tick */
+    int[] prevBallY = new int[0];
+
+    /** Number of players */
+    int playerCount;
+    /** Player x-positions */
+    int[] playerX = new int[0];
+    /** Player y-positions */
+    int[] playerY = new int[0];
+    /** Player y-positions after the preceding tick */
+    int[] prevPlayerY = new int[0];
+
+    /**
+     * Left edge of the region changed by this tick: the boxes of all
+     * moved objects at the preceding and this tick and the score text
+     * if the score has changed (court coordinates, empty if dirtyX0 > dirtyX1)
+     */
+    int dirtyX0;
+    /** Top edge of the region changed by this tick */
+    int dirtyY0;
+    /** Right edge (exclusive) of the region changed by this tick */
+    int dirtyX1;
+    /** Bottom edge (exclusive) of the region changed by this tick */
+    int dirtyY1;
+    /** True iff the number of balls or players has changed, so that the whole court changed */
+    boolean layoutChanged;
+
+    /** True iff the court has a first player whose score is shown */
+    boolean hasPlayer;
+    /** Score of the first player */
+    int score;
+
+    /**
+     * Grow the arrays so that they can hold the given numbers of balls and players
+     * @param balls Number of balls
+     * @param players Number of players
+     */
+    void ensureCapacity(int balls, int players) {
+        if ( ballX.length < balls ) {
+            int capacity = Math.max(balls, ballX.length << 1);
+            ballX = Arrays.copyOf(ballX, capacity);
+            ballY = Arrays.copyOf(ballY, capacity);
+            prevBallX = Arrays.copyOf(prevBallX, capacity);
+            prevBallY = Arrays.copyOf(prevBallY, capacity);
+        }
+        if ( playerX.length < players ) {
+            playerX = Arrays.copyOf(playerX, players);
+            playerY = Arrays.copyOf(playerY, players);
+            prevPlayerY = Arrays.copyOf(prevPlayerY, players);
+        }
+    }
+
+    /**
+     * Compute the fraction of the way from the preceding to this tick
+     * which a renderer should show at the given time. The renderer lags
+     * one tick behind the simulation, so that it can always interpolate:
+     * at the publishing time, the preceding tick is shown; one tick
+     * length later, this tick is shown.
+     * @param now Current time (System.nanoTime)
+     * @return Fraction in 0..1
+     */
+    double alpha(long now) {
+        long tickNanos = timeNanos - prevTimeNanos;
+        if ( prevTimeNanos == 0 || tickNanos <= 0 ) return 1.0;
+        double a = (double)(now - timeNanos) / tickNanos;
+        return a < 0 ? 0 : ( a > 1 ? 1 : a );
+    }
+
+    /**
+     * Interpolate a coordinate between the preceding and this tick.
+     * Coordinates which jumped further than the objects can move in one
+     * step, e.g. when a replay restarts, are not interpolated.
+     * @param prev Coordinate after the preceding tick
+     * @param cur Coordinate after this tick
+     * @param alpha Fraction computed by method alpha
+     * @return Interpolated coordinate
+     */
+    int interpolate(int prev, int cur, double alpha) {
+        int d = cur - prev;
+        if ( Math.abs(d) > 2 * maxSpeed * Math.max(1, timeStep) ) return cur;
+        return prev + (int)Math.round(d * alpha);
+    }
+}
@@ -0,0 +1,138 @@
+package ballcourt;
+
+
+/**
+ * Heatmap of the ball density of a court, used instead of drawing
+ * every ball when a court contains very many balls.
+ * <p>
+ * The court is divided into square cells; the centre of every ball is
+ * counted in its cell. The counts are mapped on a logarithmic scale to
+ * the colours of a palette and written into the int array backing an
+ * image with one pixel per cell, which is then drawn scaled to the
+ * court in a single blit. The image is opaque, so that the blit needs
+ * no blending; cells without balls get the background colour.
+ * The count and pixel arrays are reused between frames.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+
+final class DensityMap
+{
+
+    /** Width and height of a cell in pixels */
+    static final int CELL = 4;
+
+    /** Number of palette colours */
+    private static final int LEVELS = 256;
+    /** Largest count whose colour level is looked up in a table */
+    private static final int TABLE_SIZE = 4096;
+
+    /** Palette from dark blue (few balls) through cyan and yellow to red (many balls) */
+    private static final int[] PALETTE = createPalette();
+
+    /** Number of cells in x-direction */
+    private int columns;
+    /** Number of cells in y-direction */
+    private int rows;
+    /** Number of ball centres per cell */
+    private int[] counts = new int[0];
+    /** Image with one pixel per cell */
+    private BufferedImage image;
+    /** Pixels of the image */
+    private int[] pixels;
+    /** Palette index for small counts, rebuilt when the maximal count changes */
+    private final int[] levels = new int[TABLE_SIZE];
+    /** Maximal count for which levels has been built */
+    private int levelsMax = -1;
+
+    /**
+     * Create the palette
+     * @return ARGB colours for the levels 0..LEVELS-1
+     */
+    private static int[] createPalette() {
+        int[] p = new int[LEVELS];
+        for ( int k = 0; k < LEVELS; k++ ) {
+            float t = k / (float)(LEVELS - 1);
+            int r, g, b;
+            if ( t < 1/3f ) {
+                float u = t * 3;
+                r = 0; g = (int)(255 * u); b = 128 + (int)(127 * u);
+            }
+            else if ( t < 2/3f ) {
+                float u = (t - 1/3f) * 3;
+                r = (int)(255 * u); g = 255; b = (int)(255 * (1 - u));
+            }
+            else {
+                float u = (t - 2/3f) * 3;
+                r = 255; g = (int)(255 * (1 - u)); b = 0;
+            }
+            p[k] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        return p;
+    }
+
+    /**
+     * Draw the density of the balls of a snapshot
+     * @param g Graphics context to draw into
+     * @param s Snapshot of the court
+     * @param x x-coordinate of the court's upper left corner in g
+     * @param y y-coordinate of the court's upper left corner in g
+     * @param width Width of the court
+     * @param height Height of the court
+     * @param background Colour of empty cells
+     */
+    void draw(Graphics g, CourtState s, int x, int y, int width, int height, Color background) {
+        final int cols = Math.max(1, (width + CELL - 1) / CELL);
+        final int rws = Math.max(1, (height + CELL - 1) / CELL);
+        if ( image == null || cols != columns || rws != rows ) {
+            columns = cols;
+            rows = rws;
+            counts = new int[cols * rws];
+            image = new BufferedImage(cols, rws, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        }
+
+        // Count the ball centres per cell
+        Arrays.fill(counts, 0);
+        final int half = Ball.BALL_DIAM / 2;
+        final int[] bx = s.ballX;
+        final int[] by = s.ballY;
+        int max = 0;
+        for ( int i = 0; i < s.ballCount; i++ ) {
+            int cx = Math.min(cols - 1, Math.max(0, (bx[i] + half) / CELL));
+            int cy = Math.min(rws - 1, Math.max(0, (by[i] + half) / CELL));
+            int c = ++counts[cy * cols + cx];
+            if ( c > max ) max = c;
+        }
+
+        // Map the counts to colours
+        if ( max != levelsMax ) {
+            final double scale = (LEVELS - 1) / Math.log1p(max);
+            for ( int c = 1; c < Math.min(max + 1, TABLE_SIZE); c++ ) {
+                levels[c] = (int)(Math.log1p(c) * scale);
+            }
+            levelsMax = max;
+        }
+        final double scale = (LEVELS - 1) / Math.log1p(Math.max(1, max));
+        final int empty = background.getRGB();
+        for ( int k = 0; k < counts.length; k++ ) {
+            int c = counts[k];
+            if ( c == 0 ) {
+                pixels[k] = empty;
+            }
+            else {
+                pixels[k] = PALETTE[c < TABLE_SIZE ? levels[c] : (int)(Math.log1p(c) * scale)];
+            }
+        }
+
+        g.drawImage(image, x, y, x + cols * CELL, y + rws * CELL, 0, 0, cols, rws, null);
+    }
+}
@@ -0,0 +1,308 @@
+package ballcourt;
+
+
+/**
+ * Exporter rendering ball courts into off-screen images and writing
+ * them as a PNG sequence or a raw RGB file, e.g. for encoding a video.
+ * <p>
+ * Frames are drawn into a fixed pool of images by the calling thread
+ * and handed to background encoder threads, which write them and return
+ * the images to the pool. If the encoders fall behind, method export
+ * waits for a free image. PNG frames are encoded in parallel by one
+ * thread per core, each reusing its own image writer; a raw RGB file is
+ * written by a single thread, so that the frames stay in order.
+ * Neither images nor encoders are allocated per frame.
+ * <p>
+ * A raw RGB file contains the frames one after another, each one as
+ * rows of 3-byte RGB pixels, e.g. for
+ * {@code ffmpeg -f rawvideo -pix_fmt rgb24 -s WIDTHxHEIGHT -i FILE}.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+
+
+public class FrameExporter implements Closeable
+{
+
+    /** Output formats */
+    public enum Format {
+        /** One PNG file per frame in a directory */
+        PNG,
+        /** All frames as raw 24-bit RGB in a single file */
+        RAW
+    }
+
+    /** Number of images in the pool per encoder thread */
+    private static final int IMAGES_PER_THREAD = 2;
+
+    /** Pooled image together with its graphics context */
+    private static final class Frame {
+        /** The image */
+        final BufferedImage image;
+        /** Graphics context of the image */
+        final Graphics2D g;
+        /** Pixels of the image */
+        final int[] pixels;
+        /** Number of the frame currently held */
+        long number;
+
+        Frame(int width, int height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            g = image.createGraphics();
+            pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        }
+    }
+
+    /** Sentinel frame telling an encoder thread to terminate */
+    private static final Frame END = new Frame(1, 1);
+
+    /** Output format */
+    private final Format format;
+    /** Output directory (PNG) or file (RAW) */
+    private final Path target;
+    /** Width of the frames */
+    private final int width;
+    /** Height of the frames */
+    private final int height;
+
+    /** Images available for drawing */
+    private final BlockingQueue<Frame> free;
+    /** Drawn images waiting for an encoder */
+    private final BlockingQueue<Frame> pending;
+    /** The encoder threads */
+    private final Thread[] encoders;
+    /** Output file of the RAW format, null for PNG */
+    private final FileChannel rawChannel;
+
+    /** Number of frames handed to the encoders */
+    private long frames;
+    /** First error of an encoder thread, null if none */
+    private volatile IOException failure;
+    /** Flag indicating that the exporter has been closed */
+    private boolean closed;
+
+    /**
+     * Constructor for an exporter. The encoder threads are started immediately.
+     * @param target Output directory (PNG, created if necessary) or file (RAW, overwritten)
+     * @param format Output format
+     * @param width Width of the frames
+     * @param height Height of the frames
+     * @param threads Number of encoder threads for PNG (RAW always uses one)
+     * @throws IOException if the output cannot be created
+     */
+    public FrameExporter(Path target, Format format, int width, int height, int threads)
+        throws IOException {
+        this.target = target;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+
+        final int n = ( format == Format.RAW ) ? 1 : Math.max(1, threads);
+        if ( format == Format.RAW ) {
+            rawChannel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                          StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        else {
+            Files.createDirectories(target);
+            rawChannel = null;
+        }
+
+        final int images = n * IMAGES_PER_THREAD;
+        free = new ArrayBlockingQueue<>(images);
+        pending = new ArrayBlockingQueue<>(images + n);
+        for ( int k = 0; k < images; k++ ) {
+            free.add(new Frame(width, height));
+        }
+
+        encoders = new Thread[n];
+        for ( int k = 0; k < n; k++ ) {
+            encoders[k] = new Thread(this::encode, "frame-encoder-" + k);
+            encoders[k].setDaemon(true);
+            encoders[k].start();
+        }
+    }
+
+    /** Return the width of the frames */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Return the height of the frames */
+    public int getHeight() {
+        return height;
+    }
+
+    /** Return the number of frames exported so far */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Draw the latest published state of a ball court into a pooled
+     * image and hand it to the encoders. Waits if all images are in use.
+     * @param bc The ball court view to be drawn
+     * @throws IOException if an encoder has failed
+     * @throws InterruptedException if interrupted while waiting for an image
+     */
+    public void export(BallCourt bc) throws IOException, InterruptedException {
+        if ( closed ) {
+            throw new IllegalStateException("Exporter has been closed");
+        }
+        checkFailure();
+        Frame f = free.take();
+        f.g.setColor(Color.WHITE);
+        f.g.fillRect(0, 0, width, height);
+        f.g.setColor(Color.BLACK);
+        bc.draw(f.g);
+        f.number = frames++;
+        pending.put(f);
+    }
+
+    /**
+     * Throw the first error of an encoder thread, if any
+     */
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if ( e != null ) {
+            throw new IOException("Frame export failed", e);
+        }
+    }
+
+    /**
+     * Body of an encoder thread: write drawn images until the END sentinel
+     */
+    private void encode() {
+        ImageWriter pngWriter = null;
+        ByteBuffer rgb = null;
+        if ( format == Format.PNG ) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+            pngWriter = writers.hasNext() ? writers.next() : null;
+        }
+        else {
+            rgb = ByteBuffer.allocateDirect(width * height * 3);
+        }
+
+        try {
+            while ( true ) {
+                Frame f = pending.take();
+                if ( f == END ) break;
+                try {
+                    if ( failure == null ) {
+                        if ( format == Format.PNG ) {
+                            writePng(pngWriter, f);
+                        }
+                        else {
+                            writeRaw(rgb, f);
+                        }
+                    }
+                }
+                catch(IOException | RuntimeException ex) {
+                    if ( failure == null ) {
+                        failure = ( ex instanceof IOException ) ? (IOException)ex : new IOException(ex);
+                    }
+                }
+                finally {
+                    free.put(f);
+                }
+            }
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            if ( pngWriter != null ) {
+                pngWriter.dispose();
+            }
+        }
+    }
+
+    /**
+     * Write a frame as a PNG file named frame_NNNNNN.png
+     * @param writer PNG writer of the encoder thread
+     * @param f The frame
+     */
+    private void writePng(ImageWriter writer, Frame f) throws IOException {
+        if ( writer == null ) {
+            throw new IOException("No PNG writer available");
+        }
+        File file = target.resolve(String.format("frame_%06d.png", f.number)).toFile();
+        file.delete();
+        try ( FileImageOutputStream out = new FileImageOutputStream(file) ) {
+            writer.setOutput(out);
+            writer.write(f.image);
+        }
+        finally {
+            writer.reset();
+        }
+    }
+
+    /**
+     * Append a frame to the raw RGB file
+     * @param rgb Buffer of the encoder thread holding one frame
+     * @param f The frame
+     */
+    private void writeRaw(ByteBuffer rgb, Frame f) throws IOException {
+        rgb.clear();
+        final int[] pixels = f.pixels;
+        for ( int i = 0; i < pixels.length; i++ ) {
+            int p = pixels[i];
+            rgb.put((byte)(p >> 16));
+            rgb.put((byte)(p >> 8));
+            rgb.put((byte)p);
+        }
+        rgb.flip();
+        while ( rgb.hasRemaining() ) {
+            rawChannel.write(rgb);
+        }
+    }
+
+    /**
+     * Wait until all frames have been written, then stop the encoder
+     * threads and close the output
+     * @throws IOException if an encoder has failed or the output cannot be closed
+     */
+    public void close() throws IOException {
+        if ( closed ) return;
+        closed = true;
+        try {
+            for ( int k = 0; k < encoders.length; k++ ) {
+                pending.put(END);
+            }
+            for ( Thread t : encoders ) {
+                t.join();
+            }
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for ( Frame f : free ) {
+                f.g.dispose();
+            }
+            if ( rawChannel != null ) {
+                rawChannel.close();
+            }
+        }
+        checkFailure();
+    }
+}
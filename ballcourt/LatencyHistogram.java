@@ -0,0 +1,138 @@
+package ballcourt;
+
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two is
+ * split into 16 buckets, so percentiles are accurate to about 6%
+ * over the whole range from nanoseconds to minutes. Recording a value
+ * increments one counter atomically; it neither locks nor allocates,
+ * so many threads can record into the same histogram.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+public final class LatencyHistogram
+{
+
+    /** Number of bits selecting the bucket within a power of two */
+    private static final int SUB_BITS = 4;
+    /** Number of buckets per power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Largest power of two counted in its own buckets (2^40 ns, about 18 minutes) */
+    private static final int MAX_EXPONENT = 40;
+    /** Number of buckets */
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    /** Counters of the buckets */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /** Number of recorded values */
+    private final AtomicLong count = new AtomicLong();
+    /** Sum of the recorded values */
+    private final AtomicLong total = new AtomicLong();
+    /** Largest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a duration
+     * @param nanos Duration in nanoseconds; negative values are counted as 0
+     */
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(v));
+        count.incrementAndGet();
+        total.addAndGet(v);
+        long m = max.get();
+        while ( v > m && !max.compareAndSet(m, v) ) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Record the time elapsed since a start time
+     * @param startNanos Start time (System.nanoTime)
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Compute the bucket of a value
+     * @param v Non-negative value
+     * @return Index of the bucket
+     */
+    private static int bucket(long v) {
+        if ( v < SUB_BUCKETS ) return (int)v;
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        if ( exponent > MAX_EXPONENT ) return BUCKETS - 1;
+        int sub = (int)(v >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Compute the value represented by a bucket (the middle of its range)
+     * @param index Index of the bucket
+     * @return The value
+     */
+    private static long value(int index) {
+        if ( index < SUB_BUCKETS ) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long low = (long)(SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        return low + (1L << (exponent - SUB_BITS)) / 2;
+    }
+
+    /** Return the number of recorded values */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Return the mean of the recorded values in nanoseconds */
+    public long getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : total.get() / c;
+    }
+
+    /** Return the largest recorded value in nanoseconds */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Compute a percentile of the recorded values. Values recorded
+     * concurrently may or may not be taken into account.
+     * @param percent Percentile in 0..100, e.g. 99.9
+     * @return The percentile in nanoseconds, 0 if nothing has been recorded
+     */
+    public long getPercentile(double percent) {
+        long c = count.get();
+        if ( c == 0 ) return 0;
+        long rank = Math.max(1, (long)Math.ceil(c * percent / 100.0));
+        long seen = 0;
+        for ( int k = 0; k < BUCKETS; k++ ) {
+            seen += counts.get(k);
+            if ( seen >= rank ) {
+                return Math.min(value(k), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Remove all recorded values. Values recorded concurrently may be lost.
+     */
+    public void reset() {
+        for ( int k = 0; k < BUCKETS; k++ ) {
+            counts.set(k, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,393 @@
+package ballcourt;
+
+
+/**
+ * Converter for ball court files written by earlier versions of the
+ * BouncingBall GUI, which serialized the whole BallCourtFrame (a Swing
+ * JFrame) with an ObjectOutputStream.
+ * <p>
+ * Such files cannot be read with an ObjectInputStream any more, since
+ * the serialized Swing classes change between JDK versions. Instead,
+ * the serialization stream is parsed here according to the grammar
+ * of the Java Object Serialization Specification, without instantiating
+ * any of the serialized classes. Only the field values of the old
+ * classes ballcourt.BallCourt, ballcourt.Ball and ballcourt.Player are
+ * kept and used to rebuild an equivalent Court.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public final class LegacyFrameReader
+{
+
+    /** Stream magic number of Java serialization streams */
+    public static final short STREAM_MAGIC = (short)0xACED;
+
+    // Type codes of the serialization stream grammar
+    private static final byte TC_NULL = 0x70;
+    private static final byte TC_REFERENCE = 0x71;
+    private static final byte TC_CLASSDESC = 0x72;
+    private static final byte TC_OBJECT = 0x73;
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_ARRAY = 0x75;
+    private static final byte TC_CLASS = 0x76;
+    private static final byte TC_BLOCKDATA = 0x77;
+    private static final byte TC_ENDBLOCKDATA = 0x78;
+    private static final byte TC_RESET = 0x79;
+    private static final byte TC_BLOCKDATALONG = 0x7A;
+    private static final byte TC_EXCEPTION = 0x7B;
+    private static final byte TC_LONGSTRING = 0x7C;
+    private static final byte TC_PROXYCLASSDESC = 0x7D;
+    private static final byte TC_ENUM = 0x7E;
+
+    /** First handle assigned to objects in the stream */
+    private static final int BASE_WIRE_HANDLE = 0x7E0000;
+
+    // Class descriptor flags
+    private static final byte SC_WRITE_METHOD = 0x01;
+    private static final byte SC_SERIALIZABLE = 0x02;
+    private static final byte SC_EXTERNALIZABLE = 0x04;
+    private static final byte SC_BLOCK_DATA = 0x08;
+
+    /** Marker returned by readContent for TC_ENDBLOCKDATA */
+    private static final Object END_BLOCK = new Object();
+
+    /** Class descriptor read from the stream */
+    private static class ClassDesc {
+        String name;
+        byte flags;
+        char[] fieldTypes = new char[0];
+        String[] fieldNames = new String[0];
+        ClassDesc superDesc;
+    }
+
+    /** Object read from the stream: field values per declaring class */
+    private static class StreamObject {
+        ClassDesc desc;
+        Map<String, Map<String, Object>> fields = new HashMap<>();
+
+        /**
+         * Return the value of a field declared by the given class
+         * @param className Fully qualified name of the declaring class
+         * @param field Name of the field
+         */
+        Object get(String className, String field) {
+            Map<String, Object> f = fields.get(className);
+            return f == null ? null : f.get(field);
+        }
+    }
+
+    /** The stream parsed */
+    private final DataInputStream in;
+
+    /** Objects, strings and descriptors in the order of their handles */
+    private final List<Object> handles = new ArrayList<>();
+
+    /** All objects read from the stream in order of appearance */
+    private final List<StreamObject> objects = new ArrayList<>();
+
+    /**
+     * Constructor for a reader of one stream
+     * @param in The serialization stream
+     */
+    private LegacyFrameReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /**
+     * Check whether a file has been written by an ObjectOutputStream
+     * @param file The file
+     * @return true iff the file starts with the serialization stream magic number
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isLegacyFile(Path file) throws IOException {
+        try ( InputStream is = Files.newInputStream(file) ) {
+            int b0 = is.read();
+            int b1 = is.read();
+            return b0 == 0xAC && b1 == 0xED;
+        }
+    }
+
+    /**
+     * Read a serialized BallCourtFrame file and rebuild its court
+     * @param file The serialization file
+     * @return Court with the dimensions, ball and player of the serialized court
+     * @throws IOException if the file cannot be parsed or contains no ball court
+     */
+    public static Court readCourt(Path file) throws IOException {
+        try ( InputStream is = Files.newInputStream(file) ) {
+            LegacyFrameReader reader = new LegacyFrameReader(is);
+            reader.parse();
+            return reader.toCourt();
+        }
+    }
+
+    /**
+     * Convert a serialized BallCourtFrame file into a snapshot file
+     * @param legacyFile The serialization file
+     * @param snapshotFile The snapshot file to be written
+     * @throws IOException if the conversion fails
+     */
+    public static void convert(Path legacyFile, Path snapshotFile) throws IOException {
+        CourtSnapshot.save(readCourt(legacyFile), snapshotFile);
+    }
+
+    /** Parse the whole stream */
+    private void parse() throws IOException {
+        if ( in.readShort() != STREAM_MAGIC ) {
+            throw new IOException("Not a Java serialization stream");
+        }
+        in.readShort(); // stream version
+        while ( true ) {
+            int tc = in.read();
+            if ( tc < 0 ) break;
+            readContent((byte)tc);
+        }
+    }
+
+    /**
+     * Rebuild a court from the parsed objects of the old ballcourt classes
+     */
+    private Court toCourt() throws IOException {
+        StreamObject bc = null;
+        for ( StreamObject o : objects ) {
+            if ( o.fields.containsKey("ballcourt.BallCourt") ) {
+                bc = o;
+                break;
+            }
+        }
+        if ( bc == null ) {
+            throw new IOException("No ball court found in serialized file");
+        }
+        final String bcClass = "ballcourt.BallCourt";
+        Court court = new Court(intField(bc, bcClass, "RECT_WIDTH"), intField(bc, bcClass, "RECT_HEIGHT"));
+
+        Object ball = bc.get(bcClass, "ball");
+        if ( ball instanceof StreamObject ) {
+            StreamObject b = (StreamObject)ball;
+            final String bClass = "ballcourt.Ball";
+            Ball handle = new Ball(court, intField(b, bClass, "x"), intField(b, bClass, "y"));
+            court.restoreBall(handle.getIndex(),
+                              intField(b, bClass, "x"), intField(b, bClass, "y"),
+                              intField(b, bClass, "dx"), intField(b, bClass, "dy"),
+                              Boolean.TRUE.equals(b.get(bClass, "previousHit")));
+            court.addBall(handle);
+        }
+
+        Object player = bc.get(bcClass, "player");
+        if ( player instanceof StreamObject ) {
+            StreamObject p = (StreamObject)player;
+            final String pClass = "ballcourt.Player";
+            Player pl = new Player(court, intField(p, pClass, "x"), intField(p, pClass, "y"),
+                                   intField(p, pClass, "maxVelY"));
+            pl.restore(intField(p, pClass, "y"), intField(p, pClass, "dy"), intField(p, pClass, "score"));
+            court.addPlayer(pl);
+        }
+        return court;
+    }
+
+    /**
+     * Return an int field of an old ballcourt object
+     */
+    private static int intField(StreamObject o, String className, String field) throws IOException {
+        Object v = o.get(className, field);
+        if ( !(v instanceof Integer) ) {
+            throw new IOException("Field " + className + "." + field + " missing in serialized file");
+        }
+        return (Integer)v;
+    }
+
+    /**
+     * Read one content element of the stream
+     * @param tc Type code of the element, already read
+     * @return The element, null for TC_NULL or END_BLOCK for TC_ENDBLOCKDATA
+     */
+    private Object readContent(byte tc) throws IOException {
+        switch ( tc ) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE:
+                return handles.get(in.readInt() - BASE_WIRE_HANDLE);
+            case TC_CLASSDESC:
+                return readClassDesc();
+            case TC_PROXYCLASSDESC:
+                return readProxyClassDesc();
+            case TC_OBJECT:
+                return readObject();
+            case TC_STRING: {
+                String s = in.readUTF();
+                handles.add(s);
+                return s;
+            }
+            case TC_LONGSTRING: {
+                long len = in.readLong();
+                byte[] b = new byte[(int)len];
+                in.readFully(b);
+                String s = new String(b, StandardCharsets.UTF_8);
+                handles.add(s);
+                return s;
+            }
+            case TC_ARRAY:
+                return readArray();
+            case TC_CLASS: {
+                Object desc = readContent(in.readByte());
+                handles.add(desc);
+                return desc;
+            }
+            case TC_ENUM: {
+                readContent(in.readByte()); // enum class descriptor
+                int handle = handles.size();
+                handles.add(null);
+                Object constant = readContent(in.readByte());
+                handles.set(handle, constant);
+                return constant;
+            }
+            case TC_BLOCKDATA:
+                in.skipNBytes(in.readUnsignedByte());
+                return readContent(in.readByte());
+            case TC_BLOCKDATALONG:
+                in.skipNBytes(in.readInt() & 0xFFFFFFFFL);
+                return readContent(in.readByte());
+            case TC_RESET:
+                handles.clear();
+                return readContent(in.readByte());
+            case TC_ENDBLOCKDATA:
+                return END_BLOCK;
+            case TC_EXCEPTION:
+                throw new IOException("Serialized file contains a write exception");
+            default:
+                throw new IOException(String.format("Unexpected type code 0x%02x", tc));
+        }
+    }
+
+    /** Read a class descriptor (after TC_CLASSDESC) */
+    private ClassDesc readClassDesc() throws IOException {
+        ClassDesc desc = new ClassDesc();
+        desc.name = in.readUTF();
+        in.readLong(); // serialVersionUID
+        handles.add(desc);
+        desc.flags = in.readByte();
+        int n = in.readShort();
+        desc.fieldTypes = new char[n];
+        desc.fieldNames = new String[n];
+        for ( int k = 0; k < n; k++ ) {
+            desc.fieldTypes[k] = (char)in.readByte();
+            desc.fieldNames[k] = in.readUTF();
+            if ( desc.fieldTypes[k] == 'L' || desc.fieldTypes[k] == '[' ) {
+                readContent(in.readByte()); // field type name
+            }
+        }
+        skipAnnotation();
+        desc.superDesc = (ClassDesc)readContent(in.readByte());
+        return desc;
+    }
+
+    /** Read a proxy class descriptor (after TC_PROXYCLASSDESC) */
+    private ClassDesc readProxyClassDesc() throws IOException {
+        ClassDesc desc = new ClassDesc();
+        desc.name = "$Proxy";
+        desc.flags = SC_SERIALIZABLE;
+        handles.add(desc);
+        int n = in.readInt();
+        for ( int k = 0; k < n; k++ ) {
+            in.readUTF();
+        }
+        skipAnnotation();
+        desc.superDesc = (ClassDesc)readContent(in.readByte());
+        return desc;
+    }
+
+    /** Skip contents up to and including the next TC_ENDBLOCKDATA */
+    private void skipAnnotation() throws IOException {
+        Object content;
+        do {
+            content = readContent(in.readByte());
+        } while ( content != END_BLOCK );
+    }
+
+    /** Read an object (after TC_OBJECT) */
+    private StreamObject readObject() throws IOException {
+        StreamObject o = new StreamObject();
+        o.desc = (ClassDesc)readContent(in.readByte());
+        handles.add(o);
+        objects.add(o);
+
+        // Class data is written from the topmost serializable superclass down
+        List<ClassDesc> hierarchy = new ArrayList<>();
+        for ( ClassDesc d = o.desc; d != null; d = d.superDesc ) {
+            hierarchy.add(0, d);
+        }
+        for ( ClassDesc d : hierarchy ) {
+            if ( (d.flags & SC_EXTERNALIZABLE) != 0 ) {
+                if ( (d.flags & SC_BLOCK_DATA) == 0 ) {
+                    throw new IOException("Cannot parse externalizable class " + d.name);
+                }
+                skipAnnotation();
+            }
+            else if ( (d.flags & SC_SERIALIZABLE) != 0 ) {
+                Map<String, Object> values = new HashMap<>();
+                for ( int k = 0; k < d.fieldTypes.length; k++ ) {
+                    values.put(d.fieldNames[k], readValue(d.fieldTypes[k]));
+                }
+                o.fields.put(d.name, values);
+                if ( (d.flags & SC_WRITE_METHOD) != 0 ) {
+                    skipAnnotation();
+                }
+            }
+        }
+        return o;
+    }
+
+    /** Read an array (after TC_ARRAY) */
+    private Object readArray() throws IOException {
+        ClassDesc desc = (ClassDesc)readContent(in.readByte());
+        handles.add(desc);
+        int size = in.readInt();
+        char type = desc.name.charAt(1);
+        for ( int k = 0; k < size; k++ ) {
+            readValue(type);
+        }
+        return desc;
+    }
+
+    /**
+     * Read a field or array element value
+     * @param type Type code of the field, e.g. 'I' or 'L'
+     */
+    private Object readValue(char type) throws IOException {
+        switch ( type ) {
+            case 'B': return in.readByte();
+            case 'C': return in.readChar();
+            case 'D': return in.readDouble();
+            case 'F': return in.readFloat();
+            case 'I': return in.readInt();
+            case 'J': return in.readLong();
+            case 'S': return in.readShort();
+            case 'Z': return in.readBoolean();
+            case 'L':
+            case '[': {
+                Object v = readContent(in.readByte());
+                if ( v == END_BLOCK ) {
+                    throw new IOException("Unexpected end of block data");
+                }
+                return v;
+            }
+            default:
+                throw new IOException("Unknown field type " + type);
+        }
+    }
+}
@@ -3,13 +3,18 @@ package ballcourt;
 /**
  * Class representing a player in a ball court.
  * A player is graphically represented in a ball court 
- * by a rectangle. Players only move in y-direction, never in x-direction
+ * by a rectangle (see class BallCourt). Players only move in y-direction, never in x-direction
+ * <p>
+ * Each player tracks one ball of the court. Where and when the ball
+ * will cross the player's x-plane is predicted along its whole path,
+ * including reflections off the walls, and cached until the ball's
+ * bounce counter (see Court.getBallBounces) changes, so that a move
+ * costs constant time while the ball flies in a straight line.
  *
  * @author Jan Peleska 
  * @version 2020-01-25
  */
 
-import java.awt.*;
 import java.io.Serializable;
 import java.io.ObjectOutputStream;
 import java.io.ObjectInputStream;
@@ -18,9 +23,9 @@ public class Player implements Serializable
 {
 
     /** Height of the player rectangle */
-    public final int HEIGHT = 40;
+    public static final int HEIGHT = 40;
     /** Width of the player reactangle */
-    public final int WIDTH = 6;
+    public static final int WIDTH = 6;
 
     /** Position vector (x-coordinate of upper left courner of the box) */
     private int x;
@@ -35,20 +40,38 @@ public class Player implements Serializable
     /** Maximal speed in y-direction */
     private int maxVelY;
 
-    /** The BallCourt the player is in */
-    private BallCourt bc;
+    /** The court the player is in */
+    private Court bc;
 
     /** Score: How many times did the player hit the ball? */
     private int score;
 
+    /** Index of the ball tracked by the player */
+    private int target;
+
+    /** Number of ticks simulated since the player was created or restored */
+    private transient long ticks;
+    /** Flag indicating that the cached prediction is valid for predictedBall */
+    private transient boolean predicted;
+    /** Index of the ball the cached prediction belongs to */
+    private transient int predictedBall;
+    /** Bounce counter of the ball when the prediction was made */
+    private transient int predictedBounces;
+    /** Flag indicating that the ball will cross the player's x-plane */
+    private transient boolean intercepting;
+    /** Predicted y-coordinate of the ball centre when crossing the x-plane */
+    private transient int interceptY;
+    /** Tick (see field ticks) at which the ball crosses the x-plane */
+    private transient long interceptTick;
+
     /**
      * Constructor for a player
-     * @param bc reference to the ball court the player is in
+     * @param bc reference to the court the player is in
      * @param xStart Position vector (x-coordinate of upper left courner of the box)
      * @param yStart Position vector (y-coordinate of upper left courner of the box)
      * @param maxVelY Maximal speed in y-direction
      */
-    public Player(BallCourt bc, int xStart, int yStart, int maxVelY) {
+    public Player(Court bc, int xStart, int yStart, int maxVelY) {
         x = xStart;
         y = yStart;
         this.bc = bc;
@@ -67,6 +90,47 @@ public class Player implements Serializable
         return y;      
     }
 
+    /** Return y-coordinate of the player's speed vector */
+    public int getVelY() {
+        return dy;
+    }
+
+    /** Return the maximal speed of the player in y-direction */
+    public int getMaxVelY() {
+        return maxVelY;
+    }
+
+    /** Return the index of the ball tracked by the player */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Set the ball tracked by the player. If the court has no ball with
+     * this index, the player stands still.
+     * @param ballIndex Index of the ball in the court, 0 for the first ball
+     */
+    public void setTarget(int ballIndex) {
+        if ( ballIndex < 0 ) {
+            throw new IllegalArgumentException("Ball index " + ballIndex);
+        }
+        target = ballIndex;
+        predicted = false;
+    }
+
+    /**
+     * Restore the dynamic state of the player, e.g. from a snapshot
+     * @param y Position vector (y-coordinate of upper left courner of the box)
+     * @param dy Velocity vector - y coordinate
+     * @param score Score of the player
+     */
+    void restore(int y, int dy, int score) {
+        this.y = y;
+        this.dy = dy;
+        this.score = score;
+        predicted = false;
+    }
+
     /** 
      * Return the score from the player for display 
      * This method is called by the associated ball court 
@@ -90,8 +154,8 @@ public class Player implements Serializable
     public void move() {
 
         // Where are we now according to the last position and velocity?
-        // (x remains unchanged)
-        y = y + dy;
+        // (x remains unchanged, the court may simulate several ticks per step)
+        y = y + dy * bc.getTimeStep();
 
         // Respect the boundaries of the ball court
         if ( y < 0 ) {
@@ -99,57 +163,96 @@ public class Player implements Serializable
             dy = -dy;
         }
 
-        if ( y + HEIGHT > bc.RECT_HEIGHT ) {
-            y = y - (y + HEIGHT - bc.RECT_HEIGHT);
+        if ( y + HEIGHT > bc.getHeight() ) {
+            y = y - (y + HEIGHT - bc.getHeight());
             dy = -dy;
         }
 
-        // Get reference to ball from the vall court
-        Ball b = bc.getBall();
+        ticks += bc.getTimeStep();
 
         // Transform my position to centre coordinates
         int px = x + (WIDTH >> 1);
         int py = y + (HEIGHT >> 1);
 
-        // Get upper left courner of ball position, transform to centre coordinates
-        int bx = b.getPosX() + (b.BALL_DIAM >> 1);
-        int by = b.getPosY() + (b.BALL_DIAM >> 1);
-
-        // Get ball speed vector
-        int bvx = b.getVelX();
-        int bvy = b.getVelY();
-
-        // Calculate a speed vector along the y-axis where we
-        // can meet the ball - if this vector exists
         dx = 0;
         dy = 0;
 
-        // If bvx = 0, the player cannot influence whether it
-        // can hit the ball or not, sinc the player
-        // cannot move in x-direction. Therefore,
-        // the player just stops in his/her tracks
-        if ( bvx == 0 ) return;
+        // Without a ball to track the player stands still
+        if ( target >= bc.getBallCount() ) return;
 
-        int t = (px - bx)/bvx;
+        // Predict the ball's path again only if it has bounced
+        int bounces = bc.getBallBounces(target);
+        if ( !predicted || predictedBall != target || predictedBounces != bounces ) {
+            predict(px);
+            predicted = true;
+            predictedBall = target;
+            predictedBounces = bounces;
+        }
 
-        // If t <= 0 we cannot reach the ball, or the ball is 
-        // already where we are. The player doesn't move in this situation
-        if ( t <= 0 ) return;
+        // If the ball does not cross our x-plane, or should already
+        // have crossed it, we cannot influence whether we hit the ball.
+        // The player doesn't move in this situation
+        long t = interceptTick - ticks;
+        if ( !intercepting || t <= 0 ) return;
 
         // Now we can calculate the required dy for the player to reach the ball
-        dy = ((by - py)*bvx + (px - bx)*bvy)/(px - bx);
+        dy = (int)((interceptY - py) / t);
 
         if ( Math.abs(dy) > maxVelY ) dy = Integer.signum(dy) * maxVelY/2;
 
     }
-    
+
     /**
-     * Re-draw the player in its updated position.
-     * @param g Graphics object provided by the caller 
+     * Predict where and when the tracked ball crosses the x-plane of the
+     * player, following its path with constant velocity and reflecting
+     * it off the walls of the court. The result is stored in the fields
+     * intercepting, interceptY and interceptTick.
+     * @param px x-coordinate of the player's centre
      */
-    public void draw(Graphics g) {
-        g.setColor(Color.RED);
-        g.fillRect(x+bc.RECT_X,y+bc.RECT_Y,WIDTH,HEIGHT);
+    private void predict(int px) {
+        final int r = Ball.BALL_DIAM >> 1;
+
+        // Get upper left courner of ball position, transform to centre coordinates
+        int bx = bc.getBallPosX(target) + r;
+        int by = bc.getBallPosY(target) + r;
+
+        // Get ball speed vector
+        int bvx = bc.getBallVelX(target);
+        int bvy = bc.getBallVelY(target);
+
+        // If bvx = 0, the ball never crosses our x-plane
+        intercepting = bvx != 0;
+        if ( !intercepting ) return;
+
+        // Range of the ball centre inside the walls
+        final int minX = r;
+        final int maxX = Math.max(minX, bc.getWidth() - Ball.BALL_DIAM + r);
+        final int minY = r;
+        final int maxY = Math.max(minY, bc.getHeight() - Ball.BALL_DIAM + r);
+
+        // Distance in x-direction to our x-plane: straight on if the
+        // ball flies towards us, otherwise via the wall behind the ball
+        long distX;
+        if ( (long)(px - bx) * bvx > 0 ) {
+            distX = Math.abs(px - bx);
+        }
+        else if ( bvx > 0 ) {
+            distX = (maxX - bx) + (maxX - px);
+        }
+        else {
+            distX = (bx - minX) + (px - minX);
+        }
+        final double t = Math.max(0, distX) / (double)Math.abs(bvx);
+
+        // Unfold the path in y-direction, then fold it back between the walls
+        final long span = maxY - minY;
+        int yAt = minY;
+        if ( span > 0 ) {
+            long m = Math.floorMod(Math.round(by - minY + bvy * t), 2 * span);
+            yAt = (int)(minY + ( m <= span ? m : 2 * span - m ));
+        }
+        interceptY = yAt;
+        interceptTick = ticks + Math.max(1, (long)t);
     }
 
 }
@@ -0,0 +1,325 @@
+package ballcourt;
+
+
+/**
+ * Append-only log of the per-tick state of a court, stored in a
+ * memory-mapped file.
+ * <p>
+ * The file starts with a header describing the court, followed by one
+ * fixed-size record per tick:
+ * <pre>
+ *   n x int ball x, n x int ball y, n x int ball dx, n x int ball dy
+ *   p times int player y, player dy, player score
+ * </pre>
+ * The file is mapped in chunks holding a whole number of records.
+ * Recording a tick only copies the court arrays into the mapped chunk,
+ * so it does not allocate; a new chunk is mapped when the current one
+ * is full. A log opened for replay restores the recorded ticks into a
+ * court, which can then be painted without being simulated.
+ * <p>
+ * Recording, loading and closing are synchronized, so that a log can be
+ * closed by the GUI while the simulation thread is using it; calls after
+ * close are ignored.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+public final class ReplayLog implements Closeable
+{
+
+    /** Magic number at the start of every replay log: 'BCRL' */
+    public static final int MAGIC = 0x4243524C;
+
+    /** Current version of the replay log format */
+    public static final short VERSION = 1;
+
+    /** Size of the fixed part of the header in bytes */
+    private static final int FIXED_HEADER_SIZE = 40;
+
+    /** Offset of the tick count in the header */
+    private static final int TICK_COUNT_OFFSET = 24;
+
+    /** Target size of a mapped chunk in bytes */
+    private static final int CHUNK_BYTES = 16 << 20;
+
+    /** Number of ints per player in a record */
+    private static final int PLAYER_INTS = 3;
+
+    /** The log file */
+    private final FileChannel channel;
+    /** True iff the log has been opened for recording */
+    private final boolean writable;
+    /** Mapped header, used to publish the tick count */
+    private final MappedByteBuffer header;
+
+    /** Width of the recorded court */
+    private final int width;
+    /** Height of the recorded court */
+    private final int height;
+    /** Number of balls in every record */
+    private final int ballCount;
+    /** x-positions of the recorded players */
+    private final int[] playerX;
+    /** Maximal speeds of the recorded players */
+    private final int[] playerMaxVelY;
+    /** Size of the header in bytes (records start here) */
+    private final int headerSize;
+    /** Size of a record in ints */
+    private final int recordInts;
+    /** Number of records per mapped chunk */
+    private final int chunkRecords;
+
+    /** Number of ticks in the log */
+    private long tickCount;
+    /** Index of the currently mapped chunk, -1 if none */
+    private long chunkIndex = -1;
+    /** Int view of the currently mapped chunk */
+    private IntBuffer chunk;
+    /** Flag indicating that the log has been closed */
+    private boolean closed;
+
+    /**
+     * Constructor used by create and open
+     */
+    private ReplayLog(FileChannel channel, boolean writable, MappedByteBuffer header,
+                      int width, int height, int ballCount, int[] playerX, int[] playerMaxVelY,
+                      long tickCount) {
+        this.channel = channel;
+        this.writable = writable;
+        this.header = header;
+        this.width = width;
+        this.height = height;
+        this.ballCount = ballCount;
+        this.playerX = playerX;
+        this.playerMaxVelY = playerMaxVelY;
+        this.tickCount = tickCount;
+        headerSize = headerSize(playerX.length);
+        recordInts = 4*ballCount + PLAYER_INTS*playerX.length;
+        chunkRecords = Math.max(1, CHUNK_BYTES / Math.max(1, 4*recordInts));
+    }
+
+    /**
+     * Size of the header for a given number of players
+     * @param players Number of players
+     * @return Header size in bytes
+     */
+    private static int headerSize(int players) {
+        return FIXED_HEADER_SIZE + 8*players;
+    }
+
+    /**
+     * Create a new log for recording the given court. The number of
+     * balls and players of the court must not change while recording.
+     * @param file Log file, overwritten if it exists
+     * @param court The court to be recorded
+     * @return The log, ready for method record
+     * @throws IOException if the file cannot be created
+     */
+    public static ReplayLog create(Path file, Court court) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        final int p = court.getPlayerCount();
+        int[] px = new int[p];
+        int[] pv = new int[p];
+        MappedByteBuffer h = ch.map(FileChannel.MapMode.READ_WRITE, 0, headerSize(p));
+        h.putInt(MAGIC);
+        h.putShort(VERSION);
+        h.putShort((short)0);
+        h.putInt(court.getWidth());
+        h.putInt(court.getHeight());
+        h.putInt(court.getBallCount());
+        h.putInt(p);
+        h.putLong(0L);          // tick count
+        h.putLong(0L);          // reserved
+        for ( int k = 0; k < p; k++ ) {
+            px[k] = court.getPlayer(k).getPosX();
+            pv[k] = court.getPlayer(k).getMaxVelY();
+            h.putInt(px[k]);
+            h.putInt(pv[k]);
+        }
+        return new ReplayLog(ch, true, h, court.getWidth(), court.getHeight(),
+                             court.getBallCount(), px, pv, 0L);
+    }
+
+    /**
+     * Open an existing log for replay
+     * @param file Log file
+     * @return The log, ready for methods createCourt and load
+     * @throws IOException if the file cannot be read or is not a replay log
+     */
+    public static ReplayLog open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if ( ch.size() < FIXED_HEADER_SIZE ) {
+                throw new IOException("Not a replay log");
+            }
+            ByteBuffer fixed = ch.map(FileChannel.MapMode.READ_ONLY, 0, FIXED_HEADER_SIZE);
+            if ( fixed.getInt() != MAGIC ) {
+                throw new IOException("Not a replay log");
+            }
+            short version = fixed.getShort();
+            if ( version != VERSION ) {
+                throw new IOException("Unsupported replay log version " + version);
+            }
+            fixed.getShort();
+            int width = fixed.getInt();
+            int height = fixed.getInt();
+            int balls = fixed.getInt();
+            int p = fixed.getInt();
+            long ticks = fixed.getLong();
+            if ( balls < 0 || p < 0 || ch.size() < headerSize(p) ) {
+                throw new IOException("Corrupt replay log header");
+            }
+            MappedByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0, headerSize(p));
+            int[] px = new int[p];
+            int[] pv = new int[p];
+            for ( int k = 0; k < p; k++ ) {
+                px[k] = h.getInt(FIXED_HEADER_SIZE + 8*k);
+                pv[k] = h.getInt(FIXED_HEADER_SIZE + 8*k + 4);
+            }
+            ReplayLog log = new ReplayLog(ch, false, h, width, height, balls, px, pv, ticks);
+            long available = (ch.size() - log.headerSize) / (4L*Math.max(1, log.recordInts));
+            log.tickCount = Math.min(ticks, available);
+            return log;
+        }
+        catch(IOException | RuntimeException ex) {
+            ch.close();
+            throw ex;
+        }
+    }
+
+    /** Return the number of ticks in the log */
+    public synchronized long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Append the current state of the court as the next tick.
+     * The court must have the numbers of balls and players it had when
+     * the log was created. Nothing is allocated, except when a new
+     * chunk of the file has to be mapped.
+     * @param court The recorded court
+     * @throws IOException if a new chunk of the file cannot be mapped
+     */
+    public synchronized void record(Court court) throws IOException {
+        if ( closed ) return;
+        if ( !writable ) {
+            throw new IllegalStateException("Replay log is not open for recording");
+        }
+        final int n = ballCount;
+        if ( court.getBallCount() != n || court.getPlayerCount() != playerX.length ) {
+            throw new IllegalStateException("Number of balls or players changed while recording");
+        }
+        final IntBuffer buf = chunkFor(tickCount);
+        int pos = (int)(tickCount % chunkRecords) * recordInts;
+        buf.put(pos, court.ballXArray(), 0, n);
+        buf.put(pos + n, court.ballYArray(), 0, n);
+        buf.put(pos + 2*n, court.ballDxArray(), 0, n);
+        buf.put(pos + 3*n, court.ballDyArray(), 0, n);
+        pos += 4*n;
+        for ( int k = 0; k < playerX.length; k++ ) {
+            Player p = court.getPlayer(k);
+            buf.put(pos++, p.getPosY());
+            buf.put(pos++, p.getVelY());
+            buf.put(pos++, p.getScore());
+        }
+        tickCount++;
+        header.putLong(TICK_COUNT_OFFSET, tickCount);
+    }
+
+    /**
+     * Create a court matching the recorded court, with the recorded
+     * numbers of balls and players. Use method load to set its state.
+     * @return The new court
+     */
+    public Court createCourt() {
+        Court court = new Court(width, height, 0L);
+        court.ensureCapacity(ballCount);
+        for ( int i = 0; i < ballCount; i++ ) {
+            court.allocateBall(0, 0);
+        }
+        if ( ballCount > 0 ) {
+            court.addBall(new Ball(court, 0));
+        }
+        for ( int k = 0; k < playerX.length; k++ ) {
+            court.addPlayer(new Player(court, playerX[k], 0, playerMaxVelY[k]));
+        }
+        return court;
+    }
+
+    /**
+     * Restore the state of a recorded tick into a court
+     * @param tick Number of the tick in 0..getTickCount()-1
+     * @param court Court created by method createCourt
+     * @throws IOException if the chunk of the file cannot be mapped
+     */
+    public synchronized void load(long tick, Court court) throws IOException {
+        if ( closed ) return;
+        if ( tick < 0 || tick >= tickCount ) {
+            throw new IndexOutOfBoundsException("Tick " + tick + " not in log");
+        }
+        final int n = ballCount;
+        final IntBuffer buf = chunkFor(tick);
+        int pos = (int)(tick % chunkRecords) * recordInts;
+        buf.get(pos, court.ballXArray(), 0, n);
+        buf.get(pos + n, court.ballYArray(), 0, n);
+        buf.get(pos + 2*n, court.ballDxArray(), 0, n);
+        buf.get(pos + 3*n, court.ballDyArray(), 0, n);
+        court.invalidatePaths();
+        pos += 4*n;
+        for ( int k = 0; k < playerX.length; k++ ) {
+            court.getPlayer(k).restore(buf.get(pos), buf.get(pos + 1), buf.get(pos + 2));
+            pos += PLAYER_INTS;
+        }
+    }
+
+    /**
+     * Return the int view of the chunk containing the given tick,
+     * mapping it if necessary
+     * @param tick Number of the tick
+     */
+    private IntBuffer chunkFor(long tick) throws IOException {
+        long index = tick / chunkRecords;
+        if ( index != chunkIndex ) {
+            long bytes = 4L * recordInts * chunkRecords;
+            long offset = headerSize + index * bytes;
+            if ( !writable ) {
+                bytes = Math.min(bytes, channel.size() - offset);
+            }
+            chunk = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                                offset, bytes).asIntBuffer();
+            chunkIndex = index;
+        }
+        return chunk;
+    }
+
+    /**
+     * Close the log. A recorded log is truncated to the recorded ticks.
+     * @throws IOException if the file cannot be truncated or closed
+     */
+    public synchronized void close() throws IOException {
+        if ( closed ) return;
+        closed = true;
+        try {
+            if ( writable ) {
+                header.force();
+                channel.truncate(headerSize + 4L * recordInts * tickCount);
+            }
+        }
+        finally {
+            chunk = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ballcourt;
+
+
+/**
+ * Distribution of player scores, e.g. of all players of a batch of
+ * courts (see class BatchRunner).
+ * <p>
+ * Scores are small non-negative integers, so they are counted exactly
+ * in a dense histogram with one counter per score. Statistics filled
+ * by different threads are combined with method merge; a single
+ * instance is not thread-safe.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.util.Arrays;
+
+
+public final class ScoreStatistics
+{
+
+    /** Number of players with each score, indexed by score */
+    private long[] counts = new long[64];
+    /** Number of recorded scores */
+    private long count;
+    /** Sum of the recorded scores */
+    private long total;
+    /** Sum of the squares of the recorded scores */
+    private double totalSquares;
+    /** Smallest recorded score */
+    private int min = Integer.MAX_VALUE;
+    /** Largest recorded score */
+    private int max = Integer.MIN_VALUE;
+
+    /**
+     * Record the score of a player
+     * @param score The score; negative scores are counted as 0
+     */
+    public void add(int score) {
+        final int s = Math.max(0, score);
+        if ( s >= counts.length ) {
+            counts = Arrays.copyOf(counts, Math.max(s + 1, counts.length << 1));
+        }
+        counts[s]++;
+        count++;
+        total += s;
+        totalSquares += (double)s * s;
+        min = Math.min(min, s);
+        max = Math.max(max, s);
+    }
+
+    /**
+     * Add the scores recorded by another instance
+     * @param other The other statistics, which is not changed
+     */
+    public void merge(ScoreStatistics other) {
+        if ( other.counts.length > counts.length ) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for ( int s = 0; s < other.counts.length; s++ ) {
+            counts[s] += other.counts[s];
+        }
+        count += other.count;
+        total += other.total;
+        totalSquares += other.totalSquares;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /** Return the number of recorded scores */
+    public long getCount() {
+        return count;
+    }
+
+    /** Return the mean of the recorded scores, 0 if there are none */
+    public double getMean() {
+        return count == 0 ? 0 : (double)total / count;
+    }
+
+    /** Return the standard deviation of the recorded scores, 0 if there are none */
+    public double getStandardDeviation() {
+        if ( count == 0 ) return 0;
+        double mean = getMean();
+        return Math.sqrt(Math.max(0, totalSquares / count - mean * mean));
+    }
+
+    /** Return the smallest recorded score, 0 if there are none */
+    public int getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /** Return the largest recorded score, 0 if there are none */
+    public int getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * Compute a percentile of the recorded scores
+     * @param percent Percentile in 0..100, e.g. 90
+     * @return The smallest score such that at least the given percentage
+     *         of the scores is not larger, 0 if nothing has been recorded
+     */
+    public int getPercentile(double percent) {
+        if ( count == 0 ) return 0;
+        long rank = Math.max(1, (long)Math.ceil(count * percent / 100.0));
+        long seen = 0;
+        for ( int s = 0; s < counts.length; s++ ) {
+            seen += counts[s];
+            if ( seen >= rank ) return s;
+        }
+        return max;
+    }
+}
@@ -0,0 +1,264 @@
+package ballcourt;
+
+
+/**
+ * Archive holding the courts of a whole session in a single compressed file.
+ * <p>
+ * The archive is a ZIP file. Its first entry "TOC" is the table of
+ * contents, followed by one compressed court snapshot (see class
+ * CourtSnapshot) per court, named "BC_n.bcs" after the ball court
+ * number n. The table of contents has the following layout (all values
+ * big-endian):
+ * <pre>
+ *   int     magic 'BCSA'
+ *   short   format version
+ *   short   0
+ *   int     number of courts c
+ *   c times int ball court number, court width, court height,
+ *           number of players, number of balls, snapshot size
+ * </pre>
+ * Opening an archive only reads the table of contents. A court is
+ * decompressed and decoded when it is loaded, so that opening a large
+ * session is fast and memory is only used for the courts loaded so far.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+
+public final class SessionArchive implements Closeable
+{
+
+    /** Magic number at the start of the table of contents: 'BCSA' */
+    public static final int MAGIC = 0x42435341;
+
+    /** Current version of the archive format */
+    public static final short VERSION = 1;
+
+    /** Name of the table of contents entry */
+    private static final String TOC_ENTRY = "TOC";
+
+    /** Number of ints per court in the table of contents */
+    private static final int TOC_INTS = 6;
+
+    /** The archive file */
+    private final ZipFile zip;
+    /** Ball court numbers of the courts, in archive order */
+    private final int[] numbers;
+    /** Table of contents: TOC_INTS ints per court, in archive order */
+    private final int[] toc;
+
+    /** Flag indicating that the archive has been closed */
+    private boolean closed;
+
+    /**
+     * Constructor used by open
+     */
+    private SessionArchive(ZipFile zip, int[] numbers, int[] toc) {
+        this.zip = zip;
+        this.numbers = numbers;
+        this.toc = toc;
+    }
+
+    /**
+     * Return the name of the entry holding a court
+     * @param bcNo Ball court number
+     */
+    private static String entryName(int bcNo) {
+        return "BC_" + bcNo + ".bcs";
+    }
+
+    /**
+     * Save the courts of a session into an archive. The file is replaced
+     * as a whole (see class AtomicFile).
+     * @param file Target file, overwritten if it exists
+     * @param bcNumbers Ball court numbers of the courts
+     * @param snapshots Snapshots of the courts (see CourtSnapshot.snapshot),
+     *        in the order of bcNumbers; their positions are not changed
+     * @throws IOException if the archive cannot be written
+     */
+    public static void save(Path file, int[] bcNumbers, ByteBuffer[] snapshots) throws IOException {
+        if ( bcNumbers.length != snapshots.length ) {
+            throw new IllegalArgumentException("One snapshot per ball court number expected");
+        }
+        AtomicFile.replace(file, tmp -> write(tmp, bcNumbers, snapshots));
+    }
+
+    /**
+     * Write an archive as described in the class comment
+     * @param file Target file, overwritten if it exists
+     * @param bcNumbers Ball court numbers of the courts
+     * @param snapshots Snapshots of the courts, in the order of bcNumbers
+     * @throws IOException if the archive cannot be written
+     */
+    private static void write(Path file, int[] bcNumbers, ByteBuffer[] snapshots) throws IOException {
+        try ( ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file))) ) {
+            out.putNextEntry(new ZipEntry(TOC_ENTRY));
+            DataOutputStream toc = new DataOutputStream(out);
+            toc.writeInt(MAGIC);
+            toc.writeShort(VERSION);
+            toc.writeShort(0);
+            toc.writeInt(bcNumbers.length);
+            for ( int k = 0; k < bcNumbers.length; k++ ) {
+                final ByteBuffer s = snapshots[k];
+                final int base = s.position();
+                final int players = s.getInt(base + CourtSnapshot.HEADER_SIZE - 4);
+                toc.writeInt(bcNumbers[k]);
+                toc.writeInt(s.getInt(base + 8));
+                toc.writeInt(s.getInt(base + 12));
+                toc.writeInt(players);
+                toc.writeInt(s.getInt(base + CourtSnapshot.HEADER_SIZE + players * CourtSnapshot.PLAYER_SIZE));
+                toc.writeInt(s.remaining());
+            }
+            toc.flush();
+            out.closeEntry();
+
+            WritableByteChannel ch = Channels.newChannel(out);
+            for ( int k = 0; k < bcNumbers.length; k++ ) {
+                out.putNextEntry(new ZipEntry(entryName(bcNumbers[k])));
+                ByteBuffer s = snapshots[k].duplicate();
+                while ( s.hasRemaining() ) {
+                    ch.write(s);
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Open an archive, reading only its table of contents
+     * @param file The archive file
+     * @return The archive
+     * @throws IOException if the file cannot be read or is not a session archive
+     */
+    public static SessionArchive open(Path file) throws IOException {
+        ZipFile zip = new ZipFile(file.toFile());
+        try {
+            ZipEntry e = zip.getEntry(TOC_ENTRY);
+            if ( e == null ) {
+                throw new IOException("Not a session archive");
+            }
+            try ( DataInputStream in = new DataInputStream(zip.getInputStream(e)) ) {
+                if ( in.readInt() != MAGIC ) {
+                    throw new IOException("Not a session archive");
+                }
+                short version = in.readShort();
+                if ( version != VERSION ) {
+                    throw new IOException("Unsupported session archive version " + version);
+                }
+                in.readShort();
+                int count = in.readInt();
+                if ( count < 0 || (long)count * TOC_INTS * 4 > e.getSize() ) {
+                    throw new IOException("Corrupt session archive: " + count + " courts");
+                }
+                int[] numbers = new int[count];
+                int[] toc = new int[count * TOC_INTS];
+                for ( int k = 0; k < count; k++ ) {
+                    for ( int f = 0; f < TOC_INTS; f++ ) {
+                        toc[k * TOC_INTS + f] = in.readInt();
+                    }
+                    numbers[k] = toc[k * TOC_INTS];
+                }
+                return new SessionArchive(zip, numbers, toc);
+            }
+        }
+        catch(IOException | RuntimeException ex) {
+            zip.close();
+            throw ex;
+        }
+    }
+
+    /** Return the number of courts in the archive */
+    public int getCourtCount() {
+        return numbers.length;
+    }
+
+    /**
+     * Return the ball court number of a court
+     * @param k Index of the court in the archive, 0..getCourtCount()-1
+     */
+    public int getCourtNumber(int k) {
+        return numbers[k];
+    }
+
+    /**
+     * Return the number of balls of a court, taken from the table of contents
+     * @param k Index of the court in the archive, 0..getCourtCount()-1
+     */
+    public int getBallCount(int k) {
+        return toc[k * TOC_INTS + 4];
+    }
+
+    /**
+     * Find a court by its ball court number
+     * @param bcNo Ball court number
+     * @return Index of the court in the archive, -1 if the archive does not contain it
+     */
+    public int indexOf(int bcNo) {
+        for ( int k = 0; k < numbers.length; k++ ) {
+            if ( numbers[k] == bcNo ) return k;
+        }
+        return -1;
+    }
+
+    /**
+     * Decompress the snapshot of a court
+     * @param bcNo Ball court number
+     * @return A new buffer holding the snapshot, positioned at its start
+     * @throws IOException if the archive cannot be read or does not contain the court
+     */
+    public synchronized ByteBuffer loadSnapshot(int bcNo) throws IOException {
+        if ( closed ) {
+            throw new IllegalStateException("Session archive has been closed");
+        }
+        final int k = indexOf(bcNo);
+        ZipEntry e = ( k < 0 ) ? null : zip.getEntry(entryName(bcNo));
+        if ( e == null ) {
+            throw new IOException("BC " + bcNo + " not in session archive");
+        }
+        final int size = toc[k * TOC_INTS + 5];
+        byte[] bytes = new byte[size];
+        try ( InputStream in = zip.getInputStream(e) ) {
+            int n = in.readNBytes(bytes, 0, size);
+            if ( n != size || in.read() >= 0 ) {
+                throw new IOException("Corrupt session archive: size of BC " + bcNo);
+            }
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Decompress and decode a court
+     * @param bcNo Ball court number
+     * @return The rebuilt court
+     * @throws IOException if the archive cannot be read or does not contain the court
+     */
+    public Court load(int bcNo) throws IOException {
+        return CourtSnapshot.read(loadSnapshot(bcNo));
+    }
+
+    /**
+     * Close the archive file. Further calls are ignored.
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if ( closed ) return;
+        closed = true;
+        zip.close();
+    }
+}
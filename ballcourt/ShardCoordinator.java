@@ -0,0 +1,355 @@
+package ballcourt;
+
+
+/**
+ * Coordinator of a court which is too large to be simulated by a
+ * single process. The court area is split into vertical strips of
+ * equal width, each one simulated by a worker process (see class
+ * ShardWorker) which owns the balls whose centres lie in its strip.
+ * The workers exchange ghosts and balls crossing the edges of the
+ * strips directly with their neighbours; the coordinator only
+ * distributes the balls at the start, steps the workers in lockstep
+ * and assembles their balls into a court for the view.
+ * <p>
+ * Every ball keeps its index in the court passed to the coordinator
+ * as its id, so that the assembled court lists the balls in the same
+ * order in every tick and can be drawn and interpolated like any other
+ * court. Players are not supported in sharded courts.
+ * <p>
+ * All connections are TCP connections between HOST:PORT addresses:
+ * spawn starts the workers on the local host and connects over the
+ * loopback interface, while listen waits for workers started on any
+ * host with ShardWorker.run.
+ * <p>
+ * Every message to or from a worker must be transferred within the
+ * message timeout of its link, so that a worker which hangs makes
+ * step fail with an IOException instead of blocking the caller.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+
+public final class ShardCoordinator implements Closeable
+{
+
+    /** Magic number sent by a worker when it connects: 'BCSH' */
+    static final int MAGIC = 0x42435348;
+
+    /** Command stopping the workers */
+    static final int STOP = 0;
+    /** Command stepping the workers, which reply with their number of balls */
+    static final int STEP = 1;
+    /** Command stepping the workers, which reply with their balls */
+    static final int REPORT = 2;
+
+    /** Time to wait for spawned workers to connect in milliseconds */
+    private static final int SPAWN_TIMEOUT_MS = 30000;
+
+    /** Time to wait for spawned workers to exit in milliseconds */
+    private static final int STOP_TIMEOUT_MS = 5000;
+
+    /** Links to the workers, ordered from left to right */
+    private final ShardLink[] workers;
+    /** Spawned worker processes, empty if the workers were started externally */
+    private final Process[] processes;
+    /** Number of balls of the court */
+    private final int ballCount;
+    /** Largest time step the strips are wide enough for */
+    private final int maxTimeStep;
+    /** Balls received from a worker */
+    private final ShardLink.BallList received = new ShardLink.BallList();
+
+    /** Flag indicating that the workers have been stopped */
+    private boolean closed;
+
+    /**
+     * Constructor used by connect
+     */
+    private ShardCoordinator(ShardLink[] workers, Process[] processes, int ballCount, int maxTimeStep) {
+        this.workers = workers;
+        this.processes = processes;
+        this.ballCount = ballCount;
+        this.maxTimeStep = maxTimeStep;
+    }
+
+    /**
+     * Start one worker process per strip on the local host and
+     * distribute the balls of a court to them
+     * @param court The court, which must not contain players
+     * @param shards Number of strips
+     * @return The coordinator
+     * @throws IOException if a worker cannot be started or connected
+     */
+    public static ShardCoordinator spawn(Court court, int shards) throws IOException {
+        final int maxTimeStep = checkStrips(court, shards);
+        try ( ServerSocketChannel server = ServerSocketChannel.open() ) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress address = (InetSocketAddress)server.getLocalAddress();
+            final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            Process[] processes = new Process[shards];
+            try {
+                for ( int k = 0; k < shards; k++ ) {
+                    processes[k] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                      ShardWorker.class.getName(),
+                                                      address.getHostString() + ":" + address.getPort())
+                        .inheritIO()
+                        .start();
+                }
+                return connect(court, shards, maxTimeStep, server, processes, SPAWN_TIMEOUT_MS);
+            }
+            catch(IOException | RuntimeException ex) {
+                for ( Process p : processes ) {
+                    if ( p != null ) p.destroyForcibly();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Wait for worker processes started on any host (see ShardWorker.run)
+     * and distribute the balls of a court to them. The strips are
+     * assigned in the order in which the workers connect.
+     * @param court The court, which must not contain players
+     * @param shards Number of strips
+     * @param port Port to listen on
+     * @param timeoutMillis Time to wait for each worker, 0 for no limit
+     * @return The coordinator
+     * @throws IOException if the workers do not connect in time
+     */
+    public static ShardCoordinator listen(Court court, int shards, int port, int timeoutMillis)
+        throws IOException {
+        final int maxTimeStep = checkStrips(court, shards);
+        try ( ServerSocketChannel server = ServerSocketChannel.open() ) {
+            server.bind(new InetSocketAddress(port));
+            return connect(court, shards, maxTimeStep, server, new Process[0], timeoutMillis);
+        }
+    }
+
+    /**
+     * Check that a court can be split into strips
+     * @param court The court
+     * @param shards Number of strips
+     * @return Largest time step the strips are wide enough for
+     */
+    private static int checkStrips(Court court, int shards) {
+        if ( court.getPlayerCount() > 0 ) {
+            throw new IllegalArgumentException("Players are not supported in sharded courts");
+        }
+        if ( shards < 1 ) {
+            throw new IllegalArgumentException("At least one shard expected: " + shards);
+        }
+        // The ghosts of a strip must come from its neighbours only
+        final int maxTimeStep = (court.getWidth() / shards - Ball.BALL_DIAM) / (2 * court.getMaxSpeed());
+        if ( maxTimeStep < 1 ) {
+            throw new IllegalArgumentException("Court of width " + court.getWidth()
+                                               + " is too narrow for " + shards + " shards");
+        }
+        return maxTimeStep;
+    }
+
+    /**
+     * Return the left edge of a strip
+     * @param width Width of the court
+     * @param shards Number of strips
+     * @param k Index of the strip, 0..shards
+     */
+    private static int edge(int width, int shards, int k) {
+        return (int)((long)k * width / shards);
+    }
+
+    /**
+     * Accept the workers, send them their configuration and balls
+     */
+    private static ShardCoordinator connect(Court court, int shards, int maxTimeStep,
+                                            ServerSocketChannel server, Process[] processes,
+                                            int timeoutMillis) throws IOException {
+        ShardLink[] workers = new ShardLink[shards];
+        try {
+            server.socket().setSoTimeout(timeoutMillis);
+            String[] hosts = new String[shards];
+            int[] ports = new int[shards];
+            for ( int k = 0; k < shards; k++ ) {
+                try {
+                    workers[k] = new ShardLink(server.socket().accept().getChannel());
+                }
+                catch(SocketTimeoutException ex) {
+                    throw new IOException("Only " + k + " of " + shards + " shard workers connected");
+                }
+                ByteBuffer m = workers[k].receive();
+                if ( m.getInt() != MAGIC ) {
+                    throw new IOException("Not a shard worker: " + workers[k].getRemoteAddress());
+                }
+                ports[k] = m.getInt();
+                hosts[k] = workers[k].getRemoteAddress().getAddress().getHostAddress();
+            }
+
+            // Distribute the balls by the strip containing their centre
+            final int width = court.getWidth();
+            final int half = Ball.BALL_DIAM / 2;
+            ShardLink.BallList[] balls = new ShardLink.BallList[shards];
+            for ( int k = 0; k < shards; k++ ) {
+                balls[k] = new ShardLink.BallList();
+            }
+            for ( int i = 0; i < court.getBallCount(); i++ ) {
+                final int cx = court.getBallPosX(i) + half;
+                int k = Math.max(0, Math.min(shards - 1, (int)((long)cx * shards / Math.max(1, width))));
+                while ( k > 0 && cx < edge(width, shards, k) ) k--;
+                while ( k < shards - 1 && cx >= edge(width, shards, k + 1) ) k++;
+                balls[k].add(i, court, i);
+            }
+
+            for ( int k = 0; k < shards; k++ ) {
+                final String leftHost = ( k > 0 ) ? hosts[k-1] : "";
+                ByteBuffer b = workers[k].begin(64 + 4 * leftHost.length() + balls[k].size());
+                b.putInt(k);
+                b.putInt(shards);
+                b.putInt(width);
+                b.putInt(court.getHeight());
+                b.putInt(edge(width, shards, k));
+                b.putInt(edge(width, shards, k + 1));
+                b.putInt(court.getTimeStep());
+                b.putInt(court.getMaxSpeed());
+                b.putInt(court.isBallCollisions() ? 1 : 0);
+                b.putLong(court.getSeed() + k);
+                ShardLink.putString(b, leftHost);
+                b.putInt(( k > 0 ) ? ports[k-1] : 0);
+                balls[k].put(b);
+                workers[k].send();
+            }
+            return new ShardCoordinator(workers, processes, court.getBallCount(), maxTimeStep);
+        }
+        catch(IOException | RuntimeException ex) {
+            for ( ShardLink w : workers ) {
+                if ( w != null ) w.close();
+            }
+            throw ex;
+        }
+    }
+
+    /** Return the number of strips */
+    public int getShardCount() {
+        return workers.length;
+    }
+
+    /** Return the number of balls of the court */
+    public int getBallCount() {
+        return ballCount;
+    }
+
+    /**
+     * Simulate the given number of ticks. Time steps larger than
+     * the strips allow are split into several steps of the workers.
+     * @param view Court receiving the state of all balls after the step,
+     *        created with the balls passed to the coordinator;
+     *        null if the state is not needed
+     * @param timeStep Number of ticks simulated
+     * @throws IOException if a worker fails or does not reply in time
+     */
+    public synchronized void step(Court view, int timeStep) throws IOException {
+        if ( closed ) {
+            throw new IllegalStateException("Shard workers have been stopped");
+        }
+        if ( view != null && view.getBallCount() != ballCount ) {
+            throw new IllegalArgumentException("View has " + view.getBallCount()
+                                               + " balls instead of " + ballCount);
+        }
+        int remaining = Math.max(1, timeStep);
+        while ( remaining > 0 ) {
+            final int ticks = Math.min(remaining, maxTimeStep);
+            remaining -= ticks;
+            final boolean report = ( view != null && remaining == 0 );
+            for ( ShardLink w : workers ) {
+                ByteBuffer b = w.begin(8);
+                b.putInt(report ? REPORT : STEP);
+                b.putInt(ticks);
+                w.send();
+            }
+            int total = 0;
+            for ( ShardLink w : workers ) {
+                ByteBuffer m = w.receive();
+                if ( report ) {
+                    received.get(m);
+                    place(view);
+                    total += received.count;
+                }
+                else {
+                    total += m.getInt();
+                }
+            }
+            if ( total != ballCount ) {
+                throw new IOException("Shard workers hold " + total + " of " + ballCount + " balls");
+            }
+        }
+        if ( view != null ) {
+            view.invalidatePaths();
+        }
+    }
+
+    /**
+     * Write the received balls into the view at the indices given by their ids
+     * @param view The court
+     * @throws IOException if an id is out of range
+     */
+    private void place(Court view) throws IOException {
+        final int[] x = view.ballXArray();
+        final int[] y = view.ballYArray();
+        final int[] dx = view.ballDxArray();
+        final int[] dy = view.ballDyArray();
+        for ( int k = 0; k < received.count; k++ ) {
+            final int i = received.ids[k];
+            if ( i < 0 || i >= ballCount ) {
+                throw new IOException("Corrupt shard message: ball id " + i);
+            }
+            x[i] = received.x[k];
+            y[i] = received.y[k];
+            dx[i] = received.dx[k];
+            dy[i] = received.dy[k];
+        }
+    }
+
+    /**
+     * Stop the workers and close the connections. Spawned worker
+     * processes which do not exit in time are killed.
+     * Further calls are ignored.
+     * @throws IOException if a connection cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if ( closed ) return;
+        closed = true;
+        for ( ShardLink w : workers ) {
+            try {
+                ByteBuffer b = w.begin(8);
+                b.putInt(STOP);
+                b.putInt(0);
+                w.send();
+            }
+            catch(IOException ex) {
+                // the worker has already gone
+            }
+            w.close();
+        }
+        for ( Process p : processes ) {
+            try {
+                if ( !p.waitFor(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS) ) {
+                    p.destroyForcibly();
+                }
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                p.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package ballcourt;
+
+
+/**
+ * Socket connection between the processes of a sharded court
+ * (see classes ShardCoordinator and ShardWorker).
+ * <p>
+ * Messages are length-prefixed: an int holding the number of bytes
+ * of the payload, followed by the payload. Lists of balls are written
+ * in structure-of-arrays layout (all values big-endian):
+ * <pre>
+ *   int     number of balls n
+ *   n times int ball id
+ *   n times int x-coordinate
+ *   n times int y-coordinate
+ *   n times int x-velocity
+ *   n times int y-velocity
+ * </pre>
+ * so that they are copied with bulk operations. The buffers of a link
+ * are reused between messages. A message may be sent by one thread
+ * while another thread receives a message.
+ * <p>
+ * Each message must be sent or received within the timeout of the
+ * link, so that a process which hangs cannot block its peers forever;
+ * otherwise a SocketTimeoutException is thrown. The channel is
+ * non-blocking and waits on one selector for reading and another one
+ * for writing, because SocketChannel.read ignores the socket's SO_TIMEOUT.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+final class ShardLink implements Closeable
+{
+
+    /** Initial size of the message buffers */
+    private static final int INITIAL_BUFFER = 1 << 16;
+
+    /** Largest accepted message */
+    private static final int MAX_MESSAGE = 1 << 30;
+
+    /** Number of ints per ball in a ball list */
+    static final int BALL_INTS = 5;
+
+    /** Default time to send or receive one message in milliseconds */
+    static final int MESSAGE_TIMEOUT_MS = 10000;
+
+    /** The connection */
+    private final SocketChannel channel;
+    /** Selector waiting until the channel can be read */
+    private final Selector readable;
+    /** Selector waiting until the channel can be written */
+    private final Selector writable;
+    /** Time to send or receive one message in milliseconds, 0 for no limit */
+    private volatile int timeoutMillis = MESSAGE_TIMEOUT_MS;
+    /** Buffer of the message being sent */
+    private ByteBuffer out = ByteBuffer.allocateDirect(INITIAL_BUFFER);
+    /** Buffer of the message received last */
+    private ByteBuffer in = ByteBuffer.allocateDirect(INITIAL_BUFFER);
+    /** Buffer for the length of a received message */
+    private final ByteBuffer length = ByteBuffer.allocateDirect(4);
+
+    /**
+     * Constructor for a link over a connected channel
+     * @param channel The connection
+     * @throws IOException if the channel cannot be configured
+     */
+    ShardLink(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        readable = Selector.open();
+        writable = Selector.open();
+        try {
+            channel.register(readable, SelectionKey.OP_READ);
+            channel.register(writable, SelectionKey.OP_WRITE);
+        }
+        catch(IOException ex) {
+            readable.close();
+            writable.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Connect to a host
+     * @param host Name or address of the host
+     * @param port Port number
+     * @return The new link
+     * @throws IOException if the connection cannot be established
+     */
+    static ShardLink connect(String host, int port) throws IOException {
+        return new ShardLink(SocketChannel.open(new InetSocketAddress(host, port)));
+    }
+
+    /**
+     * Set the time to send or receive one message
+     * @param millis Timeout in milliseconds, 0 for no limit
+     */
+    void setTimeout(int millis) {
+        timeoutMillis = Math.max(0, millis);
+    }
+
+    /** Return the address of the remote end of the link */
+    InetSocketAddress getRemoteAddress() throws IOException {
+        return (InetSocketAddress)channel.getRemoteAddress();
+    }
+
+    /** Return the address of the local end of the link */
+    InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress)channel.getLocalAddress();
+    }
+
+    /**
+     * Start a new message
+     * @param bytes Maximal size of the payload
+     * @return Buffer to put the payload into
+     */
+    ByteBuffer begin(int bytes) {
+        if ( out.capacity() < bytes + 4 ) {
+            out = ByteBuffer.allocateDirect(Math.max(bytes + 4, out.capacity() << 1));
+        }
+        out.clear();
+        out.putInt(0);
+        return out;
+    }
+
+    /**
+     * Send the message started by begin
+     * @throws IOException if the message cannot be written in time
+     */
+    void send() throws IOException {
+        out.putInt(0, out.position() - 4);
+        out.flip();
+        final long deadline = deadline();
+        while ( out.hasRemaining() ) {
+            if ( channel.write(out) == 0 ) {
+                await(writable, deadline, "send");
+            }
+        }
+    }
+
+    /**
+     * Receive the next message
+     * @return Buffer holding the payload; valid up to the next call
+     * @throws IOException if the message cannot be read in time or the link has been closed
+     */
+    ByteBuffer receive() throws IOException {
+        final long deadline = deadline();
+        length.clear();
+        readFully(length, deadline);
+        final int n = length.getInt(0);
+        if ( n < 0 || n > MAX_MESSAGE ) {
+            throw new IOException("Corrupt shard message: " + n + " bytes");
+        }
+        if ( in.capacity() < n ) {
+            in = ByteBuffer.allocateDirect(Math.max(n, in.capacity() << 1));
+        }
+        in.clear().limit(n);
+        readFully(in, deadline);
+        in.flip();
+        return in;
+    }
+
+    /**
+     * Read until a buffer is full
+     * @param b The buffer
+     * @param deadline Deadline as returned by method deadline
+     * @throws IOException if the link is closed first or the deadline expires
+     */
+    private void readFully(ByteBuffer b, long deadline) throws IOException {
+        while ( b.hasRemaining() ) {
+            final int n = channel.read(b);
+            if ( n < 0 ) {
+                throw new EOFException("Shard link closed");
+            }
+            if ( n == 0 ) {
+                await(readable, deadline, "receive");
+            }
+        }
+    }
+
+    /**
+     * Return the deadline for a message starting now
+     * @return Value of System.nanoTime() at the deadline, 0 for no limit
+     */
+    private long deadline() {
+        final int millis = timeoutMillis;
+        if ( millis == 0 ) return 0;
+        final long d = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        return ( d == 0 ) ? 1 : d;
+    }
+
+    /**
+     * Wait until the channel is ready for reading or writing
+     * @param selector Selector of the operation
+     * @param deadline Deadline as returned by method deadline
+     * @param operation Name of the operation for the error message
+     * @throws IOException if the deadline expires or the thread is interrupted
+     */
+    private void await(Selector selector, long deadline, String operation) throws IOException {
+        if ( deadline == 0 ) {
+            selector.select();
+        }
+        else {
+            final long rest = deadline - System.nanoTime();
+            if ( rest <= 0 ) {
+                throw new SocketTimeoutException("Shard link " + getRemoteAddress() + ": "
+                                                 + operation + " timed out");
+            }
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(rest)));
+        }
+        selector.selectedKeys().clear();
+        if ( Thread.currentThread().isInterrupted() ) {
+            throw new InterruptedIOException("Interrupted while waiting for a shard link");
+        }
+    }
+
+    /**
+     * Close the connection
+     * @throws IOException if the channel cannot be closed
+     */
+    public void close() throws IOException {
+        try {
+            channel.close();
+        }
+        finally {
+            readable.close();
+            writable.close();
+        }
+    }
+
+    /**
+     * Put a string into a message
+     * @param b The message buffer
+     * @param s The string
+     */
+    static void putString(ByteBuffer b, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        b.putInt(bytes.length);
+        b.put(bytes);
+    }
+
+    /**
+     * Get a string from a message
+     * @param b The message buffer
+     * @return The string
+     */
+    static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the size of a ball list in a message
+     * @param count Number of balls
+     */
+    static int ballListSize(int count) {
+        return 4 + BALL_INTS * 4 * count;
+    }
+
+    /**
+     * Put a list of balls into a message
+     * @param b The message buffer, with at least ballListSize(count) bytes remaining
+     * @param count Number of balls
+     * @param ids Ball ids
+     * @param x x-coordinates
+     * @param y y-coordinates
+     * @param dx x-velocities
+     * @param dy y-velocities
+     */
+    static void putBalls(ByteBuffer b, int count, int[] ids, int[] x, int[] y, int[] dx, int[] dy) {
+        b.putInt(count);
+        IntBuffer ib = b.asIntBuffer();
+        ib.put(ids, 0, count);
+        ib.put(x, 0, count);
+        ib.put(y, 0, count);
+        ib.put(dx, 0, count);
+        ib.put(dy, 0, count);
+        b.position(b.position() + BALL_INTS * 4 * count);
+    }
+
+    /**
+     * Growable list of balls exchanged between the processes
+     */
+    static final class BallList
+    {
+        /** Number of balls in the list */
+        int count;
+        /** Ball ids */
+        int[] ids = new int[16];
+        /** x-coordinates */
+        int[] x = new int[16];
+        /** y-coordinates */
+        int[] y = new int[16];
+        /** x-velocities */
+        int[] dx = new int[16];
+        /** y-velocities */
+        int[] dy = new int[16];
+
+        /** Remove all balls */
+        void clear() {
+            count = 0;
+        }
+
+        /**
+         * Grow the arrays so that they can hold at least the given number of balls
+         * @param capacity Required number of balls
+         */
+        private void ensureCapacity(int capacity) {
+            if ( capacity <= ids.length ) return;
+            int n = Math.max(capacity, ids.length << 1);
+            ids = Arrays.copyOf(ids, n);
+            x = Arrays.copyOf(x, n);
+            y = Arrays.copyOf(y, n);
+            dx = Arrays.copyOf(dx, n);
+            dy = Arrays.copyOf(dy, n);
+        }
+
+        /**
+         * Append ball i of a court
+         * @param id Id of the ball
+         * @param court The court
+         * @param i Index of the ball in the court
+         */
+        void add(int id, Court court, int i) {
+            ensureCapacity(count + 1);
+            ids[count] = id;
+            x[count] = court.getBallPosX(i);
+            y[count] = court.getBallPosY(i);
+            dx[count] = court.getBallVelX(i);
+            dy[count] = court.getBallVelY(i);
+            count++;
+        }
+
+        /** Return the size of the list in a message */
+        int size() {
+            return ballListSize(count);
+        }
+
+        /**
+         * Put the list into a message
+         * @param b The message buffer
+         */
+        void put(ByteBuffer b) {
+            putBalls(b, count, ids, x, y, dx, dy);
+        }
+
+        /**
+         * Replace the list by a list read from a message
+         * @param b The message buffer, positioned at the list
+         * @throws IOException if the list is corrupt
+         */
+        void get(ByteBuffer b) throws IOException {
+            final int n = b.getInt();
+            if ( n < 0 || (long)n * BALL_INTS * 4 > b.remaining() ) {
+                throw new IOException("Corrupt shard message: " + n + " balls");
+            }
+            ensureCapacity(n);
+            IntBuffer ib = b.asIntBuffer();
+            ib.get(ids, 0, n);
+            ib.get(x, 0, n);
+            ib.get(y, 0, n);
+            ib.get(dx, 0, n);
+            ib.get(dy, 0, n);
+            b.position(b.position() + BALL_INTS * 4 * n);
+            count = n;
+        }
+    }
+}
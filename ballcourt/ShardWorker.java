@@ -0,0 +1,354 @@
+package ballcourt;
+
+
+/**
+ * Worker process of a sharded court (see class ShardCoordinator).
+ * <p>
+ * A worker owns the balls whose centres lie in one vertical strip
+ * x0 &lt;= x &lt; x1 of the court. It simulates them in a court of the
+ * full size, so that the walls and coordinates are those of the whole
+ * court. In every tick, the worker
+ * <ol>
+ * <li> sends the balls near the edges of its strip as ghosts to the
+ *      neighbouring workers and receives their ghosts,
+ * <li> moves its balls together with the ghosts, so that balls
+ *      collide across the edges of the strips, then drops the ghosts,
+ * <li> hands the balls which have left its strip over to the neighbours
+ *      and takes over the balls which have entered it,
+ * <li> reports its balls, or just their number, to the coordinator.
+ * </ol>
+ * The worker owning a ball decides its state; the state of a ghost
+ * computed by the neighbour is only used for the collisions.
+ * Messages to both neighbours are sent by separate threads while the
+ * messages from the neighbours are received, so that the exchange
+ * cannot block even if the messages exceed the socket buffers.
+ * A neighbour which does not answer within the message timeout of
+ * the link fails the worker. The worker waits for the commands of the
+ * coordinator without a limit, since the coordinator may pause.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public final class ShardWorker
+{
+
+    /** Link to the coordinator */
+    private final ShardLink coordinator;
+    /** Link to the worker of the strip on the left, null for the first strip */
+    private ShardLink left;
+    /** Link to the worker of the strip on the right, null for the last strip */
+    private ShardLink right;
+
+    /** Court holding the balls of the strip, followed by the ghosts during a tick */
+    private Court court;
+    /** Ids of the balls of the strip, indexed like the balls of the court */
+    private int[] ids = new int[16];
+    /** Left edge of the strip */
+    private int x0;
+    /** Right edge of the strip (exclusive) */
+    private int x1;
+
+    /** Balls sent to the worker on the left */
+    private final ShardLink.BallList toLeft = new ShardLink.BallList();
+    /** Balls sent to the worker on the right */
+    private final ShardLink.BallList toRight = new ShardLink.BallList();
+    /** Balls received from the worker on the left */
+    private final ShardLink.BallList fromLeft = new ShardLink.BallList();
+    /** Balls received from the worker on the right */
+    private final ShardLink.BallList fromRight = new ShardLink.BallList();
+
+    /** Threads sending the messages to the neighbours */
+    private final ExecutorService senders = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "shard-send");
+            t.setDaemon(true);
+            return t;
+        });
+
+    /**
+     * Constructor used by run
+     * @param coordinator Link to the coordinator
+     */
+    private ShardWorker(ShardLink coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Entry point of the worker processes started by ShardCoordinator.spawn
+     * @param args HOST:PORT of the coordinator
+     */
+    public static void main(String[] args) {
+        if ( args.length != 1 ) {
+            System.err.println("Usage: ShardWorker HOST:PORT");
+            System.exit(2);
+        }
+        try {
+            run(args[0]);
+        }
+        catch(IOException | RuntimeException e) {
+            System.err.println("Shard worker failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Connect to a coordinator and serve it until it stops the workers.
+     * The worker accepts its right neighbour on the address it uses
+     * to reach the coordinator, so that workers on several hosts
+     * reach each other over the same network as the coordinator.
+     * @param address HOST:PORT of the coordinator
+     * @throws IOException if a connection fails
+     */
+    public static void run(String address) throws IOException {
+        final int colon = address.lastIndexOf(':');
+        if ( colon < 0 ) {
+            throw new IllegalArgumentException("Coordinator address HOST:PORT expected: " + address);
+        }
+        final int port = Integer.parseInt(address.substring(colon + 1));
+        try ( ShardLink coordinator = ShardLink.connect(address.substring(0, colon), port);
+              ServerSocketChannel server = ServerSocketChannel.open() ) {
+            coordinator.setTimeout(0);
+            server.bind(new InetSocketAddress(coordinator.getLocalAddress().getAddress(), 0));
+            ByteBuffer b = coordinator.begin(8);
+            b.putInt(ShardCoordinator.MAGIC);
+            b.putInt(((InetSocketAddress)server.getLocalAddress()).getPort());
+            coordinator.send();
+            new ShardWorker(coordinator).serve(server);
+        }
+    }
+
+    /**
+     * Receive the configuration, connect to the neighbours and
+     * execute the commands of the coordinator
+     * @param server Socket accepting the right neighbour
+     * @throws IOException if a connection fails
+     */
+    private void serve(ServerSocketChannel server) throws IOException {
+        try {
+            ByteBuffer m = coordinator.receive();
+            final int index = m.getInt();
+            final int shards = m.getInt();
+            final int width = m.getInt();
+            final int height = m.getInt();
+            x0 = m.getInt();
+            x1 = m.getInt();
+            final int timeStep = m.getInt();
+            final int maxSpeed = m.getInt();
+            final boolean collisions = m.getInt() != 0;
+            final long seed = m.getLong();
+            final String leftHost = ShardLink.getString(m);
+            final int leftPort = m.getInt();
+            court = new Court(width, height, seed);
+            court.setBallCollisions(collisions);
+            court.setTimeStep(timeStep);
+            court.setMaxSpeed(maxSpeed);
+            fromLeft.get(m);
+            append(fromLeft, true);
+
+            if ( index > 0 ) {
+                left = ShardLink.connect(leftHost, leftPort);
+                left.begin(4).putInt(index);
+                left.send();
+            }
+            if ( index < shards - 1 ) {
+                right = new ShardLink(server.accept());
+                int neighbour = right.receive().getInt();
+                if ( neighbour != index + 1 ) {
+                    throw new IOException("Shard " + index + " connected by shard " + neighbour);
+                }
+            }
+
+            while ( true ) {
+                try {
+                    m = coordinator.receive();
+                }
+                catch(EOFException ex) {
+                    return;
+                }
+                final int command = m.getInt();
+                if ( command == ShardCoordinator.STOP ) return;
+                tick(m.getInt());
+                reply(command == ShardCoordinator.REPORT);
+            }
+        }
+        finally {
+            senders.shutdownNow();
+            if ( left != null ) left.close();
+            if ( right != null ) right.close();
+        }
+    }
+
+    /**
+     * Simulate one step of the strip as described in the class comment
+     * @param timeStep Number of ticks simulated by the step
+     * @throws IOException if the exchange with a neighbour fails
+     */
+    private void tick(int timeStep) throws IOException {
+        court.setTimeStep(timeStep);
+        final int half = Ball.BALL_DIAM / 2;
+        // Two balls approaching each other across an edge close in by
+        // at most 2*maxSpeed*timeStep during the step
+        final int margin = Ball.BALL_DIAM + 2 * court.getMaxSpeed() * timeStep;
+
+        // Exchange the ghosts
+        final int owned = court.getBallCount();
+        toLeft.clear();
+        toRight.clear();
+        for ( int i = 0; i < owned; i++ ) {
+            final int cx = court.getBallPosX(i) + half;
+            if ( left != null && cx < x0 + margin ) {
+                toLeft.add(ids[i], court, i);
+            }
+            if ( right != null && cx >= x1 - margin ) {
+                toRight.add(ids[i], court, i);
+            }
+        }
+        exchange();
+        append(fromLeft, false);
+        append(fromRight, false);
+
+        court.move();
+        court.truncateBalls(owned);
+
+        // Hand over the balls which have left the strip
+        toLeft.clear();
+        toRight.clear();
+        int i = 0;
+        while ( i < court.getBallCount() ) {
+            final int cx = court.getBallPosX(i) + half;
+            if ( left != null && cx < x0 ) {
+                toLeft.add(ids[i], court, i);
+                remove(i);
+            }
+            else if ( right != null && cx >= x1 ) {
+                toRight.add(ids[i], court, i);
+                remove(i);
+            }
+            else {
+                i++;
+            }
+        }
+        exchange();
+        append(fromLeft, true);
+        append(fromRight, true);
+    }
+
+    /**
+     * Send the reply to a step command to the coordinator
+     * @param report true iff all balls of the strip are sent,
+     *        otherwise only their number
+     * @throws IOException if the reply cannot be sent
+     */
+    private void reply(boolean report) throws IOException {
+        final int n = court.getBallCount();
+        if ( report ) {
+            ByteBuffer b = coordinator.begin(ShardLink.ballListSize(n));
+            ShardLink.putBalls(b, n, ids, court.ballXArray(), court.ballYArray(),
+                               court.ballDxArray(), court.ballDyArray());
+        }
+        else {
+            coordinator.begin(4).putInt(n);
+        }
+        coordinator.send();
+    }
+
+    /**
+     * Send toLeft and toRight to the neighbours while receiving
+     * fromLeft and fromRight
+     * @throws IOException if a message cannot be sent or received
+     */
+    private void exchange() throws IOException {
+        Future<Void> l = ( left != null ) ? senders.submit(() -> send(left, toLeft)) : null;
+        Future<Void> r = ( right != null ) ? senders.submit(() -> send(right, toRight)) : null;
+        fromLeft.clear();
+        fromRight.clear();
+        if ( left != null ) {
+            fromLeft.get(left.receive());
+        }
+        if ( right != null ) {
+            fromRight.get(right.receive());
+        }
+        await(l);
+        await(r);
+    }
+
+    /**
+     * Send a list of balls to a neighbour
+     * @param link Link to the neighbour
+     * @param balls The balls
+     * @return null
+     * @throws IOException if the message cannot be sent
+     */
+    private static Void send(ShardLink link, ShardLink.BallList balls) throws IOException {
+        balls.put(link.begin(balls.size()));
+        link.send();
+        return null;
+    }
+
+    /**
+     * Wait until a message has been sent
+     * @param sent Future of the sender, or null
+     * @throws IOException if sending failed
+     */
+    private static void await(Future<Void> sent) throws IOException {
+        if ( sent == null ) return;
+        try {
+            sent.get();
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending to a shard");
+        }
+        catch(ExecutionException ex) {
+            if ( ex.getCause() instanceof IOException ) {
+                throw (IOException)ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Append balls to the court
+     * @param balls The balls
+     * @param owned true iff the strip takes the balls over,
+     *        false for ghosts, which are not given ids
+     */
+    private void append(ShardLink.BallList balls, boolean owned) {
+        for ( int k = 0; k < balls.count; k++ ) {
+            int i = court.allocateBall(balls.x[k], balls.y[k]);
+            court.restoreBall(i, balls.x[k], balls.y[k], balls.dx[k], balls.dy[k], false);
+            if ( owned ) {
+                if ( i >= ids.length ) {
+                    ids = Arrays.copyOf(ids, Math.max(i + 1, ids.length << 1));
+                }
+                ids[i] = balls.ids[k];
+            }
+        }
+    }
+
+    /**
+     * Remove a ball from the court, moving the last ball into its slot
+     * @param i Index of the ball
+     */
+    private void remove(int i) {
+        final int last = court.getBallCount() - 1;
+        if ( i != last ) {
+            court.copyBall(last, i);
+            ids[i] = ids[last];
+        }
+        court.truncateBalls(last);
+    }
+}
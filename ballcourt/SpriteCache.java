@@ -0,0 +1,267 @@
+package ballcourt;
+
+
+/**
+ * Cache of pre-rendered images used for painting ball courts.
+ * <p>
+ * Balls and players are drawn once into compatible images of the
+ * graphics configuration they are painted on, so that painting a court
+ * only blits these sprites. Text consisting of a fixed prefix followed
+ * by a number, like the score line, is drawn from a glyph atlas holding
+ * the prefix and the digits, so that no strings have to be created.
+ * <p>
+ * One cache is shared by all views painting on the same graphics
+ * configuration. Sprites and atlases are looked up by shape, colour,
+ * size and font; if one of these changes, a new image is rendered and
+ * replaces the least recently created one. Lookups do not allocate.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+
+final class SpriteCache
+{
+
+    /** Shape of a filled oval sprite */
+    static final int OVAL = 0;
+    /** Shape of a filled rectangle sprite */
+    static final int RECT = 1;
+
+    /** Maximal number of sprites held per cache */
+    private static final int MAX_SPRITES = 16;
+    /** Maximal number of glyph atlases held per cache */
+    private static final int MAX_ATLASES = 4;
+    /** Maximal number of graphics configurations with a cache */
+    private static final int MAX_CACHES = 8;
+
+    /** Characters held in a glyph atlas after the prefix */
+    private static final String GLYPHS = "0123456789-";
+
+    /** Shared caches, one per graphics configuration */
+    private static final SpriteCache[] caches = new SpriteCache[MAX_CACHES];
+    /** Number of shared caches created so far */
+    private static int cacheCount;
+
+    /** Graphics configuration the images of this cache are compatible with */
+    private final GraphicsConfiguration config;
+
+    /** Shapes of the cached sprites */
+    private final int[] spriteShape = new int[MAX_SPRITES];
+    /** ARGB colours of the cached sprites */
+    private final int[] spriteRgb = new int[MAX_SPRITES];
+    /** Widths of the cached sprites */
+    private final int[] spriteWidth = new int[MAX_SPRITES];
+    /** Heights of the cached sprites */
+    private final int[] spriteHeight = new int[MAX_SPRITES];
+    /** The cached sprites */
+    private final Image[] sprites = new Image[MAX_SPRITES];
+    /** Number of sprites created so far */
+    private int spriteCount;
+
+    /** The cached glyph atlases */
+    private final GlyphAtlas[] atlases = new GlyphAtlas[MAX_ATLASES];
+    /** Number of glyph atlases created so far */
+    private int atlasCount;
+
+    /**
+     * Image holding a text prefix followed by the glyphs of GLYPHS,
+     * rendered in one font and colour
+     */
+    private static final class GlyphAtlas {
+        /** Font of the glyphs */
+        final Font font;
+        /** ARGB colour of the glyphs */
+        final int rgb;
+        /** Text rendered before the glyphs */
+        final String prefix;
+        /** The rendered prefix and glyphs */
+        final Image image;
+        /** Width of the prefix in the image */
+        final int prefixWidth;
+        /** x-position of each glyph in the image */
+        final int[] glyphX = new int[GLYPHS.length()];
+        /** Width of each glyph */
+        final int[] glyphWidth = new int[GLYPHS.length()];
+        /** Distance from the top of the image to the baseline */
+        final int ascent;
+        /** Height of the image */
+        final int height;
+        /** Digits of the number being drawn, reused between calls */
+        final int[] digits = new int[10];
+
+        GlyphAtlas(GraphicsConfiguration config, Font font, int rgb, String prefix) {
+            this.font = font;
+            this.rgb = rgb;
+            this.prefix = prefix;
+            Graphics2D probe = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            FontMetrics fm = probe.getFontMetrics(font);
+            probe.dispose();
+            prefixWidth = fm.stringWidth(prefix);
+            int x = prefixWidth;
+            for ( int k = 0; k < GLYPHS.length(); k++ ) {
+                glyphX[k] = x;
+                glyphWidth[k] = fm.charWidth(GLYPHS.charAt(k));
+                x += glyphWidth[k];
+            }
+            ascent = fm.getAscent();
+            height = Math.max(1, fm.getAscent() + fm.getDescent());
+            image = createImage(config, Math.max(1, x), height);
+            Graphics2D g = (Graphics2D)image.getGraphics();
+            try {
+                g.setFont(font);
+                g.setColor(new Color(rgb, true));
+                g.drawString(prefix, 0, ascent);
+                for ( int k = 0; k < GLYPHS.length(); k++ ) {
+                    g.drawString(GLYPHS.substring(k, k + 1), glyphX[k], ascent);
+                }
+            }
+            finally {
+                g.dispose();
+            }
+        }
+
+        /**
+         * Draw a glyph of the atlas
+         * @return x-position following the glyph
+         */
+        int drawGlyph(Graphics g, int k, int x, int top) {
+            g.drawImage(image, x, top, x + glyphWidth[k], top + height,
+                        glyphX[k], 0, glyphX[k] + glyphWidth[k], height, null);
+            return x + glyphWidth[k];
+        }
+
+        /** Draw the prefix followed by the decimal digits of value */
+        void draw(Graphics g, int value, int x, int baseline) {
+            final int top = baseline - ascent;
+            g.drawImage(image, x, top, x + prefixWidth, top + height,
+                        0, 0, prefixWidth, height, null);
+            x += prefixWidth;
+            long v = value;
+            if ( v < 0 ) {
+                x = drawGlyph(g, GLYPHS.length() - 1, x, top);
+                v = -v;
+            }
+            int count = 0;
+            do {
+                digits[count++] = (int)(v % 10);
+                v /= 10;
+            } while ( v != 0 );
+            while ( count > 0 ) {
+                x = drawGlyph(g, digits[--count], x, top);
+            }
+        }
+    }
+
+    /**
+     * Constructor for the cache of a graphics configuration
+     * @param config Graphics configuration, null for plain ARGB images
+     */
+    private SpriteCache(GraphicsConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * Get the shared cache for the graphics configuration of a graphics context
+     * @param g The graphics context painted on
+     * @return The cache
+     */
+    static SpriteCache forGraphics(Graphics g) {
+        GraphicsConfiguration config = ( g instanceof Graphics2D ) ?
+            ((Graphics2D)g).getDeviceConfiguration() : null;
+        synchronized(caches) {
+            for ( int k = 0; k < Math.min(cacheCount, MAX_CACHES); k++ ) {
+                if ( caches[k].config == config ) {
+                    return caches[k];
+                }
+            }
+            SpriteCache cache = new SpriteCache(config);
+            caches[cacheCount++ % MAX_CACHES] = cache;
+            return cache;
+        }
+    }
+
+    /**
+     * Create a translucent image compatible with the graphics configuration
+     * @param config Graphics configuration, null for a plain ARGB image
+     */
+    private static Image createImage(GraphicsConfiguration config, int width, int height) {
+        if ( config == null ) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        return config.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+
+    /**
+     * Get the sprite of a filled shape, rendering it if it is not cached
+     * @param shape OVAL or RECT
+     * @param color Fill colour
+     * @param width Width of the shape
+     * @param height Height of the shape
+     * @return The sprite, with the shape's bounding box at (0,0)
+     */
+    synchronized Image sprite(int shape, Color color, int width, int height) {
+        final int rgb = color.getRGB();
+        final int n = Math.min(spriteCount, MAX_SPRITES);
+        for ( int k = 0; k < n; k++ ) {
+            if ( spriteShape[k] == shape && spriteRgb[k] == rgb
+                 && spriteWidth[k] == width && spriteHeight[k] == height ) {
+                return sprites[k];
+            }
+        }
+
+        Image image = createImage(config, Math.max(1, width), Math.max(1, height));
+        Graphics g = image.getGraphics();
+        try {
+            g.setColor(color);
+            if ( shape == OVAL ) {
+                g.fillOval(0, 0, width, height);
+            }
+            else {
+                g.fillRect(0, 0, width, height);
+            }
+        }
+        finally {
+            g.dispose();
+        }
+
+        int k = spriteCount++ % MAX_SPRITES;
+        spriteShape[k] = shape;
+        spriteRgb[k] = rgb;
+        spriteWidth[k] = width;
+        spriteHeight[k] = height;
+        sprites[k] = image;
+        return image;
+    }
+
+    /**
+     * Draw a text prefix followed by a number from a glyph atlas,
+     * rendering the atlas if it is not cached
+     * @param g Graphics context to draw into
+     * @param prefix Text drawn before the number
+     * @param value The number
+     * @param x x-position of the text
+     * @param baseline y-position of the text's baseline
+     */
+    synchronized void drawText(Graphics g, String prefix, int value, int x, int baseline) {
+        final Font font = g.getFont();
+        final int rgb = g.getColor().getRGB();
+        GlyphAtlas atlas = null;
+        final int n = Math.min(atlasCount, MAX_ATLASES);
+        for ( int k = 0; k < n; k++ ) {
+            GlyphAtlas a = atlases[k];
+            if ( a.rgb == rgb && a.font.equals(font) && a.prefix.equals(prefix) ) {
+                atlas = a;
+                break;
+            }
+        }
+        if ( atlas == null ) {
+            atlas = new GlyphAtlas(config, font, rgb, prefix);
+            atlases[atlasCount++ % MAX_ATLASES] = atlas;
+        }
+        atlas.draw(g, value, x, baseline);
+    }
+}
@@ -0,0 +1,248 @@
+package ballcourt;
+
+
+/**
+ * Lock-free triple buffer handing court snapshots (see class CourtState)
+ * from the thread simulating a court to the thread rendering it.
+ * <p>
+ * The simulation fills its back buffer and swaps it with the shared
+ * middle buffer; the renderer swaps its front buffer with the middle
+ * buffer if that holds a snapshot it has not seen yet. Both swaps are
+ * a single atomic getAndSet, so neither side ever waits for the other,
+ * the renderer always sees a complete snapshot and skips snapshots it
+ * has been too slow for. There must be at most one publishing and one
+ * consuming thread at a time.
+ * <p>
+ * In addition, the exchange collects the region to be repainted by a
+ * view which repaints only what has changed (see BallCourt.repaintDirty):
+ * the changed regions of all published snapshots, including those the
+ * renderer skipped, and the regions reported by the renderer. This small
+ * accumulator is guarded by the exchange's lock, so that the thread
+ * requesting repaints need not be the thread consuming the snapshots.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+final class StateExchange
+{
+
+    /** Bit of the middle index marking a snapshot not yet consumed */
+    private static final int FRESH = 4;
+    /** Mask of the buffer index in the middle index */
+    private static final int INDEX = 3;
+
+    /** The three buffers */
+    private final CourtState[] buffers = { new CourtState(), new CourtState(), new CourtState() };
+
+    /** Index of the middle buffer, or-ed with FRESH if it holds a new snapshot */
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    /** Index of the buffer filled by the simulation */
+    private int back = 0;
+    /** Index of the buffer read by the renderer */
+    private int front = 2;
+
+    /** Ball x-positions published last (owned by the simulation) */
+    private int[] lastBallX = new int[0];
+    /** Ball y-positions published last (owned by the simulation) */
+    private int[] lastBallY = new int[0];
+    /** Player y-positions published last (owned by the simulation) */
+    private int[] lastPlayerY = new int[0];
+    /** Number of balls published last */
+    private int lastBallCount;
+    /** Number of players published last */
+    private int lastPlayerCount;
+    /** Time of the last publication, 0 if there was none */
+    private long lastTimeNanos;
+    /** Score published last */
+    private int lastScore;
+    /** Flag indicating that the snapshot published last had a first player */
+    private boolean lastHasPlayer;
+
+    /** Left edge of the region to be repainted (guarded by this, empty if dirtyX0 > dirtyX1) */
+    private int dirtyX0 = Integer.MAX_VALUE;
+    /** Top edge of the region to be repainted (guarded by this) */
+    private int dirtyY0 = Integer.MAX_VALUE;
+    /** Right edge (exclusive) of the region to be repainted (guarded by this) */
+    private int dirtyX1 = Integer.MIN_VALUE;
+    /** Bottom edge (exclusive) of the region to be repainted (guarded by this) */
+    private int dirtyY1 = Integer.MIN_VALUE;
+    /** Flag requesting a repaint of the whole court (guarded by this) */
+    private boolean dirtyAll = true;
+
+    /**
+     * Publish the current state of a court. Called by the simulation
+     * after each step; does not allocate unless the number of balls
+     * or players has grown. The region changed by the step is computed
+     * from the preceding and current positions and added to the region
+     * to be repainted, enlarged by the distance the objects can move
+     * in one further step: a renderer may already draw the next
+     * snapshot when it paints the region requested for this one.
+     * @param court The court
+     */
+    void publish(Court court) {
+        final int n = court.getBallCount();
+        final int p = court.getPlayerCount();
+        final CourtState s = buffers[back];
+        s.ensureCapacity(n, p);
+
+        System.arraycopy(court.ballXArray(), 0, s.ballX, 0, n);
+        System.arraycopy(court.ballYArray(), 0, s.ballY, 0, n);
+        final int kept = Math.min(n, lastBallCount);
+        System.arraycopy(lastBallX, 0, s.prevBallX, 0, kept);
+        System.arraycopy(lastBallY, 0, s.prevBallY, 0, kept);
+        System.arraycopy(s.ballX, kept, s.prevBallX, kept, n - kept);
+        System.arraycopy(s.ballY, kept, s.prevBallY, kept, n - kept);
+        s.ballCount = n;
+
+        for ( int k = 0; k < p; k++ ) {
+            Player player = court.getPlayer(k);
+            s.playerX[k] = player.getPosX();
+            s.playerY[k] = player.getPosY();
+            s.prevPlayerY[k] = ( k < lastPlayerCount ) ? lastPlayerY[k] : s.playerY[k];
+        }
+        s.playerCount = p;
+
+        Player first = court.getPlayer();
+        s.hasPlayer = first != null;
+        s.score = ( first != null ) ? first.getScore() : 0;
+        findChanges(s, kept);
+        s.timeStep = court.getTimeStep();
+        s.maxSpeed = court.getMaxSpeed();
+        s.prevTimeNanos = lastTimeNanos;
+        s.timeNanos = System.nanoTime();
+
+        // Remember this tick as the preceding one of the next snapshot
+        if ( lastBallX.length < n ) {
+            lastBallX = new int[s.ballX.length];
+            lastBallY = new int[s.ballX.length];
+        }
+        if ( lastPlayerY.length < p ) {
+            lastPlayerY = new int[p];
+        }
+        System.arraycopy(s.ballX, 0, lastBallX, 0, n);
+        System.arraycopy(s.ballY, 0, lastBallY, 0, n);
+        System.arraycopy(s.playerY, 0, lastPlayerY, 0, p);
+        lastBallCount = n;
+        lastPlayerCount = p;
+        lastTimeNanos = s.timeNanos;
+        lastScore = s.score;
+        lastHasPlayer = s.hasPlayer;
+
+        int slack = s.maxSpeed;
+        for ( int k = 0; k < p; k++ ) {
+            slack = Math.max(slack, court.getPlayer(k).getMaxVelY());
+        }
+        slack *= Math.max(1, s.timeStep);
+        if ( s.layoutChanged ) {
+            markAllDirty();
+        }
+        else if ( s.dirtyX0 <= s.dirtyX1 ) {
+            addDirty(s.dirtyX0 - slack, s.dirtyY0 - slack, s.dirtyX1 + slack, s.dirtyY1 + slack);
+        }
+
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Compute the region changed by the tick of a snapshot
+     * @param s The snapshot, filled except for the changed region
+     * @param kept Number of balls which existed in the preceding snapshot
+     */
+    private void findChanges(CourtState s, int kept) {
+        s.layoutChanged = ( s.ballCount != lastBallCount || s.playerCount != lastPlayerCount );
+        int x0 = Integer.MAX_VALUE;
+        int y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE;
+        int y1 = Integer.MIN_VALUE;
+        final int[] bx = s.ballX;
+        final int[] by = s.ballY;
+        final int[] px = s.prevBallX;
+        final int[] py = s.prevBallY;
+        for ( int i = 0; i < kept; i++ ) {
+            if ( bx[i] != px[i] || by[i] != py[i] ) {
+                x0 = Math.min(x0, Math.min(bx[i], px[i]));
+                y0 = Math.min(y0, Math.min(by[i], py[i]));
+                x1 = Math.max(x1, Math.max(bx[i], px[i]) + Ball.BALL_DIAM);
+                y1 = Math.max(y1, Math.max(by[i], py[i]) + Ball.BALL_DIAM);
+            }
+        }
+        for ( int k = 0; k < s.playerCount; k++ ) {
+            final int y = s.playerY[k];
+            final int prev = s.prevPlayerY[k];
+            if ( y != prev ) {
+                x0 = Math.min(x0, s.playerX[k]);
+                y0 = Math.min(y0, Math.min(y, prev));
+                x1 = Math.max(x1, s.playerX[k] + Player.WIDTH);
+                y1 = Math.max(y1, Math.max(y, prev) + Player.HEIGHT);
+            }
+        }
+        if ( s.score != lastScore || s.hasPlayer != lastHasPlayer ) {
+            x0 = Math.min(x0, 0);
+            y0 = Math.min(y0, 0);
+            x1 = Math.max(x1, BallCourt.SCORE_WIDTH);
+            y1 = Math.max(y1, BallCourt.SCORE_HEIGHT);
+        }
+        s.dirtyX0 = x0;
+        s.dirtyY0 = y0;
+        s.dirtyX1 = x1;
+        s.dirtyY1 = y1;
+    }
+
+    /**
+     * Add a region to the region to be repainted
+     * @param x0 Left edge (court coordinates)
+     * @param y0 Top edge
+     * @param x1 Right edge (exclusive)
+     * @param y1 Bottom edge (exclusive)
+     */
+    synchronized void addDirty(int x0, int y0, int x1, int y1) {
+        dirtyX0 = Math.min(dirtyX0, x0);
+        dirtyY0 = Math.min(dirtyY0, y0);
+        dirtyX1 = Math.max(dirtyX1, x1);
+        dirtyY1 = Math.max(dirtyY1, y1);
+    }
+
+    /**
+     * Request a repaint of the whole court
+     */
+    synchronized void markAllDirty() {
+        dirtyAll = true;
+    }
+
+    /**
+     * Take the region to be repainted and start collecting a new one
+     * @param box Array receiving the left, top, right and bottom edge of
+     *        the region (court coordinates); empty if box[0] > box[2]
+     * @return true iff the whole court is to be repainted instead
+     */
+    synchronized boolean takeDirty(int[] box) {
+        box[0] = dirtyX0;
+        box[1] = dirtyY0;
+        box[2] = dirtyX1;
+        box[3] = dirtyY1;
+        final boolean all = dirtyAll;
+        dirtyX0 = Integer.MAX_VALUE;
+        dirtyY0 = Integer.MAX_VALUE;
+        dirtyX1 = Integer.MIN_VALUE;
+        dirtyY1 = Integer.MIN_VALUE;
+        dirtyAll = false;
+        return all;
+    }
+
+    /**
+     * Get the latest published snapshot. Called by the renderer; the
+     * snapshot remains valid until the next call.
+     * @return The snapshot
+     */
+    CourtState latest() {
+        if ( (middle.get() & FRESH) != 0 ) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return buffers[front];
+    }
+}
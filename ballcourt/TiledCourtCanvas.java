@@ -0,0 +1,214 @@
+package ballcourt;
+
+
+/**
+ * Canvas drawing many ball courts as tiles of one window.
+ * All courts are drawn in a single render pass into the back buffer of
+ * the canvas (see class ActiveCourtCanvas). The tiles are laid out in
+ * a grid which fills the canvas; courts which do not fit are shown on
+ * further pages. The tiles can be zoomed, so that hundreds of courts
+ * can be watched at once.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.awt.*;
+import java.util.Arrays;
+
+
+public class TiledCourtCanvas extends ActiveCourtCanvas
+{
+
+    /** Available zoom factors */
+    private static final double[] ZOOMS = { 0.125, 0.25, 0.5, 0.75, 1.0, 1.5, 2.0 };
+    /** Index of the initial zoom factor */
+    private static final int DEFAULT_ZOOM = 2;
+
+    /** Space around a court inside its tile (unzoomed) */
+    private static final int TILE_MARGIN = 20;
+    /** Height of the label below each court */
+    private static final int LABEL_HEIGHT = 14;
+    /** Prefix of the tile labels */
+    private static final String LABEL_PREFIX = "BC ";
+    /** Colour of the frame around the selected court */
+    private static final Color SELECTION_COLOR = Color.ORANGE;
+
+    /** Ball court frames whose courts are drawn, indexed by ball court number */
+    private volatile BallCourtFrame[] frames = new BallCourtFrame[0];
+    /** Index of the current zoom factor */
+    private volatile int zoomIndex = DEFAULT_ZOOM;
+    /** Number of the page shown */
+    private volatile int page;
+    /** Number of the selected ball court, -1 if none */
+    private volatile int selected = -1;
+
+    /** Width of a tile in the last render pass */
+    private volatile int tileWidth = 1;
+    /** Height of a tile in the last render pass */
+    private volatile int tileHeight = 1;
+    /** Number of tile columns in the last render pass */
+    private volatile int columns = 1;
+    /** Number of pages in the last render pass */
+    private volatile int pageCount = 1;
+    /** Ball court numbers of the tiles shown in the last render pass, -1 for empty tiles */
+    private volatile int[] shown = new int[0];
+
+    /**
+     * Constructor for an empty tiled canvas
+     */
+    public TiledCourtCanvas() {
+        super();
+        setFocusable(true);
+    }
+
+    /**
+     * Set the ball court frames whose courts are drawn. Empty
+     * entries are skipped; the index is used as the tile label.
+     * @param frames Array of ball court frames, indexed by number
+     */
+    public void setFrames(BallCourtFrame[] frames) {
+        this.frames = frames;
+    }
+
+    /**
+     * Set the ball court drawn with a highlighted frame
+     * @param bcNo Number of the ball court, -1 for none
+     */
+    public void setSelected(int bcNo) {
+        selected = bcNo;
+    }
+
+    /** Increase the zoom factor, if possible */
+    public void zoomIn() {
+        zoomIndex = Math.min(zoomIndex + 1, ZOOMS.length - 1);
+    }
+
+    /** Decrease the zoom factor, if possible */
+    public void zoomOut() {
+        zoomIndex = Math.max(zoomIndex - 1, 0);
+    }
+
+    /** Return the current zoom factor */
+    public double getZoom() {
+        return ZOOMS[zoomIndex];
+    }
+
+    /** Show the next page, if any */
+    public void nextPage() {
+        page = Math.min(page + 1, pageCount - 1);
+    }
+
+    /** Show the previous page, if any */
+    public void previousPage() {
+        page = Math.max(page - 1, 0);
+    }
+
+    /** Return the number of the page shown, starting with 0 */
+    public int getPage() {
+        return page;
+    }
+
+    /** Return the number of pages of the last render pass */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Check whether a ball court was shown in the last render pass
+     * @param bcNo Number of the ball court
+     * @return true iff the court is on the page shown
+     */
+    public boolean isShown(int bcNo) {
+        for ( int no : shown ) {
+            if ( no == bcNo ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the ball court shown at a position of the canvas
+     * @param x x-coordinate in the canvas
+     * @param y y-coordinate in the canvas
+     * @return Number of the ball court, -1 if there is none
+     */
+    public int courtAt(int x, int y) {
+        int col = x / tileWidth;
+        int row = y / tileHeight;
+        if ( x < 0 || y < 0 || col >= columns ) return -1;
+        int[] s = shown;
+        int k = row * columns + col;
+        return ( k < s.length ) ? s[k] : -1;
+    }
+
+    /**
+     * Draw the courts of the current page, each one scaled by the
+     * zoom factor into its tile
+     */
+    @Override
+    protected void draw(Graphics g, int width, int height) {
+        final BallCourtFrame[] fs = frames;
+        final double zoom = ZOOMS[zoomIndex];
+
+        // All tiles have the size of the largest court
+        int courtWidth = 0;
+        int courtHeight = 0;
+        int count = 0;
+        for ( BallCourtFrame f : fs ) {
+            if ( f != null ) {
+                Court c = f.getBallCourt().getCourt();
+                courtWidth = Math.max(courtWidth, c.getWidth());
+                courtHeight = Math.max(courtHeight, c.getHeight());
+                count++;
+            }
+        }
+        final int tw = Math.max(1, (int)Math.ceil((courtWidth + TILE_MARGIN) * zoom));
+        final int th = Math.max(1, (int)Math.ceil((courtHeight + TILE_MARGIN) * zoom)) + LABEL_HEIGHT;
+        final int cols = Math.max(1, width / tw);
+        final int rows = Math.max(1, height / th);
+        final int perPage = cols * rows;
+        final int pages = Math.max(1, (count + perPage - 1) / perPage);
+        final int p = Math.min(page, pages - 1);
+
+        int[] s = shown;
+        if ( s.length != perPage ) {
+            s = new int[perPage];
+        }
+        Arrays.fill(s, -1);
+
+        SpriteCache cache = SpriteCache.forGraphics(g);
+        int k = 0;
+        for ( int no = 0; no < fs.length; no++ ) {
+            BallCourtFrame f = fs[no];
+            if ( f == null ) continue;
+            int tile = k++ - p * perPage;
+            if ( tile < 0 ) continue;
+            if ( tile >= perPage ) break;
+            s[tile] = no;
+
+            int x = (tile % cols) * tw;
+            int y = (tile / cols) * th;
+            Graphics2D tg = (Graphics2D)g.create(x, y, tw, th - LABEL_HEIGHT);
+            try {
+                tg.scale(zoom, zoom);
+                f.getBallCourt().draw(tg);
+            }
+            finally {
+                tg.dispose();
+            }
+            cache.drawText(g, LABEL_PREFIX, no, x + 4, y + th - 3);
+            if ( no == selected ) {
+                g.setColor(SELECTION_COLOR);
+                g.drawRect(x, y, tw - 1, th - 1);
+                g.setColor(Color.BLACK);
+            }
+        }
+
+        tileWidth = tw;
+        tileHeight = th;
+        columns = cols;
+        pageCount = pages;
+        page = p;
+        shown = s;
+    }
+}
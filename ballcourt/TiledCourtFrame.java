@@ -0,0 +1,194 @@
+package ballcourt;
+
+
+/**
+ * Window showing all ball courts as tiles of a single view
+ * (see class TiledCourtCanvas). The view is controlled by the keyboard
+ * and the mouse:
+ * <ul>
+ * <li> + and - or the mouse wheel change the zoom factor
+ * <li> Page Down / Page Up (or the arrow keys) show the next or previous page
+ * <li> a mouse click selects the court under the mouse pointer
+ * </ul>
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+
+import java.awt.*;
+import java.awt.event.*;
+import java.util.function.IntConsumer;
+import javax.swing.*;
+
+
+public class TiledCourtFrame extends JFrame
+{
+
+    /** Title of the window, followed by page and zoom information */
+    private static final String TITLE = "Ball Courts";
+
+    /** The canvas drawing the tiles */
+    private final TiledCourtCanvas canvas = new TiledCourtCanvas();
+
+    /** Called with the number of a ball court clicked by the user */
+    private IntConsumer selectionListener = no -> { };
+
+    /** Page shown when the title was updated last */
+    private int titlePage = -1;
+    /** Number of pages when the title was updated last */
+    private int titlePageCount = -1;
+    /** Zoom factor when the title was updated last */
+    private double titleZoom = -1;
+
+    /** Flag indicating that the window is iconified */
+    private volatile boolean iconified;
+
+    /**
+     * Constructor for a tiled court window. The window is not made visible.
+     * @param xOrigin The x-coordinate of the upper left courner of the window on the display
+     * @param yOrigin The y-coordinate of the upper left courner of the window on the display
+     * @param width The width of the window
+     * @param height The height of the window
+     */
+    public TiledCourtFrame(int xOrigin, int yOrigin, int width, int height) {
+        super(TITLE);
+        setSize(width,height);
+        setLocation(xOrigin,yOrigin);
+        setIgnoreRepaint(true);
+        add(canvas);
+
+        addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowIconified(WindowEvent e) {
+                    iconified = true;
+                }
+
+                @Override
+                public void windowDeiconified(WindowEvent e) {
+                    iconified = false;
+                }
+            });
+
+        canvas.addKeyListener(new KeyAdapter() {
+                @Override
+                public void keyPressed(KeyEvent e) {
+                    switch ( e.getKeyCode() ) {
+                        case KeyEvent.VK_PLUS:
+                        case KeyEvent.VK_ADD:
+                        case KeyEvent.VK_EQUALS:
+                            canvas.zoomIn();
+                            break;
+                        case KeyEvent.VK_MINUS:
+                        case KeyEvent.VK_SUBTRACT:
+                            canvas.zoomOut();
+                            break;
+                        case KeyEvent.VK_PAGE_DOWN:
+                        case KeyEvent.VK_RIGHT:
+                        case KeyEvent.VK_DOWN:
+                            canvas.nextPage();
+                            break;
+                        case KeyEvent.VK_PAGE_UP:
+                        case KeyEvent.VK_LEFT:
+                        case KeyEvent.VK_UP:
+                            canvas.previousPage();
+                            break;
+                        default:
+                            return;
+                    }
+                    updateTitle();
+                }
+            });
+
+        canvas.addMouseWheelListener(e -> {
+                if ( e.getWheelRotation() < 0 ) {
+                    canvas.zoomIn();
+                }
+                else {
+                    canvas.zoomOut();
+                }
+                updateTitle();
+            });
+
+        canvas.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    canvas.requestFocusInWindow();
+                    int no = canvas.courtAt(e.getX(), e.getY());
+                    if ( no >= 0 ) {
+                        selectionListener.accept(no);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Set the listener called with the number of a ball court
+     * clicked by the user
+     * @param listener The listener
+     */
+    public void setSelectionListener(IntConsumer listener) {
+        selectionListener = listener;
+    }
+
+    /**
+     * Get the canvas drawing the tiles
+     * @return The canvas
+     */
+    public TiledCourtCanvas getCanvas() {
+        return canvas;
+    }
+
+    /**
+     * Set the ball court drawn with a highlighted frame
+     * @param bcNo Number of the ball court, -1 for none
+     */
+    public void setSelected(int bcNo) {
+        canvas.setSelected(bcNo);
+    }
+
+    /**
+     * Return true iff the window is showing on the screen and not iconified
+     */
+    public boolean isRenderable() {
+        return !iconified && isShowing();
+    }
+
+    /**
+     * Check whether a ball court can be seen in the window
+     * @param bcNo Number of the ball court
+     * @return true iff the window can be seen and shows the court
+     */
+    public boolean isShown(int bcNo) {
+        return isRenderable() && canvas.isShown(bcNo);
+    }
+
+    /**
+     * Draw the courts of the given frames into the window and present them.
+     * Nothing is done while the window cannot be seen.
+     * The method is called by the render thread.
+     * @param frames Array of ball court frames, indexed by number
+     */
+    public void render(BallCourtFrame[] frames) {
+        if ( !isRenderable() ) return;
+        canvas.setFrames(frames);
+        canvas.render();
+        if ( canvas.getPage() != titlePage || canvas.getPageCount() != titlePageCount ) {
+            SwingUtilities.invokeLater(this::updateTitle);
+        }
+    }
+
+    /**
+     * Show the current page and zoom factor in the window title
+     */
+    private void updateTitle() {
+        int page = canvas.getPage();
+        int pageCount = canvas.getPageCount();
+        double zoom = canvas.getZoom();
+        if ( page == titlePage && pageCount == titlePageCount && zoom == titleZoom ) return;
+        titlePage = page;
+        titlePageCount = pageCount;
+        titleZoom = zoom;
+        setTitle(TITLE + " - page " + (page + 1) + "/" + pageCount
+                 + " - zoom " + Math.round(zoom * 100) + "%");
+    }
+}
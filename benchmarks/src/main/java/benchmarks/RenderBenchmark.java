@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import ballcourt.*;
+
+/**
+ * JMH benchmark of the render hot path: painting a ball court
+ * into an off-screen BufferedImage, parameterised like
+ * SimulationBenchmark.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class RenderBenchmark
+{
+
+    /** Distance of the court rectangle from the image border */
+    private static final int MARGIN = 10;
+
+    /** Number of balls in the court */
+    @Param({"1", "100", "10000"})
+    int balls;
+
+    /** Width and height of the court */
+    @Param({"300", "3000"})
+    int size;
+
+    /** Number of players in the court */
+    @Param({"1", "16"})
+    int players;
+
+    /**
+     * Drawing mode: "auto" draws a heatmap above the default threshold
+     * (see BallCourt.setHeatmapThreshold), "balls" always draws every ball
+     */
+    @Param({"auto", "balls"})
+    String mode;
+
+    /** The ball court view under test */
+    private BallCourt bc;
+    /** The off-screen image painted into */
+    private BufferedImage image;
+    /** Graphics context of the image */
+    private Graphics2D g;
+
+    /**
+     * Create the court, its view and the off-screen image
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        Court court = SimulationBenchmark.createCourt(size, balls, players);
+        bc = new BallCourt(court, MARGIN, MARGIN);
+        if ( mode.equals("balls") ) {
+            bc.setHeatmapThreshold(Integer.MAX_VALUE);
+        }
+        image = new BufferedImage(size + 2*MARGIN, size + 2*MARGIN, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+    }
+
+    /** Release the graphics context */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    /** Clear the image and paint the court into it */
+    @Benchmark
+    public BufferedImage paint() {
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setColor(Color.BLACK);
+        bc.draw(g);
+        return image;
+    }
+}
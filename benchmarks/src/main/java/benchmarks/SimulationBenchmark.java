@@ -0,0 +1,98 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import ballcourt.*;
+
+/**
+ * JMH benchmarks of the simulation hot paths: moving a single ball,
+ * moving a single player and stepping a whole court.
+ * The court is parameterised by ball count, court size and player count
+ * and is seeded, so that all runs simulate the same trajectories.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class SimulationBenchmark
+{
+
+    /** Seed of the benchmark courts */
+    static final long SEED = 20200125L;
+
+    /** Number of balls in the court */
+    @Param({"1", "100", "10000"})
+    int balls;
+
+    /** Width and height of the court */
+    @Param({"300", "3000"})
+    int size;
+
+    /** Number of players in the court */
+    @Param({"1", "16"})
+    int players;
+
+    /** The court under test */
+    private Court court;
+    /** The first ball of the court */
+    private Ball ball;
+    /** The first player of the court */
+    private Player player;
+
+    /**
+     * Create the court under test
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        court = createCourt(size, balls, players);
+        ball = court.getBall();
+        player = court.getPlayer();
+    }
+
+    /**
+     * Create a seeded court with the given parameters. The first ball
+     * starts in the upper left corner, the others are placed randomly;
+     * the players are spread evenly in x-direction, player k tracking
+     * ball k modulo the number of balls.
+     * @param size Width and height of the court
+     * @param balls Number of balls
+     * @param players Number of players
+     * @return The new court
+     */
+    static Court createCourt(int size, int balls, int players) {
+        Court court = new Court(size, size, SEED);
+        court.addBall(new Ball(court, 0, 0));
+        court.addBalls(balls - 1);
+        for ( int k = 0; k < players; k++ ) {
+            Player player = new Player(court, (k + 1) * size / (players + 1), size / 2, 5);
+            player.setTarget(k % balls);
+            court.addPlayer(player);
+        }
+        return court;
+    }
+
+    /** Move the first ball of the court by one step */
+    @Benchmark
+    public void ballMove() {
+        ball.move();
+    }
+
+    /** Move the first player of the court by one step */
+    @Benchmark
+    public void playerMove() {
+        player.move();
+    }
+
+    /** Step the whole court: all balls and all players */
+    @Benchmark
+    public void courtMove() {
+        court.move();
+    }
+}
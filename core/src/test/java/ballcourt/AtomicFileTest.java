@@ -0,0 +1,69 @@
+package ballcourt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of class AtomicFile and of the files saved through it.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+public class AtomicFileTest
+{
+
+    /** Directory receiving the files written by the tests */
+    @TempDir
+    Path dir;
+
+    /** Return the names of the files in the test directory */
+    private List<String> files() throws IOException {
+        try ( Stream<Path> s = Files.list(dir) ) {
+            return s.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void replacesTarget() throws IOException {
+        Path file = dir.resolve("court.bcs");
+        Files.write(file, new byte[] { 1, 2, 3 });
+        AtomicFile.replace(file, tmp -> Files.write(tmp, new byte[] { 4, 5 }));
+        assertArrayEquals(new byte[] { 4, 5 }, Files.readAllBytes(file));
+        assertEquals(List.of("court.bcs"), files());
+    }
+
+    @Test
+    public void failedWriteKeepsTargetAndRemovesTemporaryFile() throws IOException {
+        Path file = dir.resolve("court.bcs");
+        Files.write(file, new byte[] { 1, 2, 3 });
+        IOException ex = assertThrows(IOException.class, () -> AtomicFile.replace(file, tmp -> {
+                    Files.write(tmp, new byte[] { 4 });
+                    throw new IOException("disk full");
+                }));
+        assertEquals("disk full", ex.getMessage());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file));
+        assertEquals(List.of("court.bcs"), files());
+    }
+
+    @Test
+    public void failedSessionSaveRemovesTemporaryFile() throws IOException {
+        Path file = dir.resolve("session.bcz");
+        Court court = new Court(300, 200, 1L);
+        court.addBalls(3);
+        ByteBuffer snapshot = CourtSnapshot.snapshot(court);
+        // Duplicate entry names make the ZIP writer fail after the TOC
+        assertThrows(IOException.class,
+                     () -> SessionArchive.save(file, new int[] { 0, 0 }, new ByteBuffer[] { snapshot, snapshot }));
+        assertEquals(List.of(), files());
+    }
+}
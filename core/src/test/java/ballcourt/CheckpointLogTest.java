@@ -0,0 +1,233 @@
+package ballcourt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Round-trip tests of class CheckpointLog: checkpoints are appended
+ * while a court is simulated, then loaded back from the reopened log
+ * and compared with the snapshots taken when they were appended.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+public class CheckpointLogTest
+{
+
+    /** Number of checkpoints written by most tests */
+    private static final int CHECKPOINTS = 40;
+
+    /** Directory receiving the log files, removed after each test */
+    @TempDir
+    Path dir;
+
+    /**
+     * Create a court with a player and enough balls that a delta
+     * is smaller than a keyframe
+     */
+    private static Court createCourt() {
+        Court court = new Court(400, 300, 42L);
+        court.addBalls(50);
+        Player player = new Player(court, 200, 150, 5);
+        player.setTarget(0);
+        court.addPlayer(player);
+        return court;
+    }
+
+    /**
+     * Simulate a court and append a checkpoint after every step
+     * @param log The log
+     * @param court The court
+     * @param count Number of checkpoints
+     * @param snapshots List receiving the snapshots appended
+     */
+    private static void record(CheckpointLog log, Court court, int count, List<ByteBuffer> snapshots)
+        throws IOException {
+        for ( int k = 0; k < count; k++ ) {
+            ByteBuffer s = CourtSnapshot.snapshot(court);
+            log.append(s);
+            snapshots.add(s);
+            court.move();
+        }
+    }
+
+    /**
+     * Write a log with the given keyframe interval and check that
+     * every checkpoint is restored exactly and that the keyframes
+     * are where the interval puts them
+     * @param interval Keyframe interval
+     */
+    private void checkRoundTrip(int interval) throws IOException {
+        Path file = dir.resolve("court.bcc");
+        List<ByteBuffer> snapshots = new ArrayList<>();
+        try ( CheckpointLog log = CheckpointLog.create(file, interval) ) {
+            record(log, createCourt(), CHECKPOINTS, snapshots);
+        }
+        try ( CheckpointLog log = CheckpointLog.open(file) ) {
+            assertEquals(interval, log.getKeyframeInterval());
+            assertEquals(CHECKPOINTS, log.getCheckpointCount());
+            for ( int k = 0; k < CHECKPOINTS; k++ ) {
+                assertEquals(k % (interval + 1) == 0, log.isKeyframe(k), "kind of checkpoint " + k);
+                assertEquals(snapshots.get(k), log.loadSnapshot(k), "checkpoint " + k);
+            }
+        }
+    }
+
+    @Test
+    public void onlyKeyframesWithIntervalZero() throws IOException {
+        checkRoundTrip(0);
+    }
+
+    @Test
+    public void alternatingKeyframesWithIntervalOne() throws IOException {
+        checkRoundTrip(1);
+    }
+
+    @Test
+    public void keyframeAfterEveryNDeltas() throws IOException {
+        checkRoundTrip(7);
+    }
+
+    @Test
+    public void deltasAreSmallerThanKeyframes() throws IOException {
+        Path file = dir.resolve("court.bcc");
+        List<ByteBuffer> snapshots = new ArrayList<>();
+        try ( CheckpointLog log = CheckpointLog.create(file, CHECKPOINTS) ) {
+            record(log, createCourt(), CHECKPOINTS, snapshots);
+            long total = 0;
+            for ( ByteBuffer s : snapshots ) {
+                total += s.remaining();
+            }
+            assertTrue(log.getDataSize() < total / 2, "data size " + log.getDataSize() + " of " + total);
+        }
+    }
+
+    @Test
+    public void changedBallOrPlayerCountForcesKeyframe() throws IOException {
+        Path file = dir.resolve("court.bcc");
+        List<ByteBuffer> snapshots = new ArrayList<>();
+        Court court = createCourt();
+        try ( CheckpointLog log = CheckpointLog.create(file, CHECKPOINTS) ) {
+            record(log, court, 5, snapshots);
+            court.addBalls(3);
+            record(log, court, 5, snapshots);
+            court.addPlayer(new Player(court, 100, 100, 5));
+            record(log, court, 5, snapshots);
+        }
+        try ( CheckpointLog log = CheckpointLog.open(file) ) {
+            assertEquals(15, log.getCheckpointCount());
+            for ( int k = 0; k < 15; k++ ) {
+                assertEquals(k % 5 == 0, log.isKeyframe(k), "kind of checkpoint " + k);
+                assertEquals(snapshots.get(k), log.loadSnapshot(k), "checkpoint " + k);
+            }
+            assertEquals(53, log.load(7).getBallCount());
+            assertEquals(2, log.load(12).getPlayerCount());
+        }
+    }
+
+    @Test
+    public void loadingOutOfOrderMatchesLoadingInOrder() throws IOException {
+        Path file = dir.resolve("court.bcc");
+        List<ByteBuffer> snapshots = new ArrayList<>();
+        try ( CheckpointLog log = CheckpointLog.create(file, 8) ) {
+            record(log, createCourt(), CHECKPOINTS, snapshots);
+        }
+        List<ByteBuffer> inOrder = new ArrayList<>();
+        try ( CheckpointLog log = CheckpointLog.open(file) ) {
+            for ( int k = 0; k < CHECKPOINTS; k++ ) {
+                inOrder.add(log.loadSnapshot(k));
+            }
+        }
+        int[] order = { 39, 3, 17, 16, 0, 38, 9, 9, 26, 1, 25, 24, 8, 7, 33 };
+        try ( CheckpointLog log = CheckpointLog.open(file) ) {
+            for ( int k : order ) {
+                ByteBuffer s = log.loadSnapshot(k);
+                assertEquals(inOrder.get(k), s, "checkpoint " + k);
+                assertEquals(snapshots.get(k), s, "checkpoint " + k);
+            }
+        }
+    }
+
+    @Test
+    public void loadWhileAppending() throws IOException {
+        Path file = dir.resolve("court.bcc");
+        List<ByteBuffer> snapshots = new ArrayList<>();
+        try ( CheckpointLog log = CheckpointLog.create(file, 4) ) {
+            Court court = createCourt();
+            for ( int k = 0; k < 20; k++ ) {
+                record(log, court, 1, snapshots);
+                assertEquals(snapshots.get(k), log.loadSnapshot(k));
+                assertEquals(snapshots.get(k / 2), log.loadSnapshot(k / 2));
+            }
+        }
+    }
+
+    @Test
+    public void truncatedIndexKeepsCompleteEntries() throws IOException {
+        Path file = dir.resolve("court.bcc");
+        List<ByteBuffer> snapshots = new ArrayList<>();
+        try ( CheckpointLog log = CheckpointLog.create(file, 4) ) {
+            record(log, createCourt(), 10, snapshots);
+        }
+        Path index = CheckpointLog.indexFile(file);
+        try ( FileChannel ch = FileChannel.open(index, StandardOpenOption.WRITE) ) {
+            // Cut the last entry in half, as an interrupted write would
+            ch.truncate(ch.size() - 8);
+        }
+        try ( CheckpointLog log = CheckpointLog.open(file) ) {
+            assertEquals(9, log.getCheckpointCount());
+            for ( int k = 0; k < 9; k++ ) {
+                assertEquals(snapshots.get(k), log.loadSnapshot(k), "checkpoint " + k);
+            }
+        }
+    }
+
+    @Test
+    public void truncatedDataFileDropsIncompleteRecords() throws IOException {
+        Path file = dir.resolve("court.bcc");
+        List<ByteBuffer> snapshots = new ArrayList<>();
+        try ( CheckpointLog log = CheckpointLog.create(file, 4) ) {
+            record(log, createCourt(), 10, snapshots);
+        }
+        try ( FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE) ) {
+            ch.truncate(ch.size() - 1);
+        }
+        try ( CheckpointLog log = CheckpointLog.open(file) ) {
+            assertEquals(9, log.getCheckpointCount());
+            assertEquals(snapshots.get(8), log.loadSnapshot(8));
+        }
+    }
+
+    @Test
+    public void indexWithoutEntriesOpensEmpty() throws IOException {
+        Path file = dir.resolve("court.bcc");
+        try ( CheckpointLog log = CheckpointLog.create(file, 4) ) {
+            assertEquals(0, log.getCheckpointCount());
+        }
+        try ( CheckpointLog log = CheckpointLog.open(file) ) {
+            assertEquals(0, log.getCheckpointCount());
+            assertThrows(IndexOutOfBoundsException.class, () -> log.loadSnapshot(0));
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("court.bcc");
+        try ( CheckpointLog log = CheckpointLog.create(file, 4) ) {
+            log.append(createCourt());
+        }
+        // A court snapshot in place of the data file
+        CourtSnapshot.save(createCourt(), file);
+        assertThrows(IOException.class, () -> CheckpointLog.open(file));
+    }
+}
@@ -0,0 +1,236 @@
+package ballcourt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the snapshot format of class CourtSnapshot: round trips of
+ * the current version, reading version 1 snapshots such as the court
+ * files committed with the project, and converting the serialized
+ * frames of earlier versions with class LegacyFrameReader.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+public class CourtSnapshotTest
+{
+
+    /** Names of the court files committed at the top of the repository */
+    private static final String[] COMMITTED = { "BC_0", "BC_1", "BC_2" };
+
+    /** Directory receiving the files written by the tests */
+    @TempDir
+    Path dir;
+
+    /**
+     * Return a file committed at the top of the repository
+     * @param name File name
+     */
+    private static Path committed(String name) {
+        return Paths.get(System.getProperty("bouncingball.root", ".."), name);
+    }
+
+    /**
+     * Create a court in which every field of the snapshot has a value
+     * different from its default
+     */
+    private static Court createCourt() {
+        Court court = new Court(640, 480, 0x1234_5678_9ABCL);
+        court.setBallCollisions(false);
+        court.setTimeStep(3);
+        court.addBalls(25);
+        Player left = new Player(court, 100, 200, 4);
+        left.setTarget(3);
+        court.addPlayer(left);
+        Player right = new Player(court, 500, 50, 7);
+        right.setTarget(17);
+        court.addPlayer(right);
+        for ( int t = 0; t < 200; t++ ) {
+            court.move();
+        }
+        return court;
+    }
+
+    /**
+     * Check that two courts agree in every field stored in a snapshot
+     * @param expected The original court
+     * @param actual The court read back
+     */
+    static void assertSameCourt(Court expected, Court actual) {
+        assertEquals(expected.getSeed(), actual.getSeed(), "seed");
+        assertEquals(expected.getRandomState(), actual.getRandomState(), "random state");
+        assertSameGame(expected, actual);
+    }
+
+    /**
+     * Check that two courts agree in every field of a snapshot except
+     * the state of the random number generator, which serialized frames
+     * of earlier versions do not contain
+     * @param expected The original court
+     * @param actual The court read back
+     */
+    static void assertSameGame(Court expected, Court actual) {
+        assertEquals(expected.getWidth(), actual.getWidth(), "width");
+        assertEquals(expected.getHeight(), actual.getHeight(), "height");
+        assertEquals(expected.getTimeStep(), actual.getTimeStep(), "time step");
+        assertEquals(expected.isBallCollisions(), actual.isBallCollisions(), "ball collisions");
+        assertEquals(expected.getPlayerCount(), actual.getPlayerCount(), "players");
+        for ( int k = 0; k < expected.getPlayerCount(); k++ ) {
+            Player e = expected.getPlayer(k);
+            Player a = actual.getPlayer(k);
+            assertEquals(e.getPosX(), a.getPosX(), "x of player " + k);
+            assertEquals(e.getPosY(), a.getPosY(), "y of player " + k);
+            assertEquals(e.getVelY(), a.getVelY(), "dy of player " + k);
+            assertEquals(e.getMaxVelY(), a.getMaxVelY(), "maxVelY of player " + k);
+            assertEquals(e.getScore(), a.getScore(), "score of player " + k);
+            assertEquals(e.getTarget(), a.getTarget(), "target of player " + k);
+        }
+        assertEquals(expected.getBallCount(), actual.getBallCount(), "balls");
+        for ( int i = 0; i < expected.getBallCount(); i++ ) {
+            assertEquals(expected.getBallPosX(i), actual.getBallPosX(i), "x of ball " + i);
+            assertEquals(expected.getBallPosY(i), actual.getBallPosY(i), "y of ball " + i);
+            assertEquals(expected.getBallVelX(i), actual.getBallVelX(i), "dx of ball " + i);
+            assertEquals(expected.getBallVelY(i), actual.getBallVelY(i), "dy of ball " + i);
+            assertEquals(expected.getBallHit(i), actual.getBallHit(i), "hit flag of ball " + i);
+        }
+    }
+
+    /**
+     * Convert a snapshot of the current version into version 1,
+     * which has no target ball per player
+     * @param v2 The snapshot, positioned at its start
+     * @return The version 1 snapshot
+     */
+    private static ByteBuffer toVersion1(ByteBuffer v2) {
+        final int players = v2.getInt(CourtSnapshot.HEADER_SIZE - 4);
+        ByteBuffer v1 = ByteBuffer.allocate(v2.remaining() - 4 * players);
+        ByteBuffer header = v2.duplicate();
+        header.limit(CourtSnapshot.HEADER_SIZE);
+        v1.put(header);
+        v1.putShort(4, (short)1);
+        for ( int k = 0; k < players; k++ ) {
+            final int base = CourtSnapshot.HEADER_SIZE + k * CourtSnapshot.PLAYER_SIZE;
+            for ( int f = 0; f < 5; f++ ) {
+                v1.putInt(v2.getInt(base + 4 * f));
+            }
+        }
+        ByteBuffer balls = v2.duplicate();
+        balls.position(CourtSnapshot.HEADER_SIZE + players * CourtSnapshot.PLAYER_SIZE);
+        v1.put(balls);
+        v1.flip();
+        return v1;
+    }
+
+    @Test
+    public void roundTripKeepsEveryField() throws IOException {
+        Court court = createCourt();
+        ByteBuffer snapshot = CourtSnapshot.snapshot(court);
+        assertEquals(CourtSnapshot.size(court), snapshot.remaining());
+        assertEquals(CourtSnapshot.VERSION, snapshot.getShort(4));
+
+        ByteBuffer buf = snapshot.duplicate();
+        Court read = CourtSnapshot.read(buf);
+        assertFalse(buf.hasRemaining());
+        assertSameCourt(court, read);
+        assertEquals(snapshot, CourtSnapshot.snapshot(read));
+    }
+
+    @Test
+    public void restoredCourtEvolvesIdentically() throws IOException {
+        Court court = createCourt();
+        Court read = CourtSnapshot.read(CourtSnapshot.snapshot(court));
+        for ( int t = 0; t < 100; t++ ) {
+            court.move();
+            read.move();
+        }
+        assertSameCourt(court, read);
+    }
+
+    @Test
+    public void saveAndLoadFile() throws IOException {
+        Court court = createCourt();
+        Path file = dir.resolve("court.bcs");
+        CourtSnapshot.save(court, file);
+        assertSameCourt(court, CourtSnapshot.load(file));
+        try ( var files = Files.list(dir) ) {
+            assertEquals(1, files.count(), "temporary file left behind");
+        }
+    }
+
+    @Test
+    public void readsVersion1() throws IOException {
+        Court court = createCourt();
+        Court read = CourtSnapshot.read(toVersion1(CourtSnapshot.snapshot(court)));
+        for ( int k = 0; k < court.getPlayerCount(); k++ ) {
+            assertEquals(0, read.getPlayer(k).getTarget(), "target of player " + k);
+            court.getPlayer(k).setTarget(0);
+        }
+        assertSameCourt(court, read);
+    }
+
+    @Test
+    public void readsCommittedVersion1Files() throws IOException {
+        for ( String name : COMMITTED ) {
+            Path file = committed(name + ".bcs");
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            assertEquals(CourtSnapshot.MAGIC, buf.getInt(0), name);
+            assertEquals(1, buf.getShort(4), name);
+
+            Court court = CourtSnapshot.load(file);
+            assertEquals(300, court.getWidth(), name);
+            assertEquals(300, court.getHeight(), name);
+            assertEquals(1, court.getBallCount(), name);
+            assertEquals(1, court.getPlayerCount(), name);
+
+            // Written again, the court is stored in the current version
+            ByteBuffer v2 = CourtSnapshot.snapshot(court);
+            assertEquals(CourtSnapshot.VERSION, v2.getShort(4), name);
+            assertEquals(ByteBuffer.wrap(bytes), toVersion1(v2), name);
+            assertSameCourt(court, CourtSnapshot.read(v2));
+        }
+    }
+
+    @Test
+    public void convertsLegacyFrames() throws IOException {
+        for ( String name : COMMITTED ) {
+            Path ser = committed(name + ".ser");
+            assertTrue(LegacyFrameReader.isLegacyFile(ser), name);
+            assertFalse(LegacyFrameReader.isLegacyFile(committed(name + ".bcs")), name);
+
+            // Courts of earlier versions had no seed, so a converted
+            // court gets a new one
+            Court legacy = LegacyFrameReader.readCourt(ser);
+            assertSameGame(CourtSnapshot.load(committed(name + ".bcs")), legacy);
+
+            Path converted = dir.resolve(name + ".bcs");
+            LegacyFrameReader.convert(ser, converted);
+            assertSameGame(legacy, CourtSnapshot.load(converted));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidSnapshots() {
+        ByteBuffer snapshot = CourtSnapshot.snapshot(createCourt());
+
+        ByteBuffer magic = ByteBuffer.allocate(snapshot.remaining()).put(snapshot.duplicate());
+        magic.putInt(0, 0x12345678).flip();
+        assertThrows(IOException.class, () -> CourtSnapshot.read(magic));
+
+        ByteBuffer version = ByteBuffer.allocate(snapshot.remaining()).put(snapshot.duplicate());
+        version.putShort(4, (short)(CourtSnapshot.VERSION + 1)).flip();
+        assertThrows(IOException.class, () -> CourtSnapshot.read(version));
+
+        ByteBuffer truncated = snapshot.duplicate();
+        truncated.limit(truncated.limit() - 1);
+        assertThrows(IOException.class, () -> CourtSnapshot.read(truncated));
+    }
+}
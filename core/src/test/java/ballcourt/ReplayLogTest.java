@@ -0,0 +1,235 @@
+package ballcourt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Round-trip tests of class ReplayLog: ticks are recorded, the log is
+ * closed and reopened, and the ticks are loaded back into a court.
+ * The courts have enough balls that a few hundred ticks span several
+ * mapped chunks of the file.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+public class ReplayLogTest
+{
+
+    /** Target size of a mapped chunk, as in class ReplayLog */
+    private static final int CHUNK_BYTES = 16 << 20;
+
+    /** Number of balls of the large court */
+    private static final int BALLS = 20000;
+
+    /** Number of players of the courts */
+    private static final int PLAYERS = 2;
+
+    /** Size of the log header for PLAYERS players in bytes */
+    private static final int HEADER_SIZE = 40 + 8 * PLAYERS;
+
+    /** Directory receiving the log files, removed after each test */
+    @TempDir
+    Path dir;
+
+    /**
+     * Create a court to be recorded
+     * @param balls Number of balls
+     */
+    private static Court createCourt(int balls) {
+        Court court = new Court(1000, 800, 3L);
+        court.addBalls(balls);
+        court.addPlayer(new Player(court, 100, 300, 4));
+        court.addPlayer(new Player(court, 900, 500, 6));
+        return court;
+    }
+
+    /** Return the size of a record of a court in bytes */
+    private static int recordBytes(Court court) {
+        return 4 * (4 * court.getBallCount() + 3 * court.getPlayerCount());
+    }
+
+    /**
+     * Set the state of a court to values derived from a tick number,
+     * so that every field differs between ticks and between balls.
+     * The arrays are written directly instead of simulating the court,
+     * which would take long for the large court.
+     * @param court The court
+     * @param tick Number of the tick
+     */
+    private static void setTick(Court court, int tick) {
+        final int n = court.getBallCount();
+        final int[] x = court.ballXArray();
+        final int[] y = court.ballYArray();
+        final int[] dx = court.ballDxArray();
+        final int[] dy = court.ballDyArray();
+        for ( int i = 0; i < n; i++ ) {
+            x[i] = tick * 7 + i;
+            y[i] = tick * 13 - i;
+            dx[i] = (tick + i) % 21 - 10;
+            dy[i] = (tick * 3 + i) % 21 - 10;
+        }
+        for ( int k = 0; k < court.getPlayerCount(); k++ ) {
+            court.getPlayer(k).restore(tick + k, k - tick % 5, tick * (k + 1));
+        }
+    }
+
+    /**
+     * Check that a court holds the state set by setTick
+     * @param court The court
+     * @param tick Number of the tick
+     */
+    private static void assertTick(Court court, int tick) {
+        final int n = court.getBallCount();
+        for ( int i = 0; i < n; i++ ) {
+            if ( court.getBallPosX(i) != tick * 7 + i || court.getBallPosY(i) != tick * 13 - i
+                 || court.getBallVelX(i) != (tick + i) % 21 - 10
+                 || court.getBallVelY(i) != (tick * 3 + i) % 21 - 10 ) {
+                fail("Ball " + i + " of tick " + tick + " differs");
+            }
+        }
+        for ( int k = 0; k < court.getPlayerCount(); k++ ) {
+            Player p = court.getPlayer(k);
+            assertEquals(tick + k, p.getPosY(), "y of player " + k + " in tick " + tick);
+            assertEquals(k - tick % 5, p.getVelY(), "dy of player " + k + " in tick " + tick);
+            assertEquals(tick * (k + 1), p.getScore(), "score of player " + k + " in tick " + tick);
+        }
+    }
+
+    /**
+     * Record ticks 0..ticks-1 of a court
+     * @param log The log
+     * @param court The court
+     * @param ticks Number of ticks
+     */
+    private static void record(ReplayLog log, Court court, int ticks) throws IOException {
+        for ( int t = 0; t < ticks; t++ ) {
+            setTick(court, t);
+            log.record(court);
+        }
+    }
+
+    @Test
+    public void recordCloseReopenLoadAcrossChunks() throws IOException {
+        Path file = dir.resolve("court.bcr");
+        Court court = createCourt(BALLS);
+        final int chunkRecords = CHUNK_BYTES / recordBytes(court);
+        final int ticks = 2 * chunkRecords + 10;
+        try ( ReplayLog log = ReplayLog.create(file, court) ) {
+            record(log, court, ticks);
+            assertEquals(ticks, log.getTickCount());
+        }
+        // close truncates the last mapped chunk to the recorded ticks
+        assertEquals(HEADER_SIZE + (long)ticks * recordBytes(court), Files.size(file));
+
+        try ( ReplayLog log = ReplayLog.open(file) ) {
+            assertEquals(ticks, log.getTickCount());
+            Court replay = log.createCourt();
+            assertEquals(court.getWidth(), replay.getWidth());
+            assertEquals(court.getHeight(), replay.getHeight());
+            assertEquals(BALLS, replay.getBallCount());
+            assertEquals(PLAYERS, replay.getPlayerCount());
+            for ( int k = 0; k < PLAYERS; k++ ) {
+                assertEquals(court.getPlayer(k).getPosX(), replay.getPlayer(k).getPosX());
+                assertEquals(court.getPlayer(k).getMaxVelY(), replay.getPlayer(k).getMaxVelY());
+            }
+            int[] order = { 0, chunkRecords - 1, chunkRecords, chunkRecords + 1, 2 * chunkRecords,
+                            ticks - 1, 1, 2 * chunkRecords - 1, chunkRecords };
+            for ( int t : order ) {
+                log.load(t, replay);
+                assertTick(replay, t);
+            }
+        }
+    }
+
+    @Test
+    public void loadOutsideTheLogFails() throws IOException {
+        Path file = dir.resolve("court.bcr");
+        Court court = createCourt(10);
+        try ( ReplayLog log = ReplayLog.create(file, court) ) {
+            record(log, court, 5);
+        }
+        try ( ReplayLog log = ReplayLog.open(file) ) {
+            Court replay = log.createCourt();
+            log.load(4, replay);
+            assertTick(replay, 4);
+            assertThrows(IndexOutOfBoundsException.class, () -> log.load(5, replay));
+            assertThrows(IndexOutOfBoundsException.class, () -> log.load(-1, replay));
+        }
+    }
+
+    @Test
+    public void emptyLog() throws IOException {
+        Path file = dir.resolve("court.bcr");
+        Court court = createCourt(10);
+        try ( ReplayLog log = ReplayLog.create(file, court) ) {
+            assertEquals(0, log.getTickCount());
+        }
+        assertEquals(HEADER_SIZE, Files.size(file));
+        try ( ReplayLog log = ReplayLog.open(file) ) {
+            assertEquals(0, log.getTickCount());
+            assertThrows(IndexOutOfBoundsException.class, () -> log.load(0, log.createCourt()));
+        }
+    }
+
+    @Test
+    public void openWhileRecordingSeesPublishedTicks() throws IOException {
+        Path file = dir.resolve("court.bcr");
+        Court court = createCourt(10);
+        try ( ReplayLog log = ReplayLog.create(file, court) ) {
+            record(log, court, 7);
+            try ( ReplayLog reader = ReplayLog.open(file) ) {
+                assertEquals(7, reader.getTickCount());
+                Court replay = reader.createCourt();
+                reader.load(6, replay);
+                assertTick(replay, 6);
+            }
+        }
+    }
+
+    @Test
+    public void truncatedFileKeepsCompleteTicks() throws IOException {
+        Path file = dir.resolve("court.bcr");
+        Court court = createCourt(10);
+        try ( ReplayLog log = ReplayLog.create(file, court) ) {
+            record(log, court, 20);
+        }
+        try ( FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE) ) {
+            ch.truncate(HEADER_SIZE + 12L * recordBytes(court) + recordBytes(court) / 2);
+        }
+        try ( ReplayLog log = ReplayLog.open(file) ) {
+            assertEquals(12, log.getTickCount());
+            Court replay = log.createCourt();
+            log.load(11, replay);
+            assertTick(replay, 11);
+        }
+    }
+
+    @Test
+    public void recordingChecksTheCourtLayout() throws IOException {
+        Path file = dir.resolve("court.bcr");
+        Court court = createCourt(10);
+        try ( ReplayLog log = ReplayLog.create(file, court) ) {
+            record(log, court, 1);
+            court.addBalls(1);
+            assertThrows(IllegalStateException.class, () -> log.record(court));
+        }
+        try ( ReplayLog log = ReplayLog.open(file) ) {
+            assertThrows(IllegalStateException.class, () -> log.record(court));
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("court.bcs");
+        CourtSnapshot.save(createCourt(10), file);
+        assertThrows(IOException.class, () -> ReplayLog.open(file));
+    }
+}
@@ -3,6 +3,24 @@ import java.awt.Container;
 import java.awt.GridLayout;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.*; 
 
@@ -17,16 +35,77 @@ import ballcourt.*;
 public class BallCourtControl
 {
 
-    /** Maximal number of ball court frames that are simultaneously active */
-    private static final int MAX_FRAMES = 4;
+    /** Initial size of the bcframes array; the array grows on demand */
+    private static final int INITIAL_FRAMES = 4;
 
     /** 
      * Array where ball court frames are registered.
      * The index is also used as the number of the ball court frame.
      * If no ball court frame is associated with an index i,
-     * bcframes[i] == null holds.
+     * bcframes[i] == null holds. The array is never modified after it
+     * has been published: the event dispatch thread replaces it by a
+     * modified copy (see setFrame), so that the threads stepping and
+     * rendering the courts only see completely constructed frames.
      */
-    private BallCourtFrame[] bcframes = new BallCourtFrame[MAX_FRAMES];
+    private volatile BallCourtFrame[] bcframes = new BallCourtFrame[INITIAL_FRAMES];
+
+    /** Worker pool stepping the ball courts in parallel */
+    private final ForkJoinPool stepPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Frames to be stepped in the current tick, reused between ticks */
+    private final List<BallCourtFrame> activeFrames = new ArrayList<>();
+
+    /**
+     * Courts which cannot be seen are only stepped in every
+     * backgroundTickDivisor-th tick, simulating that many ticks at once.
+     * 1 steps all courts in every tick.
+     */
+    private volatile int backgroundTickDivisor = 1;
+
+    /** Number of ticks executed by method step */
+    private long tickCount;
+
+    /**
+     * Single thread writing and reading court snapshots, so that file
+     * I/O blocks neither the event dispatch thread nor the simulation
+     */
+    private final ScheduledExecutorService ioExecutor =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "court-io");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** Executor running completion callbacks on the event dispatch thread */
+    private static final Executor EDT = SwingUtilities::invokeLater;
+
+    /**
+     * Numbers of the ball courts being loaded, or saved and destroyed,
+     * in the background; their buttons stay disabled until completion
+     */
+    private final Set<Integer> pendingIo = new HashSet<>();
+
+    /** Periodic autosave task, null if autosave is off */
+    private ScheduledFuture<?> autosaveTask;
+
+    /** Completion of the autosaves started in the previous period */
+    private CompletableFuture<Void> lastAutosave = CompletableFuture.completedFuture(null);
+
+    /**
+     * Checkpoint logs keeping the autosave history, indexed by ball court
+     * number; only used on the I/O thread
+     */
+    private CheckpointLog[] historyLogs = new CheckpointLog[0];
+
+    /** Frames whose courts are recorded in historyLogs, indexed by ball court number */
+    private BallCourtFrame[] historyFrames = new BallCourtFrame[0];
+
+    /**
+     * Session archives holding courts which have not been decoded yet,
+     * indexed by ball court number; a court is decoded when its number
+     * is selected, or when the tiled view is shown
+     */
+    private SessionArchive[] lazyCourts = new SessionArchive[INITIAL_FRAMES];
 
     /** 
      * Reference to the ball court frame which is currently active.
@@ -37,10 +116,44 @@ public class BallCourtControl
     /** 
      * Index of the ball court frame which is currently active.
      * If no ball court frame is active, currentBcNo == -1 holds.
-     * Otherwise currentBcNo in 0..MAX_FRAMES-1
+     * Otherwise currentBcNo &gt;= 0 holds.
      */
     private int currentBcNo = -1;
 
+    /** Flag indicating that new ball courts are created with seeds derived from seed */
+    private boolean seeded;
+
+    /**
+     * Base seed for new ball courts. Ball court number n is
+     * created with seed + n, so that a run can be reproduced
+     * by creating the same courts with the same base seed.
+     */
+    private long seed;
+
+    /** Flag indicating that new ball court frames use active rendering */
+    private boolean activeRendering;
+
+    /** Flag indicating that new ball courts interpolate positions between ticks */
+    private boolean interpolation = true;
+
+    /** Number of balls above which new ball courts are drawn as a heatmap */
+    private int heatmapThreshold = BallCourt.DEFAULT_HEATMAP_THRESHOLD;
+
+    /** Flag indicating that the ball courts show the heads-up display */
+    private boolean hud;
+
+    /** Menu entry switching the heads-up display on and off */
+    private JCheckBoxMenuItem hudEntry;
+
+    /** Flag indicating that the courts are shown in the tiled window instead of their own windows */
+    private volatile boolean tiled;
+
+    /** Window showing all courts as tiles, created when first needed */
+    private volatile TiledCourtFrame tiledFrame;
+
+    /** Menu entry switching between the tiled window and separate windows */
+    private JCheckBoxMenuItem tiledEntry;
+
     /** File chooser object */
     private static final JFileChooser filechooser = new JFileChooser(System.getProperty("user.dir"));
 
@@ -58,33 +171,68 @@ public class BallCourtControl
     private JButton destroyBcButton;
     /** A button controlling the serialization and destruction of a BC frame */
     private JButton serializeBcButton;
+    /** A button controlling the serialization of a BC frame, which keeps running */
+    private JButton saveBcButton;
     /** The EXIT button */
     private JButton exitButton;
-    /** Radio button 0 */
-    JRadioButton radioButton0;
-    /** Radio button 1 */
-    JRadioButton radioButton1;
-    /** Radio button 2 */
-    JRadioButton radioButton2;
-    /** Radio button 3 */
-    JRadioButton radioButton3;
+    /** Spinner for entering the number of the ball court to be selected */
+    private JSpinner bcNumberSpinner;
+    /** A button selecting the ball court number entered in the spinner */
+    private JButton selectBcButton;
+    /** A button starting and stopping the recording of a BC frame */
+    private JButton recordBcButton;
+    /** A button creating a BC frame replaying a recorded file */
+    private JButton replayBcButton;
+
+    /**
+     * Task stepping a range of the active frames. Ranges with more than
+     * one frame are split in halves, so that the worker pool can
+     * balance courts of different sizes across all cores.
+     */
+    private static class StepTask extends RecursiveAction {
+        /** Frames to be stepped */
+        private final List<BallCourtFrame> frames;
+        /** First index of the range (inclusive) */
+        private final int from;
+        /** Last index of the range (exclusive) */
+        private final int to;
+
+        StepTask(List<BallCourtFrame> frames, int from, int to) {
+            this.frames = frames;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ( to - from == 1 ) {
+                frames.get(from).step();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new StepTask(frames, from, mid), new StepTask(frames, mid, to));
+        }
+    }
 
     /** Inner class for WindowAdapters of BallCourtFrames */
     class BallCourtWindowAdapter extends WindowAdapter  {
         /** 
-         * This WindowAdapter instance manages ball court number myBcNo in 0..MAX_FRAMES-1 
+         * This WindowAdapter instance manages ball court number myBcNo
          */
         private int myBcNo;
         BallCourtWindowAdapter() {
+            this(currentBcNo);
+        }
+
+        BallCourtWindowAdapter(int bcNo) {
             super();
-            myBcNo = currentBcNo;
+            myBcNo = bcNo;
             System.out.println("BallCourtWindowAdapter created for frame " + myBcNo);
         }
 
         /** 
          * Adapter for the windowClosing event
-         * @param e WindowEvent - cal only be the WindowClosing event,
-         *          the adapter is only registered with this event.
+         * @param e WindowEvent - the WindowClosing event
          */
         @Override
         public void windowClosing(final WindowEvent e) {
@@ -92,15 +240,40 @@ public class BallCourtControl
             System.out.println("WindowClosing Event for frame " + myBcNo);
 
             BallCourtFrame myFrame = bcframes[myBcNo];
+            setFrame(myBcNo, null);
             myFrame.setVisible(false);
             myFrame.dispose();
-            bcframes[myBcNo] = null;
             if ( currentBcNo == myBcNo ) {
                 currentBc = null;
                 makeButtonsVisible(true,true,false,false);
             }
         }
 
+        /**
+         * Adapter for the windowIconified event: the court keeps
+         * simulating, but is no longer rendered
+         * @param e WindowEvent - the WindowIconified event
+         */
+        @Override
+        public void windowIconified(final WindowEvent e) {
+            BallCourtFrame myFrame = bcframes[myBcNo];
+            if ( myFrame != null ) {
+                myFrame.setIconified(true);
+            }
+        }
+
+        /**
+         * Adapter for the windowDeiconified event: rendering is resumed
+         * @param e WindowEvent - the WindowDeiconified event
+         */
+        @Override
+        public void windowDeiconified(final WindowEvent e) {
+            BallCourtFrame myFrame = bcframes[myBcNo];
+            if ( myFrame != null ) {
+                myFrame.setIconified(false);
+            }
+        }
+
     }
 
     /**
@@ -115,22 +288,296 @@ public class BallCourtControl
      * </ul>
      */
     private void initialiseCurrentFrame() {
-        bcframes[currentBcNo] = currentBc;
+        setFrame(currentBcNo, currentBc);
         currentBc.setTitle("BC " + Integer.toString(currentBcNo));
         currentBc.addWindowListener(new BallCourtWindowAdapter());
         makeButtonsVisible(false,false,true,true);
-        currentBc.setVisible(true);
+        currentBc.setVisible(!tiled);
+        if ( tiled ) {
+            tiledFrame.setSelected(currentBcNo);
+        }
+    }
+
+    /**
+     * Register a ball court frame under a ball court number and make it
+     * visible. If the number is the selected one, the frame becomes the
+     * current frame as described for initialiseCurrentFrame.
+     * @param no Number of the ball court, whose entry in bcframes is empty
+     * @param f The ball court frame
+     */
+    private void initialiseFrame(int no, BallCourtFrame f) {
+        if ( no == currentBcNo ) {
+            currentBc = f;
+            initialiseCurrentFrame();
+            return;
+        }
+        setFrame(no, f);
+        f.setTitle("BC " + Integer.toString(no));
+        f.addWindowListener(new BallCourtWindowAdapter(no));
+        f.setVisible(!tiled);
+    }
+
+    /**
+     * Register a frame under a ball court number, or remove it.
+     * The frames array is replaced by a modified copy, so that the
+     * frame is published safely to the stepping and rendering threads.
+     * @param no Number of the ball court
+     * @param f The ball court frame, null to remove the frame
+     */
+    private void setFrame(int no, BallCourtFrame f) {
+        BallCourtFrame[] fs = Arrays.copyOf(bcframes, Math.max(no + 1, bcframes.length));
+        fs[no] = f;
+        bcframes = fs;
+    }
+
+    /**
+     * Grow the arrays indexed by ball court number, so that they
+     * have an entry for the given number
+     * @param no Number of the ball court
+     */
+    private void ensureFrameCapacity(int no) {
+        if ( no >= bcframes.length ) {
+            bcframes = Arrays.copyOf(bcframes, Math.max(no + 1, bcframes.length << 1));
+        }
+        if ( lazyCourts.length < bcframes.length ) {
+            lazyCourts = Arrays.copyOf(lazyCourts, bcframes.length);
+        }
+    }
+
+    /**
+     * Save all ball courts into one session archive (see class SessionArchive).
+     * The snapshots are taken between two ticks (see BallCourtFrame.requestSnapshot)
+     * and the archive is written on the I/O thread, so that the courts keep
+     * running. Courts of a loaded session which have not been decoded yet
+     * are copied from their archive.
+     */
+    private void saveSession() {
+
+        final int result = filechooser.showSaveDialog(frame);
+        if(result != JFileChooser.APPROVE_OPTION) {
+            // no proper file has been specified - return without further action
+            return;
+        }
+        final Path selectedFile = filechooser.getSelectedFile().toPath();
+
+        final List<Integer> numbers = new ArrayList<>();
+        final List<CompletableFuture<ByteBuffer>> snapshots = new ArrayList<>();
+        for ( int no = 0; no < bcframes.length; no++ ) {
+            final SessionArchive archive = ( no < lazyCourts.length ) ? lazyCourts[no] : null;
+            final int bcNo = no;
+            if ( bcframes[no] != null ) {
+                snapshots.add(bcframes[no].requestSnapshot());
+            }
+            else if ( archive != null ) {
+                snapshots.add(CompletableFuture.supplyAsync(() -> readArchivedSnapshot(archive, bcNo),
+                                                            ioExecutor));
+            }
+            else {
+                continue;
+            }
+            numbers.add(no);
+        }
+        if ( numbers.isEmpty() ) {
+            System.out.println("No ball courts to save");
+            return;
+        }
+
+        CompletableFuture.allOf(snapshots.toArray(new CompletableFuture<?>[0]))
+            .thenRunAsync(() -> writeSession(selectedFile, numbers, snapshots), ioExecutor)
+            .whenCompleteAsync((r, ex) -> {
+                    if ( ex != null ) {
+                        System.out.println("IOException is caught: " + cause(ex));
+                    }
+                    else {
+                        System.out.println("Session with " + numbers.size() + " ball courts has been saved");
+                    }
+                }, EDT);
+    }
+
+    /**
+     * Write a session archive. The method is called on the I/O thread.
+     * @param file The archive file
+     * @param numbers Ball court numbers
+     * @param snapshots Completed snapshots of the courts, in the order of numbers
+     * @throws UncheckedIOException if the archive cannot be written
+     */
+    private static void writeSession(Path file, List<Integer> numbers,
+                                     List<CompletableFuture<ByteBuffer>> snapshots) {
+        int[] bcNumbers = new int[numbers.size()];
+        ByteBuffer[] buffers = new ByteBuffer[numbers.size()];
+        for ( int k = 0; k < bcNumbers.length; k++ ) {
+            bcNumbers[k] = numbers.get(k);
+            buffers[k] = snapshots.get(k).join();
+        }
+        try {
+            SessionArchive.save(file, bcNumbers, buffers);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Open a session archive and register its courts under their ball
+     * court numbers. Only the table of contents is read; each court is
+     * decoded when its number is first selected, or when the tiled view
+     * is shown. Courts whose number is in use are skipped.
+     */
+    private void loadSession() {
+
+        final int result = filechooser.showOpenDialog(frame);
+        if(result != JFileChooser.APPROVE_OPTION) {
+            // no proper file has been specified - return with
+            return;
+        }
+        final Path selectedFile = filechooser.getSelectedFile().toPath();
+
+        CompletableFuture.supplyAsync(() -> openSession(selectedFile), ioExecutor)
+            .whenCompleteAsync((archive, ex) -> {
+                    if ( ex != null ) {
+                        System.out.println("IOException is caught: " + cause(ex));
+                        return;
+                    }
+                    int added = 0;
+                    for ( int k = 0; k < archive.getCourtCount(); k++ ) {
+                        int no = archive.getCourtNumber(k);
+                        if ( no < 0 ) continue;
+                        ensureFrameCapacity(no);
+                        if ( bcframes[no] != null || lazyCourts[no] != null || pendingIo.contains(no) ) {
+                            System.out.println("BC " + no + " is in use, skipped");
+                            continue;
+                        }
+                        lazyCourts[no] = archive;
+                        added++;
+                    }
+                    System.out.println("Session with " + added + " ball courts has been opened");
+                    releaseArchive(archive);
+                    if ( tiled ) {
+                        decodeAllLazy();
+                    }
+                    else if ( currentBcNo >= 0 ) {
+                        setCurrentFrame(currentBcNo);
+                    }
+                }, EDT);
+    }
+
+    /**
+     * Decode a court of a loaded session on the I/O thread and show it
+     * when it has been decoded. The buttons of its ball court number stay
+     * disabled meanwhile.
+     * @param no Number of the ball court, registered in lazyCourts
+     */
+    private void decodeLazy(int no) {
+        final SessionArchive archive = lazyCourts[no];
+        lazyCourts[no] = null;
+        pendingIo.add(no);
+        CompletableFuture.supplyAsync(() -> readArchivedCourt(archive, no), ioExecutor)
+            .whenCompleteAsync((court, ex) -> {
+                    pendingIo.remove(no);
+                    releaseArchive(archive);
+                    if ( ex != null ) {
+                        System.out.println("IOException is caught: " + cause(ex));
+                    }
+                    else if ( bcframes[no] == null ) {
+                        initialiseFrame(no, createFrameFor(court));
+                    }
+                    if ( currentBcNo == no ) {
+                        setCurrentFrame(no);
+                    }
+                }, EDT);
+    }
+
+    /**
+     * Decode all courts of loaded sessions which have not been decoded yet
+     */
+    private void decodeAllLazy() {
+        for ( int no = 0; no < lazyCourts.length; no++ ) {
+            if ( lazyCourts[no] != null ) {
+                decodeLazy(no);
+            }
+        }
+    }
+
+    /**
+     * Close a session archive on the I/O thread if none of its courts
+     * waits for being decoded any longer. Decoding tasks which have
+     * already been submitted run before the archive is closed.
+     * @param archive The session archive
+     */
+    private void releaseArchive(SessionArchive archive) {
+        for ( SessionArchive a : lazyCourts ) {
+            if ( a == archive ) return;
+        }
+        ioExecutor.execute(() -> {
+                try {
+                    archive.close();
+                }
+                catch(IOException ex) {
+                    System.out.println("IOException is caught: " + ex);
+                }
+            });
+    }
+
+    /**
+     * Open a session archive. The method is called on the I/O thread.
+     * @param file The archive file
+     * @return The archive
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    private static SessionArchive openSession(Path file) {
+        try {
+            return SessionArchive.open(file);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Decode a court of a session archive. The method is called on the I/O thread.
+     * @param archive The session archive
+     * @param no Number of the ball court
+     * @return The court
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    private static Court readArchivedCourt(SessionArchive archive, int no) {
+        try {
+            return archive.load(no);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Read the snapshot of a court of a session archive. The method is called on the I/O thread.
+     * @param archive The session archive
+     * @param no Number of the ball court
+     * @return The snapshot
+     * @throws UncheckedIOException if the archive cannot be read
+     */
+    private static ByteBuffer readArchivedSnapshot(SessionArchive archive, int no) {
+        try {
+            return archive.loadSnapshot(no);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     /**
      * Activate ball court frame for selected ball court number 
-     * by means of de-serialisation from file. The following actions are performed.
+     * by loading a court snapshot from file. The following actions are performed.
      * <ul>
      * <li> Show open-file dialogue to user
-     * <li> If valid file is selected, de-serialize object from file and
-     *      assign it to currentBc in the ball court which is currently selected
-     * <li> Set the GUI button state accordingly and make the frame visible
-     *      by calling method initialiseCurrentFrame
+     * <li> If valid file is selected, load the court from the file
+     *      (see class CourtSnapshot) on the I/O thread. Files serialized
+     *      by earlier versions are converted on the fly
+     *      (see class LegacyFrameReader). The buttons of the ball court
+     *      number stay disabled while the file is read.
+     * <li> When the court has been loaded, build a new frame for it in the
+     *      event dispatch thread, select its ball court number, and make
+     *      the frame visible by calling method initialiseCurrentFrame
      * 
      * </ul>
      */
@@ -141,25 +588,147 @@ public class BallCourtControl
             // no proper file has been specified - return with
             return;  
         }
+        final Path selectedFile = filechooser.getSelectedFile().toPath();
+        final int no = currentBcNo;
+
+        pendingIo.add(no);
+        makeButtonsVisible(false,false,false,false);
+        CompletableFuture.supplyAsync(() -> readCourt(selectedFile), ioExecutor)
+            .whenCompleteAsync((court, ex) -> {
+                    pendingIo.remove(no);
+                    if ( ex != null ) {
+                        System.out.println("IOException is caught: " + cause(ex));
+                        if ( currentBcNo == no ) {
+                            setCurrentFrame(no);
+                        }
+                        return;
+                    }
+                    if ( bcframes[no] != null ) {
+                        System.out.println("BC " + no + " is in use, loaded court discarded");
+                        return;
+                    }
+                    setCurrentFrame(no);
+                    bcNumberSpinner.setValue(no);
+                    currentBc = createFrameFor(court);
+                    initialiseCurrentFrame();
+                }, EDT);
+
+    }
+
+    /**
+     * Read a court from a snapshot file or from a file serialized
+     * by an earlier version. The method is called on the I/O thread.
+     * @param file The file
+     * @return The court
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    private static Court readCourt(Path file) {
+        try {
+            if ( LegacyFrameReader.isLegacyFile(file) ) {
+                Court court = LegacyFrameReader.readCourt(file);
+                System.out.println("Serialized frame has been converted");
+                return court;
+            }
+            Court court = CourtSnapshot.load(file);
+            System.out.println("Court snapshot has been loaded");
+            return court;
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Write a snapshot to a file. The method is called on the I/O thread.
+     * @param snapshot The snapshot (see CourtSnapshot.snapshot)
+     * @param file The file
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    private static void writeSnapshot(ByteBuffer snapshot, Path file) {
+        try {
+            CourtSnapshot.save(snapshot, file);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Get the exception which made an asynchronous operation fail
+     * @param ex Exception passed to a completion callback
+     * @return The underlying exception
+     */
+    private static Throwable cause(Throwable ex) {
+        if ( ex instanceof CompletionException && ex.getCause() != null ) {
+            ex = ex.getCause();
+        }
+        if ( ex instanceof UncheckedIOException ) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+
+    /**
+     * Start or stop recording the current ball court frame.
+     * When starting, a save-to-file dialogue is presented and every
+     * following tick of the court is appended to the selected file
+     * (see class ReplayLog).
+     */
+    private void toggleRecording() {
+
+        if ( currentBc.isRecording() ) {
+            currentBc.stopRecording();
+            System.out.println("Recording of BC " + currentBcNo + " has been stopped");
+            makeButtonsVisible(false,false,true,true);
+            return;
+        }
+
+        final int result = filechooser.showSaveDialog(frame);
+        if(result != JFileChooser.APPROVE_OPTION) {
+            // no proper file has been specified - return without further action
+            return;
+        }
         final File selectedFile = filechooser.getSelectedFile();
 
-        try (FileInputStream file = new FileInputStream(selectedFile);
-        ObjectInputStream in = new ObjectInputStream(file))
-        {    
-            // Method for deserialization of object 
-            currentBc = (BallCourtFrame)in.readObject();  
-            System.out.println("Frame has been deserialized "); 
-            initialiseCurrentFrame();
-        } 
-        catch(IOException ex) 
-        { 
-            System.out.println("IOException is caught: " + ex); 
-        } 
+        try
+        {
+            currentBc.startRecording(ReplayLog.create(selectedFile.toPath(),
+                                                      currentBc.getBallCourt().getCourt()));
+            System.out.println("Recording of BC " + currentBcNo + " has been started");
+        }
+        catch(IOException ex)
+        {
+            System.out.println("IOException is caught: " + ex);
+        }
+        makeButtonsVisible(false,false,true,true);
+    }
+
+    /**
+     * Activate ball court frame for selected ball court number
+     * by replaying a recorded file. The frame shows the recorded ticks
+     * in a loop instead of simulating its court.
+     */
+    private void replayFrame() {
+
+        final int result = filechooser.showOpenDialog(frame);
+        if(result != JFileChooser.APPROVE_OPTION) {
+            // no proper file has been specified - return with
+            return;
+        }
+        final File selectedFile = filechooser.getSelectedFile();
 
-        catch(ClassNotFoundException ex) 
-        { 
-            System.out.println("ClassNotFoundException is caught: " + ex); 
-        }    
+        try
+        {
+            ReplayLog log = ReplayLog.open(selectedFile.toPath());
+            currentBc = createFrameFor(log.createCourt());
+            currentBc.startReplay(log);
+            System.out.println("Replaying " + log.getTickCount() + " ticks in BC " + currentBcNo);
+            initialiseCurrentFrame();
+        }
+        catch(IOException ex)
+        {
+            System.out.println("IOException is caught: " + ex);
+        }
 
     }
 
@@ -169,77 +738,269 @@ public class BallCourtControl
      */
     private void createBcFrame() {
 
-        BallCourt bc = new BallCourt(10,10,300,300);
+        Court court = seeded ? new Court(300,300,seed + currentBcNo) : new Court(300,300);
+        System.out.println("BC " + currentBcNo + " created with seed " + court.getSeed());
 
-        Ball b = new Ball(bc,0,0);
+        Ball b = new Ball(court,0,0);
 
-        bc.addBall(b);
+        court.addBall(b);
 
-        Player p = new Player( bc, 150, 150, 5);
-        bc.addPlayer(p);
+        Player p = new Player( court, 150, 150, 5);
+        court.addPlayer(p);
 
-        currentBc = new BallCourtFrame(bc,10,10,315,350);
+        currentBc = createFrameFor(court);
         initialiseCurrentFrame();
     }
 
     /**
-     * Serialize and destroy an active ball court frame by performing the
+     * Create a ball court frame displaying the given court.
+     * The frame is sized to fit the court.
+     * @param court The court to be displayed
+     * @return The new frame
+     */
+    private BallCourtFrame createFrameFor(Court court) {
+        BallCourt bc = new BallCourt(court,10,10);
+        bc.setInterpolation(interpolation);
+        bc.setHud(hud);
+        bc.setHeatmapThreshold(heatmapThreshold);
+        return new BallCourtFrame(bc,10,10,court.getWidth()+15,court.getHeight()+50,activeRendering,!tiled);
+    }
+
+    /**
+     * Serialize an active ball court frame by performing the
      * following actions.
      * <ul>
      * <li> Present save-to-file dialogue to user
-     * <li> Serialize currentBc to the selected file 
-     * <li> Make the current ball court frame invisible and release its resources
-     *      as specified for methdd destroyBcFrame.
-     * 
+     * <li> Request a snapshot of the court of currentBc, which is taken
+     *      between two ticks (see BallCourtFrame.requestSnapshot)
+     * <li> Write the snapshot to the selected file on the I/O thread
+     *      (see class CourtSnapshot); the court keeps running meanwhile
+     * <li> If requested, make the ball court frame invisible and release
+     *      its resources as specified for method destroyBcFrame once the
+     *      file has been written. If writing fails, the frame is kept.
      * </ul>
+     * @param destroy true iff the frame is destroyed after saving
      */
-    private void serializeAndDestroyBcFrame() {
+    private void serializeBcFrame(boolean destroy) {
 
         final int result = filechooser.showSaveDialog(frame);
         if(result != JFileChooser.APPROVE_OPTION) {  
             // no proper file has been specified - return without further action
             return;  
         }
-        final File selectedFile = filechooser.getSelectedFile();
+        final Path selectedFile = filechooser.getSelectedFile().toPath();
+        final int no = currentBcNo;
+        final BallCourtFrame saved = currentBc;
 
-        try(FileOutputStream file = new FileOutputStream(selectedFile);
-        ObjectOutputStream out = new ObjectOutputStream(file))
-        {    
+        if ( destroy ) {
+            pendingIo.add(no);
+            makeButtonsVisible(false,false,false,false);
+        }
+        saved.requestSnapshot()
+            .thenAcceptAsync(snapshot -> writeSnapshot(snapshot, selectedFile), ioExecutor)
+            .whenCompleteAsync((r, ex) -> {
+                    if ( ex != null ) {
+                        System.out.println("IOException is caught: " + cause(ex));
+                    }
+                    else {
+                        System.out.println("BallCourt has been saved");
+                    }
+                    if ( !destroy ) return;
+                    pendingIo.remove(no);
+                    if ( ex == null && bcframes[no] == saved ) {
+                        destroyBcFrame(no);
+                    }
+                    else if ( currentBcNo == no ) {
+                        setCurrentFrame(no);
+                    }
+                }, EDT);
+    }
 
-            //Saving of object in a file 
-            //FileOutputStream file = new FileOutputStream(selectedFile); 
-            //ObjectOutputStream out = new ObjectOutputStream(file); 
+    /**
+     * Make selected ball court frame invisible and release its
+     * window-related resources. Update bcframes, currentBc and button states
+     * accordingly.
+     */
+    private void destroyBcFrame() {
+        destroyBcFrame(currentBcNo);
+    }
 
-            // Method for serialization of object 
-            out.writeObject(currentBc); 
-            System.out.println("BallCourt has been serialized"); 
+    /**
+     * Make a ball court frame invisible and release its window-related
+     * resources. Update bcframes, and currentBc and the button states
+     * if the frame is the selected one.
+     * The frame is removed from bcframes before it is disposed, so that
+     * it is not stepped or rendered in later ticks.
+     * @param no Number of the ball court
+     */
+    private void destroyBcFrame(int no) {
 
-        } 
-        catch(IOException ex) 
-        { 
-            System.out.println("IOException is caught: " + ex); 
+        BallCourtFrame f = bcframes[no];
+        setFrame(no, null);
+        f.setVisible(false);
+        f.dispose();
+
+        if ( no == currentBcNo ) {
+            currentBc = null;
+            makeButtonsVisible(true,true,false,false);
         }
-        catch(SecurityException ex)
-        {
-            System.out.println("SecurityException is caught: " + ex);
+    }
+
+    /**
+     * Save all simulated ball courts periodically into a directory, one
+     * snapshot file BC_n.bcs per ball court number n. The snapshots are
+     * taken between two ticks and written on the I/O thread, so that the
+     * simulation is not paused. Replaying courts are not saved. A period
+     * is skipped if the snapshots of the previous one are still pending.
+     * @param dir Target directory, created if necessary; null switches autosave off
+     * @param periodSeconds Time between two autosaves in seconds
+     */
+    public void setAutosave(Path dir, long periodSeconds) {
+        setAutosave(dir, periodSeconds, false);
+    }
+
+    /**
+     * Save all simulated ball courts periodically into a directory as
+     * described for setAutosave(Path, long). With history, every autosave
+     * is appended as a checkpoint to the log BC_n.bcc of the ball court
+     * instead of replacing its snapshot file (see class CheckpointLog),
+     * so that all earlier states can be restored. A new log is started
+     * for every new ball court frame.
+     * @param dir Target directory, created if necessary; null switches autosave off
+     * @param periodSeconds Time between two autosaves in seconds
+     * @param history true iff the autosaves are kept as checkpoint logs
+     */
+    public synchronized void setAutosave(Path dir, long periodSeconds, boolean history) {
+        if ( autosaveTask != null ) {
+            autosaveTask.cancel(false);
+            autosaveTask = null;
         }
+        ioExecutor.execute(() -> closeHistory(0));
+        if ( dir == null ) return;
+        final long period = Math.max(1, periodSeconds);
+        autosaveTask = ioExecutor.scheduleAtFixedRate(() -> autosave(dir, history), period, period,
+                                                      TimeUnit.SECONDS);
+    }
 
-        destroyBcFrame();
+    /**
+     * Request snapshots of all simulated ball courts and write them into
+     * a directory. The method is called on the I/O thread.
+     * @param dir Target directory
+     * @param history true iff the snapshots are appended to checkpoint logs
+     */
+    private void autosave(Path dir, boolean history) {
+        if ( !lastAutosave.isDone() ) return;
+        try {
+            Files.createDirectories(dir);
+        }
+        catch(IOException ex) {
+            System.out.println("IOException is caught: " + ex);
+            return;
+        }
+        List<CompletableFuture<Void>> saves = new ArrayList<>();
+        BallCourtFrame[] fs = bcframes;
+        for ( int no = 0; no < fs.length; no++ ) {
+            BallCourtFrame f = fs[no];
+            if ( f == null || f.isReplaying() ) continue;
+            final Path file = dir.resolve("BC_" + no + ( history ? ".bcc" : ".bcs" ));
+            final CheckpointLog log;
+            try {
+                log = history ? historyLog(no, f, file) : null;
+            }
+            catch(IOException ex) {
+                System.out.println("Autosave to " + file + " failed: " + ex);
+                continue;
+            }
+            saves.add(f.requestSnapshot()
+                      .thenAcceptAsync(snapshot -> {
+                              if ( log != null ) {
+                                  appendCheckpoint(log, snapshot);
+                              }
+                              else {
+                                  writeSnapshot(snapshot, file);
+                              }
+                          }, ioExecutor)
+                      .exceptionally(ex -> {
+                              System.out.println("Autosave to " + file + " failed: " + cause(ex));
+                              return null;
+                          }));
+        }
+        if ( history ) {
+            // Close the logs of ball courts which have been destroyed
+            for ( int no = 0; no < historyFrames.length; no++ ) {
+                if ( historyFrames[no] != null && ( no >= fs.length || fs[no] != historyFrames[no] ) ) {
+                    closeHistory(no, no + 1);
+                }
+            }
+        }
+        lastAutosave = CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[0]));
     }
 
     /**
-     * Make selected ball court frame invisible and release its
-     * window-related resources. Update bcframes, currentBc and button states
-     * accordingly.
+     * Get the checkpoint log of a ball court, creating a new one if the
+     * ball court number is used by a frame without a log.
+     * The method is called on the I/O thread.
+     * @param no Number of the ball court
+     * @param f The ball court frame
+     * @param file File of the log
+     * @return The checkpoint log
+     * @throws IOException if a new log cannot be created
      */
-    private void destroyBcFrame() {
+    private CheckpointLog historyLog(int no, BallCourtFrame f, Path file) throws IOException {
+        if ( no >= historyLogs.length ) {
+            historyLogs = Arrays.copyOf(historyLogs, Math.max(no + 1, historyLogs.length << 1));
+            historyFrames = Arrays.copyOf(historyFrames, historyLogs.length);
+        }
+        if ( historyFrames[no] != f ) {
+            closeHistory(no, no + 1);
+            historyLogs[no] = CheckpointLog.create(file, CheckpointLog.DEFAULT_KEYFRAME_INTERVAL);
+            historyFrames[no] = f;
+        }
+        return historyLogs[no];
+    }
+
+    /**
+     * Close all checkpoint logs of the autosave history from a ball court number on.
+     * The method is called on the I/O thread.
+     * @param from First ball court number
+     */
+    private void closeHistory(int from) {
+        closeHistory(from, historyLogs.length);
+    }
 
-        currentBc.setVisible(false);
-        currentBc.dispose();
+    /**
+     * Close the checkpoint logs of a range of ball court numbers.
+     * The method is called on the I/O thread.
+     * @param from First ball court number (inclusive)
+     * @param to Last ball court number (exclusive)
+     */
+    private void closeHistory(int from, int to) {
+        for ( int no = from; no < to; no++ ) {
+            if ( historyLogs[no] == null ) continue;
+            try {
+                historyLogs[no].close();
+            }
+            catch(IOException ex) {
+                System.out.println("IOException is caught: " + ex);
+            }
+            historyLogs[no] = null;
+            historyFrames[no] = null;
+        }
+    }
 
-        bcframes[currentBcNo] = null;
-        currentBc = null;
-        makeButtonsVisible(true,true,false,false);
+    /**
+     * Append a snapshot to a checkpoint log. The method is called on the I/O thread.
+     * @param log The checkpoint log
+     * @param snapshot The snapshot (see CourtSnapshot.snapshot)
+     * @throws UncheckedIOException if the checkpoint cannot be written
+     */
+    private static void appendCheckpoint(CheckpointLog log, ByteBuffer snapshot) {
+        try {
+            log.append(snapshot);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     /** Display dialog containing information about tool version and developer */
@@ -253,6 +1014,211 @@ public class BallCourtControl
 
     }
 
+    /**
+     * Set the base seed for ball courts created from now on
+     * @param seed Base seed; ball court number n is created with seed + n
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        seeded = true;
+    }
+
+    /**
+     * Select active rendering for ball court frames created from now on
+     * (see class ActiveCourtCanvas)
+     * @param activeRendering true iff new frames are rendered actively
+     */
+    public void setActiveRendering(boolean activeRendering) {
+        this.activeRendering = activeRendering;
+    }
+
+    /**
+     * Select whether ball courts created from now on interpolate the
+     * positions of balls and players between ticks
+     * @param interpolation true iff positions are interpolated
+     */
+    public void setInterpolation(boolean interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * Set the number of balls above which ball courts created from now
+     * on are drawn as a heatmap of the ball density
+     * @param threshold Number of balls
+     */
+    public void setHeatmapThreshold(int threshold) {
+        heatmapThreshold = threshold;
+    }
+
+    /**
+     * Set how much less often courts which cannot be seen are stepped.
+     * Such a court is stepped in every n-th tick only, with a time step
+     * of n ticks, so that it keeps simulating in real time at a lower
+     * cost. Balls bouncing off each other are still advanced tick by
+     * tick within the larger step (see Court.move), so courts with ball
+     * collisions save less. Courts being recorded are always stepped
+     * in every tick.
+     * @param divisor The divisor n; 1 steps all courts in every tick
+     */
+    public void setBackgroundTickDivisor(int divisor) {
+        backgroundTickDivisor = Math.max(1, divisor);
+    }
+
+    /**
+     * Check whether a ball court can be seen, either in its own window
+     * or on the page shown by the tiled window
+     * @param no Number of the ball court
+     * @param f The ball court frame
+     * @return true iff the court can be seen
+     */
+    private boolean isVisible(int no, BallCourtFrame f) {
+        TiledCourtFrame t = tiledFrame;
+        if ( tiled && t != null ) {
+            return t.isShown(no);
+        }
+        return f.isRenderable();
+    }
+
+    /**
+     * Show or hide the heads-up display of all ball courts
+     * (see BallCourt.setHud)
+     * @param hud true iff the heads-up display is shown
+     */
+    public void setHud(boolean hud) {
+        this.hud = hud;
+        for ( BallCourtFrame f : bcframes ) {
+            if ( f != null ) {
+                f.getBallCourt().setHud(hud);
+            }
+        }
+        if ( hudEntry != null ) {
+            hudEntry.setSelected(hud);
+        }
+    }
+
+    /**
+     * Write the tick, step and paint duration histograms of all
+     * existing ball courts to a CSV file with one line per court and
+     * histogram. Durations are given in microseconds.
+     * @param file The CSV file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeStatistics(Path file) throws IOException {
+        try ( PrintWriter out = new PrintWriter(Files.newBufferedWriter(file)) ) {
+            out.println("court,metric,count,mean_us,p50_us,p99_us,p99.9_us,max_us");
+            BallCourtFrame[] fs = bcframes;
+            for ( int no = 0; no < fs.length; no++ ) {
+                if ( fs[no] == null ) continue;
+                BallCourt bc = fs[no].getBallCourt();
+                writeStatistics(out, no, "tick", bc.getTickTimes());
+                writeStatistics(out, no, "move", bc.getMoveTimes());
+                writeStatistics(out, no, "paint", bc.getPaintTimes());
+            }
+        }
+    }
+
+    /**
+     * Write one histogram as a CSV line
+     * @param out Output
+     * @param no Number of the ball court
+     * @param metric Name of the histogram
+     * @param h The histogram
+     */
+    private static void writeStatistics(PrintWriter out, int no, String metric, LatencyHistogram h) {
+        out.printf(Locale.ROOT, "%d,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n", no, metric, h.getCount(),
+                   h.getMean() / 1e3, h.getPercentile(50) / 1e3, h.getPercentile(99) / 1e3,
+                   h.getPercentile(99.9) / 1e3, h.getMax() / 1e3);
+    }
+
+    /**
+     * Show all courts as tiles of one window instead of separate windows
+     * (see class TiledCourtFrame), or switch back to separate windows
+     * @param tiled true iff the tiled window is used
+     */
+    public void setTiledView(boolean tiled) {
+        if ( tiled && tiledFrame == null ) {
+            tiledFrame = new TiledCourtFrame(10,10,800,600);
+            tiledFrame.setSelectionListener(no -> {
+                    setCurrentFrame(no);
+                    bcNumberSpinner.setValue(no);
+                });
+            tiledFrame.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosing(WindowEvent e) {
+                        setTiledView(false);
+                    }
+                });
+        }
+        this.tiled = tiled;
+        if ( tiled ) {
+            decodeAllLazy();
+        }
+        if ( tiledFrame != null ) {
+            tiledFrame.setSelected(currentBc != null ? currentBcNo : -1);
+            tiledFrame.setVisible(tiled);
+        }
+        for ( BallCourtFrame f : bcframes ) {
+            if ( f != null ) {
+                f.setVisible(!tiled);
+            }
+        }
+        if ( tiledEntry != null ) {
+            tiledEntry.setSelected(tiled);
+        }
+    }
+
+    /**
+     * Return a one-line summary of the present times of all
+     * actively rendered ball court frames and of the tiled window
+     * @return Summary text
+     */
+    public String renderStatistics() {
+        long frames = 0;
+        long last = 0;
+        long max = 0;
+        long total = 0;
+        BallCourtFrame[] fs = bcframes;
+        for ( int k = 0; k <= fs.length; k++ ) {
+            ActiveCourtCanvas c;
+            if ( k == fs.length ) {
+                c = ( tiledFrame != null ) ? tiledFrame.getCanvas() : null;
+            }
+            else {
+                c = ( fs[k] != null ) ? fs[k].getCanvas() : null;
+            }
+            if ( c != null ) {
+                frames += c.getFrames();
+                last = Math.max(last, c.getLastPresentNanos());
+                max = Math.max(max, c.getMaxPresentNanos());
+                total += c.getAveragePresentNanos() * c.getFrames();
+            }
+        }
+        return String.format("presented %d, present time last/avg/max %.2f/%.2f/%.2f ms",
+                             frames, last / 1e6, (frames == 0 ? 0 : total / frames) / 1e6, max / 1e6);
+    }
+
+    /**
+     * Ask the user for the base seed of new ball courts.
+     * An empty input switches back to random seeds.
+     */
+    private void askForSeed() {
+        String input = JOptionPane.showInputDialog(frame,
+            "Seed for new ball courts (empty for random seeds):",
+            seeded ? Long.toString(seed) : "");
+        if ( input == null ) return;
+        if ( input.trim().isEmpty() ) {
+            seeded = false;
+            return;
+        }
+        try {
+            setSeed(Long.parseLong(input.trim()));
+        }
+        catch(NumberFormatException ex) {
+            JOptionPane.showMessageDialog(frame, "Not a valid seed: " + input,
+                "Set Seed", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     /** Closes the GUI -- Listener action for the EXIT button */
     private void doExit() {
         System.exit(0);
@@ -261,7 +1227,8 @@ public class BallCourtControl
     /**
      * Create the menu bar with the following menus
      * <ul> 
-     * <li> File menue with EXIT command
+     * <li> File menue with Set Seed, Save Session, Load Session and EXIT commands
+     * <li> View menue switching the tiled view and the heads-up display on and off
      * <li> Help menue with About-command
      * </ul>
      */
@@ -274,10 +1241,34 @@ public class BallCourtControl
         JMenu fileMenu = new JMenu("File");
         menubar.add(fileMenu);
 
+        JMenuItem seedEntry = new JMenuItem("Set Seed...");
+        seedEntry.addActionListener(e -> askForSeed());
+        fileMenu.add(seedEntry);
+
+        JMenuItem saveSessionEntry = new JMenuItem("Save Session...");
+        saveSessionEntry.addActionListener(e -> saveSession());
+        fileMenu.add(saveSessionEntry);
+
+        JMenuItem loadSessionEntry = new JMenuItem("Load Session...");
+        loadSessionEntry.addActionListener(e -> loadSession());
+        fileMenu.add(loadSessionEntry);
+
         JMenuItem exitEntry = new JMenuItem("Exit");
         exitEntry.addActionListener(e -> doExit());
         fileMenu.add(exitEntry);
 
+        // Create the View menu
+        JMenu viewMenu = new JMenu("View");
+        menubar.add(viewMenu);
+
+        tiledEntry = new JCheckBoxMenuItem("Tiled View", tiled);
+        tiledEntry.addActionListener(e -> setTiledView(tiledEntry.isSelected()));
+        viewMenu.add(tiledEntry);
+
+        hudEntry = new JCheckBoxMenuItem("Show HUD", hud);
+        hudEntry.addActionListener(e -> setHud(hudEntry.isSelected()));
+        viewMenu.add(hudEntry);
+
         // Create the Help menu
         JMenu helpMenu = new JMenu("Help");
         menubar.add(helpMenu);
@@ -293,7 +1284,7 @@ public class BallCourtControl
      * @param createButton Makes the CREATE BC button visible iff true
      * @param createButton Makes the LOAD BC FROM FILE button visible iff true     
      * @param createButton Makes the DESTROY BC button visible iff true     
-     * @param createButton Makes the SAVE&DESTROY BC button visible iff true     
+     * @param createButton Makes the SAVE&DESTROY BC and SAVE BC buttons visible iff true     
      */
     private void makeButtonsVisible(boolean createButton, boolean loadButton, 
     boolean destroyButton, boolean serializeButton) {
@@ -301,37 +1292,51 @@ public class BallCourtControl
         loadFromFileButton.setEnabled(loadButton);
         destroyBcButton.setEnabled(destroyButton);
         serializeBcButton.setEnabled(serializeButton);
+        saveBcButton.setEnabled(serializeButton);
+        replayBcButton.setEnabled(loadButton);
+        recordBcButton.setEnabled(destroyButton && !currentBc.isReplaying());
+        recordBcButton.setText(destroyButton && currentBc.isRecording() ? "Stop Recording" : "Record BC");
     }
 
     /**
      * Set the selected BC frame according to given number
-     * @param frameNum Number in 0..MAX_FRAMES-1 for the 
+     * @param frameNum Number &gt;= 0 for the 
      *        frame to be selected. The method expects that
      *        an active frame is already registered in bcframes[frameNum]
      *        and sets currentBc, the BC text field, and the command button state
      *        accordingly.
      */
     private void setCurrentFrame(int frameNum) {
+        ensureFrameCapacity(frameNum);
         currentBc = bcframes[frameNum]; 
         currentBcNo = frameNum;
         outputTextField.setText(Integer.toString(currentBcNo));
+        if ( currentBc == null && lazyCourts[frameNum] != null ) {
+            decodeLazy(frameNum);
+        }
 
-        if ( currentBc == null ) {
+        if ( pendingIo.contains(frameNum) ) {
+            makeButtonsVisible(false,false,false,false);
+        }
+        else if ( currentBc == null ) {
             makeButtonsVisible(true,true,false,false);
         }
         else {
             makeButtonsVisible(false,false,true,true);
         }
+        if ( tiledFrame != null ) {
+            tiledFrame.setSelected(currentBc != null ? currentBcNo : -1);
+        }
     }
 
     /** 
      * Create the window frame with Grid Layout,
-     * 7 lines, and 2 columns
+     * 6 lines, and 2 columns
      */
     private void createFrame() {
         frame = new JFrame("BallCourt Control GUI");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        GridLayout theLayout = new GridLayout(7, 2);
+        GridLayout theLayout = new GridLayout(6, 2);
         theLayout.setHgap(10);
         theLayout.setVgap(10);
         frame.setLayout(theLayout);
@@ -344,8 +1349,11 @@ public class BallCourtControl
      * <li> Load from File button - action listener calls method deserializeFrame
      * <li> Create BC button - action listener calls method createBcFrame
      * <li> Destroy BC - action listener calls method  destroyBcFrame      
-     * <li> Save&destroy BC - action listener calls method   
-     * <li> 4 Radio buttons for BC frame selection in range 0..MAX_FRAMES-1
+     * <li> Save&destroy BC - action listener calls method serializeBcFrame
+     * <li> Save BC - action listener calls method serializeBcFrame
+     * <li> Record BC - action listener calls method toggleRecording
+     * <li> Replay From File - action listener calls method replayFrame
+     * <li> A spinner and a Select button for BC frame selection by number
      * <li> One text label indicating the selected BC (if any)
      * </ul>
      */
@@ -369,24 +1377,22 @@ public class BallCourtControl
 
         // Create a button for Frame creation
         serializeBcButton = new JButton("Save&destroy BC");
-        serializeBcButton.addActionListener(e -> serializeAndDestroyBcFrame());
-
-        // Create a group for the radio buttons
-        ButtonGroup bg = new ButtonGroup();
-
-        // Create a radio button
-        radioButton0 = new JRadioButton("BC 0");
-        radioButton0.addActionListener(e -> setCurrentFrame(0));
-        radioButton1 = new JRadioButton("BC 1");
-        radioButton1.addActionListener(e -> setCurrentFrame(1));
-        radioButton2 = new JRadioButton("BC 2");
-        radioButton2.addActionListener(e -> setCurrentFrame(2));
-        radioButton3 = new JRadioButton("BC 3");
-        radioButton3.addActionListener(e -> setCurrentFrame(3));
-        bg.add(radioButton0);
-        bg.add(radioButton1);
-        bg.add(radioButton2);
-        bg.add(radioButton3);
+        serializeBcButton.addActionListener(e -> serializeBcFrame(true));
+
+        // Create a button for saving a frame which keeps running
+        saveBcButton = new JButton("Save BC");
+        saveBcButton.addActionListener(e -> serializeBcFrame(false));
+
+        // Create buttons for recording and replaying a BC
+        recordBcButton = new JButton("Record BC");
+        recordBcButton.addActionListener(e -> toggleRecording());
+        replayBcButton = new JButton("Replay From File");
+        replayBcButton.addActionListener(e -> replayFrame());
+
+        // Create the BC number spinner and its select button
+        bcNumberSpinner = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 1));
+        selectBcButton = new JButton("Select BC");
+        selectBcButton.addActionListener(e -> setCurrentFrame((Integer)bcNumberSpinner.getValue()));
         outputTextLabel = new JLabel("Selected Ball Court: BC ");
         outputTextField = new JLabel("not selected");
 
@@ -400,15 +1406,16 @@ public class BallCourtControl
         frame.add(outputTextLabel);
         frame.add(outputTextField);
 
-        frame.add(radioButton0); 
-        frame.add(radioButton1); 
-        frame.add(radioButton2); 
-        frame.add(radioButton3); 
+        frame.add(bcNumberSpinner);
+        frame.add(selectBcButton);
 
         frame.add(createBcButton);
         frame.add(destroyBcButton);
         frame.add(loadFromFileButton);
         frame.add(serializeBcButton);
+        frame.add(recordBcButton);
+        frame.add(replayBcButton);
+        frame.add(saveBcButton);
         frame.add(exitButton); 
 
     }
@@ -439,12 +1446,102 @@ public class BallCourtControl
 
     
     /**
-     * Update all existing ball court frames by calling their run-method
+     * Update all existing ball court frames by stepping and repainting them
      */
     public void update() {
+        step();
+        render();
+    }
+
+    /**
+     * Advance the simulation of all existing ball court frames
+     * by one tick without repainting them. The courts are independent
+     * of each other and are therefore stepped in parallel on the
+     * worker pool; the method returns only after all courts have
+     * been stepped, so that a subsequent render sees a complete tick.
+     * Courts which cannot be seen are stepped less often if a background
+     * tick divisor has been set (see setBackgroundTickDivisor); their
+     * steps are spread evenly over the ticks.
+     */
+    public void step() {
+        final int divisor = backgroundTickDivisor;
+        final long tick = tickCount++;
+        activeFrames.clear();
+        final BallCourtFrame[] fs = bcframes;
+        for ( int no = 0; no < fs.length; no++ ) {
+            BallCourtFrame f = fs[no];
+            if ( f == null ) continue;
+            int ticks = 1;
+            if ( divisor > 1 && !f.isRecording() && !isVisible(no, f) ) {
+                if ( (tick + no) % divisor != 0 ) continue;
+                ticks = divisor;
+            }
+            f.setTicksPerStep(ticks);
+            activeFrames.add(f);
+        }
+        if ( activeFrames.size() == 1 ) {
+            activeFrames.get(0).step();
+        }
+        else if ( !activeFrames.isEmpty() ) {
+            stepPool.invoke(new StepTask(activeFrames, 0, activeFrames.size()));
+        }
+    }
+
+    /**
+     * Create the given number of ball court frames in the first
+     * free ball court numbers.
+     * @param count Number of ball court frames to be created
+     */
+    public void createBcFrames(int count) {
+        int no = 0;
+        for ( int k = 0; k < count; k++ ) {
+            while ( no < bcframes.length && ( bcframes[no] != null || lazyCourts[no] != null
+                                              || pendingIo.contains(no) ) ) {
+                no++;
+            }
+            setCurrentFrame(no);
+            createBcFrame();
+        }
+        if ( count > 0 ) {
+            bcNumberSpinner.setValue(currentBcNo);
+        }
+    }
+
+    /**
+     * Create a ball court frame for a court simulated by worker
+     * processes (see class ShardCoordinator) in the first free ball
+     * court number. The workers are stopped when the frame is destroyed.
+     * @param court The court the coordinator has been created for
+     * @param coordinator Coordinator of the workers
+     */
+    public void createShardedFrame(Court court, ShardCoordinator coordinator) {
+        int no = 0;
+        while ( no < bcframes.length && ( bcframes[no] != null || lazyCourts[no] != null
+                                          || pendingIo.contains(no) ) ) {
+            no++;
+        }
+        setCurrentFrame(no);
+        currentBc = createFrameFor(court);
+        currentBc.startSharding(coordinator);
+        System.out.println("BC " + currentBcNo + " simulated by " + coordinator.getShardCount()
+                           + " shard workers");
+        initialiseCurrentFrame();
+        bcNumberSpinner.setValue(currentBcNo);
+    }
+
+    /**
+     * Repaint all existing ball court frames. In the tiled view, all
+     * courts are drawn into the tiled window in one pass instead.
+     */
+    public void render() {
+        TiledCourtFrame t = tiledFrame;
+        if ( tiled && t != null ) {
+            t.render(bcframes);
+            return;
+        }
         for ( BallCourtFrame f : bcframes ) {
             if ( f != null ) {
-                f.run();    
+                f.render();
             }
         }
     }
@@ -0,0 +1,223 @@
+package main;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-timestep loop scheduler driving the simulation and the rendering
+ * at separate, configurable rates.
+ * <p>
+ * Ticks are scheduled against absolute deadlines, so the tick rate does not
+ * drift with the cost of the simulation or the rendering. Between deadlines
+ * the loop thread is parked with LockSupport.parkNanos. If the loop falls
+ * behind, at most maxCatchUpTicks ticks are executed back-to-back before the
+ * next frame is rendered; a larger backlog is dropped and counted.
+ * The lateness of every tick (actual start time minus its deadline) is
+ * recorded and can be queried while the loop is running.
+ *
+ * @author Jan Peleska
+ * @version 2020-01-25
+ */
+public class GameLoop
+{
+
+    /** Work performed in every simulation tick */
+    private final Runnable simulation;
+    /** Work performed for every rendered frame */
+    private final Runnable render;
+
+    /** Length of a simulation tick in nanoseconds */
+    private final long tickNanos;
+    /** Length of a render frame in nanoseconds */
+    private final long renderNanos;
+    /** Maximal number of ticks executed in a row to catch up */
+    private final int maxCatchUpTicks;
+
+    /** Flag controlling termination of method run */
+    private volatile boolean running;
+
+    /** Number of ticks executed so far */
+    private volatile long ticks;
+    /** Number of frames rendered so far */
+    private volatile long frames;
+    /** Lateness of the most recent tick in nanoseconds */
+    private volatile long lastLatenessNanos;
+    /** Maximal lateness of a tick since the last reset in nanoseconds */
+    private volatile long maxLatenessNanos;
+    /** Sum of all tick latenesses in nanoseconds */
+    private volatile long totalLatenessNanos;
+    /** Number of ticks started later than one tick length after their deadline */
+    private volatile long lateTicks;
+    /** Number of ticks skipped because the catch-up limit was exceeded */
+    private volatile long droppedTicks;
+    /** Number of exceptions thrown by the simulation or render step */
+    private volatile long errors;
+
+    /**
+     * Constructor for a game loop
+     * @param simulation Work performed in every simulation tick
+     * @param render Work performed for every rendered frame
+     * @param tickRate Simulation ticks per second
+     * @param renderRate Rendered frames per second
+     * @param maxCatchUpTicks Maximal number of ticks executed in a row
+     *        when the loop has fallen behind (at least 1)
+     */
+    public GameLoop(Runnable simulation, Runnable render,
+                    int tickRate, int renderRate, int maxCatchUpTicks) {
+        if ( tickRate <= 0 || renderRate <= 0 || maxCatchUpTicks <= 0 ) {
+            throw new IllegalArgumentException("Rates and catch-up limit must be positive");
+        }
+        this.simulation = simulation;
+        this.render = render;
+        this.tickNanos = 1_000_000_000L / tickRate;
+        this.renderNanos = 1_000_000_000L / renderRate;
+        this.maxCatchUpTicks = maxCatchUpTicks;
+    }
+
+    /**
+     * Execute the loop in the calling thread until method stop is called.
+     */
+    public void run() {
+
+        running = true;
+        long nextTick = System.nanoTime();
+        long nextFrame = nextTick;
+
+        while ( running ) {
+
+            long now = System.nanoTime();
+
+            // Execute all ticks whose deadline has passed,
+            // but not more than maxCatchUpTicks in a row
+            int executed = 0;
+            while ( now - nextTick >= 0 && executed < maxCatchUpTicks ) {
+                recordLateness(now - nextTick);
+                step(simulation);
+                ticks++;
+                nextTick += tickNanos;
+                executed++;
+                now = System.nanoTime();
+            }
+
+            // Still behind after catching up: drop the backlog
+            if ( now - nextTick >= tickNanos ) {
+                long behind = (now - nextTick) / tickNanos;
+                droppedTicks += behind;
+                nextTick += behind * tickNanos;
+            }
+
+            if ( now - nextFrame >= 0 ) {
+                step(render);
+                frames++;
+                nextFrame += renderNanos;
+                now = System.nanoTime();
+                if ( now - nextFrame >= renderNanos ) {
+                    // Rendering cannot keep up: skip frames instead of bursting
+                    nextFrame = now + renderNanos;
+                }
+            }
+
+            long deadline = ( nextTick - nextFrame < 0 ) ? nextTick : nextFrame;
+            long wait = deadline - System.nanoTime();
+            if ( wait > 0 ) {
+                LockSupport.parkNanos(this, wait);
+            }
+            if ( Thread.interrupted() ) {
+                running = false;
+            }
+        }
+    }
+
+    /** Request termination of method run after the current iteration */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Execute one simulation or render step. Exceptions are reported
+     * and counted, but do not terminate the loop.
+     * @param work The step to be executed
+     */
+    private void step(Runnable work) {
+        try {
+            work.run();
+        }
+        catch(RuntimeException e) {
+            errors++;
+            System.err.println("Exception in game loop: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Record the lateness of a tick
+     * @param lateness Actual start time minus deadline of the tick in nanoseconds
+     */
+    private void recordLateness(long lateness) {
+        lastLatenessNanos = lateness;
+        totalLatenessNanos += lateness;
+        if ( lateness > maxLatenessNanos ) {
+            maxLatenessNanos = lateness;
+        }
+        if ( lateness > tickNanos ) {
+            lateTicks++;
+        }
+    }
+
+    /** Return the number of ticks executed so far */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /** Return the number of frames rendered so far */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** Return the lateness of the most recent tick in nanoseconds */
+    public long getLastLatenessNanos() {
+        return lastLatenessNanos;
+    }
+
+    /** Return the maximal lateness of a tick since the last reset in nanoseconds */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /** Return the average lateness of all ticks in nanoseconds */
+    public long getAverageLatenessNanos() {
+        long t = ticks;
+        return t == 0 ? 0 : totalLatenessNanos / t;
+    }
+
+    /** Return the number of ticks started more than one tick length late */
+    public long getLateTicks() {
+        return lateTicks;
+    }
+
+    /** Return the number of ticks dropped because the loop could not keep up */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /** Return the number of exceptions thrown by simulation or render steps */
+    public long getErrors() {
+        return errors;
+    }
+
+    /** Reset the maximal tick lateness */
+    public void resetMaxLateness() {
+        maxLatenessNanos = 0;
+    }
+
+    /**
+     * Return a one-line summary of the loop metrics
+     * @return Summary text
+     */
+    public String statistics() {
+        return String.format("ticks %d, frames %d, lateness last/avg/max %.2f/%.2f/%.2f ms, "
+                             + "late %d, dropped %d, errors %d",
+                             ticks, frames,
+                             lastLatenessNanos / 1e6, getAverageLatenessNanos() / 1e6,
+                             maxLatenessNanos / 1e6, lateTicks, droppedTicks, errors);
+    }
+}
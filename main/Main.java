@@ -2,31 +2,645 @@ package main;
 
 import ballcourt.*;
 import gui.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
 
+    /** Default number of ticks simulated in headless mode */
+    private static final int DEFAULT_TICKS = 10000;
+
+    /** Default number of balls per court in headless mode */
+    private static final int DEFAULT_BALLS = 1;
+
+    /** Default number of players per court in headless mode */
+    private static final int DEFAULT_PLAYERS = 1;
+
+    /** Default number of steps per court in batch mode */
+    private static final int DEFAULT_BATCH_TICKS = 1000;
+
+    /** Default number of courts per parameter set in batch mode */
+    private static final int DEFAULT_BATCH_COURTS = 1000;
+
+    /** Default largest speed of the players in y-direction */
+    private static final int DEFAULT_MAX_VEL_Y = 5;
+
+    /** Default court width in headless mode */
+    private static final int DEFAULT_WIDTH = 300;
+
+    /** Default court height in headless mode */
+    private static final int DEFAULT_HEIGHT = 300;
+
+    /** Default number of simulation ticks per second */
+    private static final int DEFAULT_TICK_RATE = 100;
+
+    /** Default number of rendered frames per second */
+    private static final int DEFAULT_RENDER_RATE = 60;
+
+    /** Default time between two autosaves in seconds */
+    private static final int DEFAULT_AUTOSAVE_INTERVAL = 60;
+
+    /** Distance of the court rectangle from the border of exported frames */
+    private static final int EXPORT_MARGIN = 10;
+
+    /** Default number of ticks the loop may execute in a row to catch up */
+    private static final int DEFAULT_MAX_CATCH_UP = 5;
+
     /**
      * The main method is called without parameters
      * and sets up the graphical user interface.
-     * After that, a non-terminating update loop
-     * is entered which triggers updates to te GUI state
-     * every 10ms.
+     * After that, a non-terminating fixed-timestep game loop
+     * is entered which advances the simulation of all courts
+     * and repaints them at separate rates (see class GameLoop).
+     * Options in GUI mode:
+     * <ul>
+     * <li> --tick-rate N     simulation ticks per second (default 100)
+     * <li> --render-rate N   rendered frames per second (default 60)
+     * <li> --max-catch-up N  ticks executed in a row when behind (default 5)
+     * <li> --loop-stats      print the loop metrics once per second
+     * <li> --courts N        create N ball courts at start-up
+     * <li> --seed N          base seed for the ball courts (court n uses N+n)
+     * <li> --active-rendering  draw and present the courts in the loop thread
+     *                          with a BufferStrategy instead of Swing repaints
+     * <li> --tiled           show all courts as tiles of a single window
+     * <li> --no-interpolation  draw the latest tick instead of interpolating
+     *                          between the last two ticks
+     * <li> --hud             show frame rate and duration percentiles on the courts
+     * <li> --heatmap-threshold N  draw the ball density instead of the balls
+     *                        in courts with more than N balls
+     * <li> --background-tick-divisor N  step courts which cannot be seen
+     *                        only in every N-th tick, N ticks at once
+     * <li> --stats-csv FILE  write the duration histograms of all courts
+     *                        to FILE when the program exits
+     * <li> --autosave DIR    save snapshots of all courts into DIR periodically
+     * <li> --autosave-interval N  seconds between two autosaves (default 60)
+     * <li> --autosave-history  keep all autosaves of a court as checkpoints
+     *                        in DIR/BC_n.bcc (see class CheckpointLog)
+     * <li> --shards K        create a further court of size --width x --height
+     *                        with --balls balls, simulated by K worker processes
+     *                        (see class ShardCoordinator)
+     * <li> --shard-port P    wait for the K workers on port P instead of
+     *                        starting them on this host
+     * </ul>
+     * <p>
+     * When called with options --convert OLD.ser NEW, a ball court file
+     * serialized by an earlier version is converted into a court snapshot.
+     * <p>
+     * When called with options --checkpoint LOG K NEW, checkpoint number K
+     * of a checkpoint log is restored into a court snapshot.
+     * <p>
+     * When called with option --headless, no GUI is created.
+     * Instead, a single court is simulated without a display
+     * (see method runHeadless). Further options in headless mode:
+     * <ul>
+     * <li> --ticks N    number of ticks to simulate
+     * <li> --balls N    number of balls in the court
+     * <li> --players N  number of players in the court
+     * <li> --width N, --height N  size of the court
+     * <li> --no-ball-collisions  balls do not bounce off each other
+     * <li> --time-step N  ticks simulated per step (--ticks counts steps)
+     * <li> --seed N       seed of the court's random number generator
+     * <li> --export PATH  draw the court off-screen and write the frames
+     *                     to PATH (see class FrameExporter)
+     * <li> --export-format png|raw  a directory of PNG files (default)
+     *                     or a single raw RGB file
+     * <li> --export-every N  export every N-th step (default 1)
+     * <li> --heatmap-threshold N  export the ball density instead of the balls
+     *                     if the court has more than N balls
+     * <li> --checkpoints FILE  append a checkpoint of the court to the
+     *                     checkpoint log FILE (see class CheckpointLog)
+     * <li> --checkpoint-every N  write a checkpoint every N-th step (default 100)
+     * <li> --keyframe-every N  write a keyframe after N deltas (default 32)
+     * <li> --shards K     simulate the court by K worker processes
+     *                     (see method runSharded); --players defaults to 0
+     * <li> --shard-port P wait for the K workers on port P instead of
+     *                     starting them on this host
+     * </ul>
+     * <p>
+     * When called with option --batch, many headless courts are simulated
+     * in parallel for every combination of the parameters below, and the
+     * distribution of the player scores is reported (see method runBatch).
+     * The court options of headless mode apply; further options:
+     * <ul>
+     * <li> --batch-courts N  courts per parameter set (default 1000)
+     * <li> --ticks N         steps per court (default 1000)
+     * <li> --max-speed LIST  comma separated largest ball speeds (default 10)
+     * <li> --max-vel-y LIST  comma separated largest player speeds (default 5)
+     * <li> --threads N       number of worker threads (default: all cores)
+     * <li> --batch-csv FILE  also write the report to a CSV file
+     * </ul>
+     * <p>
+     * When called with option --shard-worker HOST:PORT, the program
+     * serves as a worker of the sharded court whose coordinator listens
+     * on HOST:PORT (see class ShardWorker).
      */
     public static void main(String[] args) {
 
+        if ( hasOption(args, "--convert") ) {
+            convert(args);
+            return;
+        }
+
+        if ( hasOption(args, "--checkpoint") ) {
+            restoreCheckpoint(args);
+            return;
+        }
+
+        if ( hasOption(args, "--shard-worker") ) {
+            try {
+                ShardWorker.run(stringOption(args, "--shard-worker", ""));
+            }
+            catch(IOException e) {
+                System.err.println("Shard worker failed: " + e);
+            }
+            return;
+        }
+
+        if ( hasOption(args, "--batch") ) {
+            runBatch(args);
+            return;
+        }
+
+        final boolean sharded = hasOption(args, "--shards");
+        if ( hasOption(args, "--headless") ) {
+            Court court = createCourt(intOption(args, "--width", DEFAULT_WIDTH),
+                                      intOption(args, "--height", DEFAULT_HEIGHT),
+                                      intOption(args, "--balls", DEFAULT_BALLS),
+                                      intOption(args, "--players", sharded ? 0 : DEFAULT_PLAYERS),
+                                      longOption(args, "--seed", System.nanoTime()));
+            court.setBallCollisions(!hasOption(args, "--no-ball-collisions"));
+            court.setTimeStep(intOption(args, "--time-step", 1));
+            if ( hasOption(args, "--export") ) {
+                exportHeadless(court, intOption(args, "--ticks", DEFAULT_TICKS), args);
+            }
+            else if ( hasOption(args, "--checkpoints") ) {
+                checkpointHeadless(court, intOption(args, "--ticks", DEFAULT_TICKS), args);
+            }
+            else if ( sharded ) {
+                runSharded(court, intOption(args, "--ticks", DEFAULT_TICKS), args);
+            }
+            else {
+                runHeadless(court, intOption(args, "--ticks", DEFAULT_TICKS));
+            }
+            return;
+        }
+
         BallCourtControl gui = new BallCourtControl();
         gui.setup();
+        if ( hasOption(args, "--seed") ) {
+            gui.setSeed(longOption(args, "--seed", 0));
+        }
+        final boolean active = hasOption(args, "--active-rendering");
+        gui.setActiveRendering(active);
+        gui.setInterpolation(!hasOption(args, "--no-interpolation"));
+        if ( hasOption(args, "--tiled") ) {
+            gui.setTiledView(true);
+        }
+        gui.setHud(hasOption(args, "--hud"));
+        gui.setBackgroundTickDivisor(intOption(args, "--background-tick-divisor", 1));
+        gui.setHeatmapThreshold(intOption(args, "--heatmap-threshold", BallCourt.DEFAULT_HEATMAP_THRESHOLD));
+        if ( hasOption(args, "--stats-csv") ) {
+            final Path csv = Paths.get(stringOption(args, "--stats-csv", "stats.csv"));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    gui.writeStatistics(csv);
+                    System.out.println("Statistics written to " + csv);
+                }
+                catch(IOException e) {
+                    System.err.println("Writing statistics failed: " + e);
+                }
+            }));
+        }
+        if ( hasOption(args, "--autosave") ) {
+            gui.setAutosave(Paths.get(stringOption(args, "--autosave", "autosave")),
+                            intOption(args, "--autosave-interval", DEFAULT_AUTOSAVE_INTERVAL),
+                            hasOption(args, "--autosave-history"));
+        }
+        gui.createBcFrames(intOption(args, "--courts", 0));
+        if ( sharded ) {
+            Court court = createCourt(intOption(args, "--width", DEFAULT_WIDTH),
+                                      intOption(args, "--height", DEFAULT_HEIGHT),
+                                      intOption(args, "--balls", DEFAULT_BALLS),
+                                      0, longOption(args, "--seed", System.nanoTime()));
+            try {
+                gui.createShardedFrame(court, startShards(court, args));
+            }
+            catch(IOException e) {
+                System.err.println("Starting the shard workers failed: " + e);
+            }
+        }
+
+        GameLoop loop = new GameLoop(gui::step, gui::render,
+                                     intOption(args, "--tick-rate", DEFAULT_TICK_RATE),
+                                     intOption(args, "--render-rate", DEFAULT_RENDER_RATE),
+                                     intOption(args, "--max-catch-up", DEFAULT_MAX_CATCH_UP));
+
+        if ( hasOption(args, "--loop-stats") ) {
+            Timer statsTimer = new Timer("loop-stats", true);
+            statsTimer.scheduleAtFixedRate(new TimerTask() {
+                    public void run() {
+                        System.out.println("Game loop: " + loop.statistics());
+                        if ( active || hasOption(args, "--tiled") ) {
+                            System.out.println("Rendering: " + gui.renderStatistics());
+                        }
+                    }
+                }, 1000, 1000);
+        }
+
+        loop.run();
+
+    }
+
+    /**
+     * Create a court for headless simulation. The first ball starts in
+     * the upper left corner like in the GUI courts, the other balls are
+     * placed randomly. The players are spread evenly in x-direction,
+     * player k tracking ball k modulo the number of balls.
+     * @param width Width of the court
+     * @param height Height of the court
+     * @param balls Number of balls in the court
+     * @param players Number of players in the court
+     * @param seed Seed of the court's random number generator
+     * @return The new court
+     */
+    private static Court createCourt(int width, int height, int balls, int players, long seed) {
+        Court court = new Court(width,height,seed);
+        court.addBall(new Ball(court,0,0));
+        if ( balls > 1 ) {
+            court.addBalls(balls - 1);
+        }
+        for ( int k = 0; k < players; k++ ) {
+            Player player = new Player(court, (k + 1) * width / (players + 1), height / 2, 5);
+            player.setTarget(k % Math.max(1, balls));
+            court.addPlayer(player);
+        }
+        return court;
+    }
+
+    /**
+     * Simulate a court for the given number of ticks as fast as possible,
+     * then print the throughput. No AWT or Swing classes are used.
+     * @param court The court to be simulated
+     * @param ticks Number of ticks to simulate
+     */
+    private static void runHeadless(Court court, int ticks) {
+
+        long start = System.nanoTime();
+        for ( int t = 0; t < ticks; t++ ) {
+            court.move();
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("Headless: %d steps of %d ticks, %d balls in %.3f s, seed %d%n",
+                          ticks, court.getTimeStep(), court.getBallCount(), seconds, court.getSeed());
+        int score = 0;
+        for ( int k = 0; k < court.getPlayerCount(); k++ ) {
+            score += court.getPlayer(k).getScore();
+        }
+        System.out.printf("  %.0f steps/s, %.0f simulated ticks/s, %.0f ball updates/s, total player score %d%n",
+                          ticks / seconds, (double)ticks * court.getTimeStep() / seconds,
+                          (double)ticks * court.getBallCount() / seconds, score);
+    }
+
+    /**
+     * Simulate a batch of courts for every combination of the options
+     * --max-speed and --max-vel-y (see class BatchRunner) and print the
+     * distribution of the player scores and the throughput per parameter
+     * set. All parameter sets use the same seeds, so that they are
+     * compared on the same initial courts.
+     * @param args Command line arguments with the batch options
+     */
+    private static void runBatch(String[] args) {
+        final int ticks = intOption(args, "--ticks", DEFAULT_BATCH_TICKS);
+        final int courts = intOption(args, "--batch-courts", DEFAULT_BATCH_COURTS);
+        final int balls = intOption(args, "--balls", DEFAULT_BALLS);
+        final long seed = longOption(args, "--seed", System.nanoTime());
+        BatchRunner runner = new BatchRunner(intOption(args, "--width", DEFAULT_WIDTH),
+                                             intOption(args, "--height", DEFAULT_HEIGHT),
+                                             balls, intOption(args, "--players", DEFAULT_PLAYERS),
+                                             ticks);
+        runner.setBallCollisions(!hasOption(args, "--no-ball-collisions"));
+        runner.setTimeStep(intOption(args, "--time-step", 1));
+        final int[] speeds = intListOption(args, "--max-speed", new int[] { Ball.MAX });
+        final int[] velocities = intListOption(args, "--max-vel-y", new int[] { DEFAULT_MAX_VEL_Y });
+        ForkJoinPool pool = new ForkJoinPool(intOption(args, "--threads",
+                                                       Runtime.getRuntime().availableProcessors()));
+
+        StringBuilder csv = new StringBuilder("maxSpeed,maxVelY,courts,players,mean,stddev,min,p10,p50,p90,p99,max,courtsPerSecond\n");
+        System.out.printf("Batch: %d courts of %d balls per parameter set, %d steps, %d threads, seed %d%n",
+                          courts, balls, ticks, pool.getParallelism(), seed);
+        System.out.println("maxSpeed maxVelY  players     mean   stddev   min   p10   p50   p90   p99   max  courts/s");
+        try {
+            for ( int speed : speeds ) {
+                for ( int velocity : velocities ) {
+                    long start = System.nanoTime();
+                    ScoreStatistics stats = runner.run(speed, velocity, courts, seed, pool);
+                    double rate = courts / (Math.max(1, System.nanoTime() - start) / 1e9);
+                    System.out.printf("%8d %7d %8d %8.2f %8.2f %5d %5d %5d %5d %5d %5d %9.1f%n",
+                                      speed, velocity, stats.getCount(), stats.getMean(),
+                                      stats.getStandardDeviation(), stats.getMin(),
+                                      stats.getPercentile(10), stats.getPercentile(50),
+                                      stats.getPercentile(90), stats.getPercentile(99),
+                                      stats.getMax(), rate);
+                    csv.append(String.format(Locale.ROOT, "%d,%d,%d,%d,%.4f,%.4f,%d,%d,%d,%d,%d,%d,%.2f%n",
+                                             speed, velocity, courts, stats.getCount(), stats.getMean(),
+                                             stats.getStandardDeviation(), stats.getMin(),
+                                             stats.getPercentile(10), stats.getPercentile(50),
+                                             stats.getPercentile(90), stats.getPercentile(99),
+                                             stats.getMax(), rate));
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        if ( hasOption(args, "--batch-csv") ) {
+            Path file = Paths.get(stringOption(args, "--batch-csv", "batch.csv"));
+            try {
+                Files.writeString(file, csv);
+                System.out.println("Report written to " + file);
+            }
+            catch(IOException e) {
+                System.err.println("Writing the report failed: " + e);
+            }
+        }
+    }
 
-        while (true) {
+    /**
+     * Simulate a court for the given number of ticks by worker processes
+     * (see class ShardCoordinator) as fast as possible, then print the
+     * throughput. The state of the balls is only collected after the
+     * last tick.
+     * @param court The court to be simulated
+     * @param ticks Number of ticks to simulate
+     * @param args Command line arguments with the shard options
+     */
+    private static void runSharded(Court court, int ticks, String[] args) {
+        try ( ShardCoordinator coordinator = startShards(court, args) ) {
+            long start = System.nanoTime();
+            for ( int t = 0; t < ticks; t++ ) {
+                coordinator.step(( t == ticks - 1 ) ? court : null, court.getTimeStep());
+            }
+            double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+            System.out.printf("Sharded: %d steps of %d ticks, %d balls on %d shards in %.3f s, seed %d%n",
+                              ticks, court.getTimeStep(), court.getBallCount(),
+                              coordinator.getShardCount(), seconds, court.getSeed());
+            System.out.printf("  %.0f steps/s, %.0f ball updates/s%n",
+                              ticks / seconds, (double)ticks * court.getBallCount() / seconds);
+        }
+        catch(IOException e) {
+            System.err.println("Sharded simulation failed: " + e);
+        }
+    }
+
+    /**
+     * Start the workers of a sharded court as given by options --shards
+     * and --shard-port
+     * @param court The court to be simulated
+     * @param args Command line arguments with the shard options
+     * @return The coordinator of the workers
+     * @throws IOException if the workers cannot be started or connected
+     */
+    private static ShardCoordinator startShards(Court court, String[] args) throws IOException {
+        final int shards = intOption(args, "--shards", 1);
+        if ( hasOption(args, "--shard-port") ) {
+            final int port = intOption(args, "--shard-port", 0);
+            System.out.println("Waiting for " + shards + " shard workers on port " + port);
+            return ShardCoordinator.listen(court, shards, port, 0);
+        }
+        return ShardCoordinator.spawn(court, shards);
+    }
 
-            gui.update();
+    /**
+     * Simulate a court for the given number of ticks and export its
+     * frames, drawn into off-screen images, to the file or directory
+     * given by option --export. Then print the export throughput.
+     * @param court The court to be simulated
+     * @param ticks Number of ticks to simulate
+     * @param args Command line arguments with the export options
+     */
+    private static void exportHeadless(Court court, int ticks, String[] args) {
+        Path target = Paths.get(stringOption(args, "--export", "frames"));
+        String formatName = stringOption(args, "--export-format", "png");
+        FrameExporter.Format format;
+        try {
+            format = FrameExporter.Format.valueOf(formatName.toUpperCase());
+        }
+        catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option --export-format expects png or raw: " + formatName);
+        }
+        final int every = Math.max(1, intOption(args, "--export-every", 1));
+
+        BallCourt bc = new BallCourt(court, EXPORT_MARGIN, EXPORT_MARGIN);
+        bc.setInterpolation(false);
+        bc.setHeatmapThreshold(intOption(args, "--heatmap-threshold", BallCourt.DEFAULT_HEATMAP_THRESHOLD));
+        final int width = court.getWidth() + 2*EXPORT_MARGIN + 1;
+        final int height = court.getHeight() + 2*EXPORT_MARGIN + 1;
 
+        long start = System.nanoTime();
+        try {
+            FrameExporter exporter = new FrameExporter(target, format, width, height,
+                                                       Runtime.getRuntime().availableProcessors());
             try {
-                Thread.sleep(10);
+                for ( int t = 0; t < ticks; t++ ) {
+                    court.move();
+                    if ( t % every == 0 ) {
+                        bc.publish();
+                        exporter.export(bc);
+                    }
+                }
+            }
+            finally {
+                // waits for the encoders to write all pending frames
+                exporter.close();
+            }
+            double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+            System.out.printf("Exported %d frames of %dx%d pixels to %s (%s) in %.3f s, %.1f frames/s%n",
+                              exporter.getFrames(), width, height, target, formatName,
+                              seconds, exporter.getFrames() / seconds);
+        }
+        catch(IOException e) {
+            System.err.println("Export failed: " + e);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Simulate a court for the given number of ticks and append a
+     * checkpoint of it to the checkpoint log given by option --checkpoints
+     * every --checkpoint-every steps. Then print the size of the log
+     * compared to writing a full snapshot for every checkpoint.
+     * @param court The court to be simulated
+     * @param ticks Number of ticks to simulate
+     * @param args Command line arguments with the checkpoint options
+     */
+    private static void checkpointHeadless(Court court, int ticks, String[] args) {
+        Path file = Paths.get(stringOption(args, "--checkpoints", "court.bcc"));
+        final int every = Math.max(1, intOption(args, "--checkpoint-every", 100));
+        final int keyframes = Math.max(0, intOption(args, "--keyframe-every",
+                                                    CheckpointLog.DEFAULT_KEYFRAME_INTERVAL));
+
+        long start = System.nanoTime();
+        long full = 0;
+        try ( CheckpointLog log = CheckpointLog.create(file, keyframes) ) {
+            for ( int t = 0; t < ticks; t++ ) {
+                court.move();
+                if ( t % every == 0 ) {
+                    log.append(court);
+                    full += CourtSnapshot.size(court);
+                }
             }
-            catch(Exception e){}
+            double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+            System.out.printf("Wrote %d checkpoints to %s in %.3f s: %d bytes, %.1f%% of full snapshots%n",
+                              log.getCheckpointCount(), file, seconds, log.getDataSize(),
+                              100.0 * log.getDataSize() / Math.max(1, full));
+        }
+        catch(IOException e) {
+            System.err.println("Writing checkpoints failed: " + e);
         }
+    }
 
+    /**
+     * Restore a checkpoint of a checkpoint log into a court snapshot file
+     * @param args Command line arguments containing --checkpoint LOG K NEW
+     */
+    private static void restoreCheckpoint(String[] args) {
+        int i = Arrays.asList(args).indexOf("--checkpoint");
+        if ( i + 3 >= args.length ) {
+            System.err.println("Usage: --checkpoint LOG K NEW");
+            return;
+        }
+        try ( CheckpointLog log = CheckpointLog.open(Paths.get(args[i+1])) ) {
+            CourtSnapshot.save(log.loadSnapshot(Integer.parseInt(args[i+2])), Paths.get(args[i+3]));
+            System.out.println("Restored checkpoint " + args[i+2] + " of " + args[i+1] + " to " + args[i+3]);
+        }
+        catch(IOException | IndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Restoring the checkpoint failed: " + e);
+        }
+    }
+
+    /**
+     * Convert a serialized ball court frame file into a court snapshot file
+     * @param args Command line arguments containing --convert OLD NEW
+     */
+    private static void convert(String[] args) {
+        int i = Arrays.asList(args).indexOf("--convert");
+        if ( i + 2 >= args.length ) {
+            System.err.println("Usage: --convert OLD.ser NEW");
+            return;
+        }
+        try {
+            LegacyFrameReader.convert(Paths.get(args[i+1]), Paths.get(args[i+2]));
+            System.out.println("Converted " + args[i+1] + " to " + args[i+2]);
+        }
+        catch(IOException e) {
+            System.err.println("Conversion failed: " + e);
+        }
+    }
+
+    /**
+     * Check whether a command line option is present
+     * @param args Command line arguments
+     * @param name Name of the option, e.g. "--headless"
+     * @return true iff the option is contained in args
+     */
+    static boolean hasOption(String[] args, String name) {
+        for ( String a : args ) {
+            if ( a.equals(name) ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the string value following a command line option
+     * @param args Command line arguments
+     * @param name Name of the option, e.g. "--export"
+     * @param defaultValue Value returned if the option is absent
+     * @return The option value or defaultValue
+     */
+    static String stringOption(String[] args, String name, String defaultValue) {
+        for ( int i = 0; i < args.length - 1; i++ ) {
+            if ( args[i].equals(name) ) {
+                return args[i+1];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Get the long value following a command line option
+     * @param args Command line arguments
+     * @param name Name of the option, e.g. "--seed"
+     * @param defaultValue Value returned if the option is absent
+     * @return The option value or defaultValue
+     */
+    static long longOption(String[] args, String name, long defaultValue) {
+        for ( int i = 0; i < args.length - 1; i++ ) {
+            if ( args[i].equals(name) ) {
+                try {
+                    return Long.parseLong(args[i+1]);
+                }
+                catch(NumberFormatException e) {
+                    throw new IllegalArgumentException("Option " + name + " expects a number: " + args[i+1]);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Get the comma separated integer values following a command line option
+     * @param args Command line arguments
+     * @param name Name of the option, e.g. "--max-speed"
+     * @param defaultValue Values returned if the option is absent
+     * @return The option values or defaultValue
+     */
+    static int[] intListOption(String[] args, String name, int[] defaultValue) {
+        String list = stringOption(args, name, null);
+        if ( list == null ) return defaultValue;
+        String[] items = list.split(",");
+        int[] values = new int[items.length];
+        for ( int k = 0; k < items.length; k++ ) {
+            try {
+                values[k] = Integer.parseInt(items[k].trim());
+            }
+            catch(NumberFormatException e) {
+                throw new IllegalArgumentException("Option " + name + " expects numbers: " + list);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get the integer value following a command line option
+     * @param args Command line arguments
+     * @param name Name of the option, e.g. "--ticks"
+     * @param defaultValue Value returned if the option is absent
+     * @return The option value or defaultValue
+     */
+    static int intOption(String[] args, String name, int defaultValue) {
+        for ( int i = 0; i < args.length - 1; i++ ) {
+            if ( args[i].equals(name) ) {
+                try {
+                    return Integer.parseInt(args[i+1]);
+                }
+                catch(NumberFormatException e) {
+                    throw new IllegalArgumentException("Option " + name + " expects a number: " + args[i+1]);
+                }
+            }
+        }
+        return defaultValue;
     }
 
 }